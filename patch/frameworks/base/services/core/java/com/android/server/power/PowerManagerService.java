@@ -73,6 +73,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 import libcore.util.Objects;
 
@@ -201,8 +202,13 @@ public final class PowerManagerService extends SystemService
     private final ArrayList<SuspendBlocker> mSuspendBlockers = new ArrayList<SuspendBlocker>();
 
     // Table of all wake locks acquired by applications.
+    // Unordered, a released lock's slot is taken by the last one.
     private final ArrayList<WakeLock> mWakeLocks = new ArrayList<WakeLock>();
 
+    // The same wake locks by the binder of the client holding them.
+    private final IdentityHashMap<IBinder, WakeLock> mWakeLocksByBinder =
+            new IdentityHashMap<IBinder, WakeLock>();
+
     // A bitfield that summarizes the state of all active wakelocks.
     private int mWakeLockSummary;
 
@@ -784,11 +790,9 @@ public final class PowerManagerService extends SystemService
                         + ", tag=\"" + tag + "\", ws=" + ws + ", uid=" + uid + ", pid=" + pid);
             }
 
-            WakeLock wakeLock;
-            int index = findWakeLockIndexLocked(lock);
+            WakeLock wakeLock = mWakeLocksByBinder.get(lock);
             boolean notifyAcquire;
-            if (index >= 0) {
-                wakeLock = mWakeLocks.get(index);
+            if (wakeLock != null) {
                 if (!wakeLock.hasSameProperties(flags, tag, ws, uid, pid)) {
                     // Update existing wake lock.  This shouldn't happen but is harmless.
                     notifyWakeLockChangingLocked(wakeLock, flags, tag, packageName,
@@ -803,7 +807,7 @@ public final class PowerManagerService extends SystemService
                 } catch (RemoteException ex) {
                     throw new IllegalArgumentException("Wake lock is already dead.");
                 }
-                mWakeLocks.add(wakeLock);
+                addWakeLockLocked(wakeLock);
                 setWakeLockDisabledStateLocked(wakeLock);
                 notifyAcquire = true;
             }
@@ -853,8 +857,8 @@ public final class PowerManagerService extends SystemService
 
     private void releaseWakeLockInternal(IBinder lock, int flags) {
         synchronized (mLock) {
-            int index = findWakeLockIndexLocked(lock);
-            if (index < 0) {
+            WakeLock wakeLock = mWakeLocksByBinder.get(lock);
+            if (wakeLock == null) {
                 if (DEBUG_SPEW) {
                     Slog.d(TAG, "releaseWakeLockInternal: lock=" + Objects.hashCode(lock)
                             + " [not found], flags=0x" + Integer.toHexString(flags));
@@ -862,7 +866,6 @@ public final class PowerManagerService extends SystemService
                 return;
             }
 
-            WakeLock wakeLock = mWakeLocks.get(index);
             if (DEBUG_SPEW) {
                 Slog.d(TAG, "releaseWakeLockInternal: lock=" + Objects.hashCode(lock)
                         + " [" + wakeLock.mTag + "], flags=0x" + Integer.toHexString(flags));
@@ -873,7 +876,7 @@ public final class PowerManagerService extends SystemService
             }
 
             wakeLock.mLock.unlinkToDeath(wakeLock, 0);
-            removeWakeLockLocked(wakeLock, index);
+            removeWakeLockLocked(wakeLock);
         }
     }
 
@@ -884,17 +887,28 @@ public final class PowerManagerService extends SystemService
                         + " [" + wakeLock.mTag + "]");
             }
 
-            int index = mWakeLocks.indexOf(wakeLock);
-            if (index < 0) {
+            if (mWakeLocksByBinder.get(wakeLock.mLock) != wakeLock) {
                 return;
             }
 
-            removeWakeLockLocked(wakeLock, index);
+            removeWakeLockLocked(wakeLock);
         }
     }
 
-    private void removeWakeLockLocked(WakeLock wakeLock, int index) {
-        mWakeLocks.remove(index);
+    private void addWakeLockLocked(WakeLock wakeLock) {
+        wakeLock.mIndex = mWakeLocks.size();
+        mWakeLocks.add(wakeLock);
+        mWakeLocksByBinder.put(wakeLock.mLock, wakeLock);
+    }
+
+    private void removeWakeLockLocked(WakeLock wakeLock) {
+        // Move the last wake lock into the slot rather than shifting the rest
+        final WakeLock last = mWakeLocks.remove(mWakeLocks.size() - 1);
+        if (last != wakeLock) {
+            last.mIndex = wakeLock.mIndex;
+            mWakeLocks.set(last.mIndex, last);
+        }
+        mWakeLocksByBinder.remove(wakeLock.mLock);
         notifyWakeLockReleasedLocked(wakeLock);
 
         applyWakeLockFlagsOnReleaseLocked(wakeLock);
@@ -915,8 +929,8 @@ public final class PowerManagerService extends SystemService
     private void updateWakeLockWorkSourceInternal(IBinder lock, WorkSource ws, String historyTag,
             int callingUid) {
         synchronized (mLock) {
-            int index = findWakeLockIndexLocked(lock);
-            if (index < 0) {
+            WakeLock wakeLock = mWakeLocksByBinder.get(lock);
+            if (wakeLock == null) {
                 if (DEBUG_SPEW) {
                     Slog.d(TAG, "updateWakeLockWorkSourceInternal: lock=" + Objects.hashCode(lock)
                             + " [not found], ws=" + ws);
@@ -925,7 +939,6 @@ public final class PowerManagerService extends SystemService
                         + " from uid " + callingUid);
             }
 
-            WakeLock wakeLock = mWakeLocks.get(index);
             if (DEBUG_SPEW) {
                 Slog.d(TAG, "updateWakeLockWorkSourceInternal: lock=" + Objects.hashCode(lock)
                         + " [" + wakeLock.mTag + "], ws=" + ws);
@@ -941,16 +954,6 @@ public final class PowerManagerService extends SystemService
         }
     }
 
-    private int findWakeLockIndexLocked(IBinder lock) {
-        final int count = mWakeLocks.size();
-        for (int i = 0; i < count; i++) {
-            if (mWakeLocks.get(i).mLock == lock) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
     private void notifyWakeLockAcquiredLocked(WakeLock wakeLock) {
         if (mSystemReady && !wakeLock.mDisabled) {
             wakeLock.mNotifiedAcquired = true;
@@ -2850,6 +2853,7 @@ public final class PowerManagerService extends SystemService
         public final int mOwnerPid;
         public boolean mNotifiedAcquired;
         public boolean mDisabled;
+        public int mIndex; // in mWakeLocks
 
         public WakeLock(IBinder lock, int flags, String tag, String packageName,
                 WorkSource workSource, String historyTag, int ownerUid, int ownerPid) {
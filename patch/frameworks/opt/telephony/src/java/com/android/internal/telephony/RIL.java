@@ -39,8 +39,10 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Parcel;
+import android.os.Registrant;
 import android.os.PowerManager;
 import android.os.BatteryManager;
+import android.os.Build;
 import android.os.SystemProperties;
 import android.os.PowerManager.WakeLock;
 import android.os.SystemClock;
@@ -57,7 +59,6 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.telephony.ModemActivityInfo;
 import android.text.TextUtils;
-import android.util.SparseArray;
 import android.view.Display;
 
 import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
@@ -82,14 +83,14 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * {@hide}
@@ -183,135 +184,6 @@ class SonyRIL {
     }
 }
 
-class RILRequest {
-    static final String LOG_TAG = "RilRequest";
-
-    //***** Class Variables
-    static Random sRandom = new Random();
-    static AtomicInteger sNextSerial = new AtomicInteger(0);
-    private static Object sPoolSync = new Object();
-    private static RILRequest sPool = null;
-    private static int sPoolSize = 0;
-    private static final int MAX_POOL_SIZE = 4;
-    private Context mContext;
-
-    //***** Instance Variables
-    int mSerial;
-    int mRequest;
-    Message mResult;
-    Parcel mParcel;
-    RILRequest mNext;
-
-    /**
-     * Retrieves a new RILRequest instance from the pool.
-     *
-     * @param request RIL_REQUEST_*
-     * @param result sent when operation completes
-     * @return a RILRequest instance from the pool.
-     */
-    static RILRequest obtain(int request, Message result) {
-        RILRequest rr = null;
-
-        synchronized(sPoolSync) {
-            if (sPool != null) {
-                rr = sPool;
-                sPool = rr.mNext;
-                rr.mNext = null;
-                sPoolSize--;
-            }
-        }
-
-        if (rr == null) {
-            rr = new RILRequest();
-        }
-
-        rr.mSerial = sNextSerial.getAndIncrement();
-
-        rr.mRequest = request;
-        rr.mResult = result;
-        rr.mParcel = Parcel.obtain();
-
-        if (result != null && result.getTarget() == null) {
-            throw new NullPointerException("Message target must not be null");
-        }
-
-        // first elements in any RIL Parcel
-        rr.mParcel.writeInt(SonyRIL.translateRequest(request));
-        rr.mParcel.writeInt(rr.mSerial);
-
-        return rr;
-    }
-
-    /**
-     * Returns a RILRequest instance to the pool.
-     *
-     * Note: This should only be called once per use.
-     */
-    void release() {
-        synchronized (sPoolSync) {
-            if (sPoolSize < MAX_POOL_SIZE) {
-                mNext = sPool;
-                sPool = this;
-                sPoolSize++;
-                mResult = null;
-            }
-        }
-    }
-
-    private RILRequest() {
-    }
-
-    static void
-    resetSerial() {
-        // use a random so that on recovery we probably don't mix old requests
-        // with new.
-        sNextSerial.set(sRandom.nextInt());
-    }
-
-    String
-    serialString() {
-        //Cheesy way to do %04d
-        StringBuilder sb = new StringBuilder(8);
-        String sn;
-
-        long adjustedSerial = (((long)mSerial) - Integer.MIN_VALUE)%10000;
-
-        sn = Long.toString(adjustedSerial);
-
-        //sb.append("J[");
-        sb.append('[');
-        for (int i = 0, s = sn.length() ; i < 4 - s; i++) {
-            sb.append('0');
-        }
-
-        sb.append(sn);
-        sb.append(']');
-        return sb.toString();
-    }
-
-    void
-    onError(int error, Object ret) {
-        CommandException ex;
-
-        ex = CommandException.fromRilErrno(error);
-
-        if (RIL.RILJ_LOGD) Rlog.d(LOG_TAG, serialString() + "< "
-            + RIL.requestToString(mRequest)
-            + " error: " + ex + " ret=" + RIL.retToString(mRequest, ret));
-
-        if (mResult != null) {
-            AsyncResult.forMessage(mResult, ret, ex);
-            mResult.sendToTarget();
-        }
-
-        if (mParcel != null) {
-            mParcel.recycle();
-            mParcel = null;
-        }
-    }
-}
-
-
 /**
  * RIL implementation of the CommandsInterface.
  *
@@ -321,6 +193,10 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     static final String RILJ_LOG_TAG = "RILJ";
     static final boolean RILJ_LOGD = true;
     static final boolean RILJ_LOGV = false; // STOPSHIP if true
+    // Per request and response log lines. Off by default on user builds,
+    // where mEventLog still records every request and response.
+    static final boolean RILJ_LOG_TEXT = SystemProperties.getBoolean(
+            "persist.radio.rilj.log_text", Build.IS_DEBUGGABLE);
     static final int RADIO_SCREEN_UNSET = -1;
     static final int RADIO_SCREEN_OFF = 0;
     static final int RADIO_SCREEN_ON = 1;
@@ -335,24 +211,143 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     //***** Instance Variables
 
     LocalSocket mSocket;
+    RILFrameTransport mTransport;
     HandlerThread mSenderThread;
     RILSender mSender;
     Thread mReceiverThread;
     RILReceiver mReceiver;
     Display mDefaultDisplay;
     int mDefaultDisplayState = Display.STATE_UNKNOWN;
-    int mRadioScreenState = RADIO_SCREEN_UNSET;
+    volatile int mRadioScreenState = RADIO_SCREEN_UNSET;
     boolean mIsDevicePlugged = false;
     WakeLock mWakeLock;
     final int mWakeLockTimeout;
     // The number of wakelock requests currently active.  Don't release the lock
     // until dec'd to 0
     int mWakeLockCount;
-
-    SparseArray<RILRequest> mRequestList = new SparseArray<RILRequest>();
+    // Bumped when EVENT_WAKE_LOCK_TIMEOUT takes the wakelock from its
+    // holders, whose later release is then not counted again
+    int mWakeLockGeneration;
+    // RILWakeStats per-holder share at that point
+    long mWakeShareAtTimeout;
+    // uptimeMillis of the last acquireWakeLock(). EVENT_WAKE_LOCK_TIMEOUT
+    // is only posted when the lock is first taken, and pushed back from
+    // this when it fires.
+    long mLastWakeLockAcquireMillis;
+    // Who kept mWakeLock held and for how long
+    final RILWakeStats mWakeStats = new RILWakeStats();
+
+    final RILRequestTable mRequestList = new RILRequestTable();
+    // Deadlines of the requests in mRequestList
+    final RILDeadlineWheel mDeadlines;
+    // Only used on the RILSender thread
+    final ArrayList<RILRequest> mExpiredRequests = new ArrayList<RILRequest>();
+
+    // Recent requests and responses, formatted only by dump()
+    final RILEventLog mEventLog = new RILEventLog(RIL_EVENT_LOG_SIZE);
+
+    final RILLatencyStats mLatencyStats = new RILLatencyStats();
+
+    // Null unless PROPERTY_QUERY_CACHE is set
+    final RILQueryCache mQueryCache;
+
+    // Requests waiting for RILSender when send batching is enabled
+    final RILSendScheduler mSendScheduler = new RILSendScheduler();
+    // True while an EVENT_SEND or EVENT_SEND_DRAIN is posted that will
+    // drain mSendScheduler
+    final AtomicBoolean mSendKickPending = new AtomicBoolean(false);
+    final boolean mSendBatching;
+    final int mSendBatchWindowMillis;
 
     Object     mLastNITZTimeInfo;
 
+    // Bulk SMS, see sendSmsBatch()
+    final int mSmsBatchWindow;
+    final Object mSmsBatchLock = new Object();
+    long mSmsBatches;
+    long mSmsBatchParts;
+    long mSmsBatchSent;
+    long mSmsBatchFailed;
+    long mSmsBatchRetries;
+    long mSmsBatchMillis;
+
+    // APDU scripts, see iccTransmitApduScript()
+    final int mApduWindow;
+    final Object mApduScriptLock = new Object();
+    long mApduScripts;
+    long mApduScriptsFailed;
+    long mApduScriptApdus;
+    long mApduScriptMillis;
+
+    // Bulk record reads, see iccReadRecords()
+    final int mRecordReadWindow;
+    final Object mRecordReadLock = new Object();
+    long mRecordReads;
+    long mRecordsRead;
+    long mRecordsFailed;
+    long mRecordReadMillis;
+    long mRecordFirstMillis;
+
+    // Requests rild supports, learning those it doesn't
+    final RILRequestSupport mRequestSupport;
+
+    // Strings in responses, only used on the RILReceiver thread
+    final RILStringCache mStrings = new RILStringCache();
+    // Only changed by createDecodeOnly(), before any response is decoded
+    boolean mReuseStringArrays;
+
+    // Cell info lists, solicited or not, are decoded against the previous
+    // one, only used on the RILReceiver thread
+    final RILCellInfoDecoder mCellInfo = new RILCellInfoDecoder();
+
+    // Response processUnsolicited() last handled, only used on the
+    // RILReceiver thread
+    int mLastUnsolResponse;
+
+    // Fast reconnect. While mReconnecting, idempotent requests wait in
+    // mReplayRequests for rild to come back rather than failing.
+    final boolean mFastReconnect;
+    volatile boolean mReconnecting;
+    final ArrayList<RILRequest> mReplayRequests = new ArrayList<RILRequest>();
+    // Statistics below are guarded by mReplayRequests
+    long mDisconnectNanos;
+    long mReconnects;
+    long mReconnectAttempts;
+    long mReconnectTotalNanos;
+    long mReconnectMaxNanos;
+    long mReconnectLastNanos;
+    long mReplayed;
+    long mReplayExpired;
+
+    // Signal strength coalescing. The payload words of the last
+    // RIL_UNSOL_SIGNAL_STRENGTH are only touched on the RILReceiver thread.
+    final int mSignalStrengthHysteresisDb;
+    final int[] mLastSignalStrengthWords = new int[MAX_SIGNAL_STRENGTH_WORDS];
+    int mLastSignalStrengthWordCount = -1;
+    // Copy of the last value notified to mSignalStrengthRegistrant, null to
+    // notify the next one. A copy, as the registrant modifies what it gets.
+    volatile SignalStrength mLastNotifiedSignalStrength;
+    // Value waiting for the registrant's handler to take it. A newer value
+    // replaces it rather than queueing behind it.
+    final AtomicReference<SignalStrength> mPendingSignalStrength =
+            new AtomicReference<SignalStrength>();
+    long mSignalStrengthReceived;
+    long mSignalStrengthUnchanged;
+    long mSignalStrengthSuppressed;
+    long mSignalStrengthStaleDropped;
+
+    // Low priority unsolicited responses held back while the screen is off,
+    // only the latest of each kind is kept. Guarded by mDeferredUnsolLock.
+    final int mDeferUnsolPolicy;
+    final Object mDeferredUnsolLock = new Object();
+    volatile boolean mHasDeferredUnsol;
+    Object mDeferredCellInfo;
+    Object mDeferredNitz;
+    Object mDeferredDataCallList;
+    long mUnsolDeferred;
+    long mUnsolCoalesced;
+    long mUnsolFlushes;
+
     // When we are testing emergency calls
     AtomicBoolean mTestingEmergencyCall = new AtomicBoolean(false);
 
@@ -361,19 +356,117 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     //***** Events
 
     static final int EVENT_SEND                 = 1;
-    static final int EVENT_WAKE_LOCK_TIMEOUT    = 2;
+    static final int EVENT_REQUEST_DEADLINE     = 2;
+    static final int EVENT_REPLAY               = 3;
+    static final int EVENT_REPLAY_EXPIRED       = 4;
+    static final int EVENT_WAKE_LOCK_TIMEOUT    = 5;
+    static final int EVENT_SEND_DRAIN           = 6;
 
     //***** Constants
 
+    // Not a RIL_Errno: logged and counted for requests failed by their
+    // deadline rather than by rild
+    static final int DEADLINE_EXPIRED = -1;
+
     // match with constant in ril.cpp
     static final int RIL_MAX_COMMAND_BYTES = (8 * 1024);
-    static final int RESPONSE_SOLICITED = 0;
-    static final int RESPONSE_UNSOLICITED = 1;
+    // First word of every frame from rild. Public, as are the other
+    // members the tools in tests/riltools use: they are loaded apart from
+    // telephony-common and get no package access to it.
+    public static final int RESPONSE_SOLICITED = 0;
+    public static final int RESPONSE_UNSOLICITED = 1;
 
     static final String[] SOCKET_NAME_RIL = {"rild", "rild2", "rild3"};
 
     static final int SOCKET_OPEN_RETRY_MILLIS = 4 * 1000;
 
+    // With fast reconnect, the first retry after rild went away and the
+    // factor each further retry waits longer, up to SOCKET_OPEN_RETRY_MILLIS
+    static final int FAST_RECONNECT_RETRY_MILLIS = 20;
+    static final int FAST_RECONNECT_BACKOFF = 2;
+    // How long idempotent requests wait for rild to come back
+    static final int REPLAY_WINDOW_MILLIS = 10 * 1000;
+
+    // Most requests RILSender coalesces into a single socket write
+    static final int MAX_SEND_BATCH = 32;
+
+    static final int RIL_EVENT_LOG_SIZE = 1024;
+
+    // RIL_SignalStrength_v10 is 13 ints, leave room for vendor extensions
+    static final int MAX_SIGNAL_STRENGTH_WORDS = 32;
+
+    // Signal strength changes smaller than this many dB that keep the same
+    // level are not notified. 0 notifies every change.
+    static final String PROPERTY_SIGNAL_STRENGTH_HYSTERESIS =
+            "persist.radio.rilj.ss_hyst_db";
+
+    // Set to true to hand out the same String[] again for registration
+    // state and operator polls that didn't change. Receivers must not
+    // modify the arrays then.
+    static final String PROPERTY_REUSE_STRING_ARRAYS = "persist.radio.rilj.reuse_arrays";
+
+    // SMS parts of a batch in flight at once
+    static final String PROPERTY_SMS_BATCH_WINDOW = "persist.radio.rilj.sms_window";
+
+    // APDUs of a script in flight at once. Above 1, APDUs following one
+    // that fails have run on the card by the time the failure is seen;
+    // see RILApduScript.
+    static final String PROPERTY_APDU_WINDOW = "persist.radio.rilj.apdu_window";
+
+    // READ RECORD requests of a bulk read in flight at once
+    static final String PROPERTY_RECORD_READ_WINDOW = "persist.radio.rilj.record_window";
+
+    // Set to true to retry connecting to a restarted rild within tens of
+    // milliseconds, and to replay idempotent requests it lost
+    static final String PROPERTY_FAST_RECONNECT = "persist.radio.rilj.fast_reconnect";
+
+    // Request deadlines overriding the built in ones, as a comma separated
+    // list of <RIL_REQUEST_* code>:<milliseconds>. 0 milliseconds means the
+    // request waits for rild indefinitely. Only read-only queries can have
+    // one, see RILDeadlineWheel.mayExpire().
+    static final String PROPERTY_REQUEST_DEADLINES = "persist.radio.rilj.deadlines";
+
+    // Set to true to merge identical idempotent queries in flight, and to
+    // cache their results for PROPERTY_QUERY_CACHE_TTL_MS
+    static final String PROPERTY_QUERY_CACHE = "persist.radio.rilj.query_cache";
+    static final String PROPERTY_QUERY_CACHE_TTL_MS = "persist.radio.rilj.query_ttl_ms";
+
+    // Unsolicited responses that may be deferred while the screen is off,
+    // as a comma separated list of cell_info, nitz and data_call. The
+    // default is nitz alone: SonyRIL's 1036 is its IMS network state
+    // change, so RIL_UNSOL_CELL_INFO_LIST never arrives from this rild.
+    static final String PROPERTY_DEFER_UNSOL = "persist.radio.rilj.defer_unsol";
+    static final String DEFAULT_DEFER_UNSOL = "nitz";
+    static final int DEFER_CELL_INFO = 1 << 0;
+    // Only NITZ repeating the last one delivered is deferred, a new time
+    // or time zone always goes out at once
+    static final int DEFER_NITZ = 1 << 1;
+    static final int DEFER_DATA_CALL_LIST = 1 << 2;
+
+    // Returned by the unsolicited signal strength decoder when the payload
+    // is word for word the previous one
+    private static final Object SIGNAL_STRENGTH_UNCHANGED = new Object();
+
+    // Unsolicited dispatch entries kept past the last registered response
+    // so that vendor ids numbered above it still find their translation
+    static final int UNSOL_VENDOR_SLACK = 16;
+
+    // Set to false to write every request as soon as RILSender sees it
+    static final String PROPERTY_SEND_BATCH = "persist.radio.rilj.send_batch";
+    // Milliseconds RILSender lets more requests gather before flushing a
+    // batch. It keeps handling its other messages meanwhile.
+    static final String PROPERTY_SEND_BATCH_MS = "persist.radio.rilj.batch_ms";
+
+    // Debugging aids, read on each connect and only on debuggable builds:
+    // any app may bind an abstract namespace socket first, and the trace
+    // holds every SMS PDU. When set, RILJ connects to this abstract
+    // namespace socket instead of rild, eg RILTraceReplayer in
+    // tests/riltools.
+    static final String PROPERTY_SOCKET_NAME = "radio.rilj.socket";
+    // When set, every frame to and from rild is appended to this file,
+    // suffixed with the instance id for instances other than the first
+    static final String PROPERTY_TRACE_FILE = "radio.rilj.trace";
+
     // The number of the required config values for broadcast SMS stored in the C struct
     // RIL_CDMA_BroadcastServiceInfo
     private static final int CDMA_BSI_NO_OF_INTS_STRUCT = 3;
@@ -417,8 +510,17 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             super(looper);
         }
 
-        // Only allocated once
-        byte[] dataLength = new byte[4];
+        // Requests queued on the transport but not yet flushed
+        RILRequest[] mBatch = new RILRequest[MAX_SEND_BATCH];
+        int mBatchCount;
+
+        // Batch statistics, only written on the sender thread
+        long mBatchFlushes;
+        long mBatchFrames;
+        long mBatchBytes;
+        int mBatchMaxFrames;
+        // Flushes carrying 1, 2-3, 4-7, 8-15 and 16 or more frames
+        long[] mBatchSizeBuckets = new long[5];
 
         //***** Runnable implementation
         @Override
@@ -432,179 +534,357 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         @Override public void
         handleMessage(Message msg) {
             RILRequest rr = (RILRequest)(msg.obj);
-            RILRequest req = null;
 
             switch (msg.what) {
                 case EVENT_SEND:
-                    try {
-                        LocalSocket s;
+                    RILFrameTransport t = mTransport;
 
-                        s = mSocket;
+                    if (rr != null) {
+                        queueRequest(t, rr);
+                        flushBatch(t);
+                        break;
+                    }
+                    if (mSendBatchWindowMillis > 0) {
+                        // Let more requests gather before draining. Unlike
+                        // sleeping, this leaves RILSender free to handle
+                        // deadlines and replays meanwhile, and sends posted
+                        // until then don't kick us again.
+                        sendEmptyMessageDelayed(EVENT_SEND_DRAIN, mSendBatchWindowMillis);
+                        break;
+                    }
+                    // fall through
 
-                        if (s == null) {
-                            rr.onError(RADIO_NOT_AVAILABLE, null);
-                            rr.release();
-                            decrementWakeLock();
-                            return;
-                        }
+                case EVENT_SEND_DRAIN:
+                    t = mTransport;
 
-                        synchronized (mRequestList) {
-                            mRequestList.append(rr.mSerial, rr);
-                        }
+                    // Allow requests posted from now on to kick us again
+                    mSendKickPending.set(false);
 
-                        byte[] data;
+                    // Take a bounded round so that call control posted
+                    // meanwhile overtakes the rest of a long backlog
+                    for (int i = 0; i < MAX_SEND_BATCH
+                            && (rr = mSendScheduler.poll()) != null; i++) {
+                        queueRequest(t, rr);
+                    }
 
-                        data = rr.mParcel.marshall();
-                        rr.mParcel.recycle();
-                        rr.mParcel = null;
+                    flushBatch(t);
 
-                        if (data.length > RIL_MAX_COMMAND_BYTES) {
-                            throw new RuntimeException(
-                                    "Parcel larger than max bytes allowed! "
-                                                          + data.length);
-                        }
+                    if (!mSendScheduler.isEmpty() && mSendKickPending.compareAndSet(false, true)) {
+                        // The rest of a backlog goes without another window
+                        sendEmptyMessage(EVENT_SEND_DRAIN);
+                    }
+                    break;
 
-                        // parcel length in big endian
-                        dataLength[0] = dataLength[1] = 0;
-                        dataLength[2] = (byte)((data.length >> 8) & 0xff);
-                        dataLength[3] = (byte)((data.length) & 0xff);
-
-                        //Rlog.v(RILJ_LOG_TAG, "writing packet: " + data.length + " bytes");
-
-                        s.getOutputStream().write(dataLength);
-                        s.getOutputStream().write(data);
-                    } catch (IOException ex) {
-                        Rlog.e(RILJ_LOG_TAG, "IOException", ex);
-                        req = findAndRemoveRequestFromList(rr.mSerial);
-                        // make sure this request has not already been handled,
-                        // eg, if RILReceiver cleared the list.
-                        if (req != null) {
-                            rr.onError(RADIO_NOT_AVAILABLE, null);
-                            rr.release();
-                            decrementWakeLock();
-                        }
-                    } catch (RuntimeException exc) {
-                        Rlog.e(RILJ_LOG_TAG, "Uncaught exception ", exc);
-                        req = findAndRemoveRequestFromList(rr.mSerial);
-                        // make sure this request has not already been handled,
-                        // eg, if RILReceiver cleared the list.
-                        if (req != null) {
-                            rr.onError(GENERIC_FAILURE, null);
-                            rr.release();
-                            decrementWakeLock();
-                        }
+                case EVENT_REQUEST_DEADLINE:
+                    // rild never answered these read-only queries. Fail them
+                    // so that their callers move on and their share of the
+                    // wakelock goes. A response turning up later is logged
+                    // and dropped.
+                    long next = mDeadlines.expire(SystemClock.uptimeMillis(), mExpiredRequests);
+                    if (next >= 0) {
+                        sendEmptyMessageAtTime(EVENT_REQUEST_DEADLINE, next);
                     }
 
+                    for (int i = 0, count = mExpiredRequests.size(); i < count; i++) {
+                        expireRequest(mExpiredRequests.get(i));
+                    }
+                    mExpiredRequests.clear();
                     break;
 
                 case EVENT_WAKE_LOCK_TIMEOUT:
                     // Haven't heard back from the last request.  Assume we're
                     // not getting a response and  release the wake lock.
 
-                    // The timer of WAKE_LOCK_TIMEOUT is reset with each
-                    // new send request. So when WAKE_LOCK_TIMEOUT occurs
-                    // all requests in mRequestList already waited at
-                    // least DEFAULT_WAKE_LOCK_TIMEOUT but no response.
+                    // The timer of WAKE_LOCK_TIMEOUT is only started when
+                    // the lock is first taken. If a request was sent since,
+                    // wakeLockTimedOut() starts it again from that send, so
+                    // when it does clear the lock all requests in
+                    // mRequestList already waited at least mWakeLockTimeout
+                    // but no response.
                     //
                     // Note: Keep mRequestList so that delayed response
                     // can still be handled when response finally comes.
-
-                    synchronized (mRequestList) {
-                        if (clearWakeLock()) {
-                            if (RILJ_LOGD) {
-                                int count = mRequestList.size();
-                                Rlog.d(RILJ_LOG_TAG, "WAKE_LOCK_TIMEOUT " +
-                                        " mRequestList=" + count);
-                                for (int i = 0; i < count; i++) {
-                                    rr = mRequestList.valueAt(i);
-                                    Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] "
-                                            + requestToString(rr.mRequest));
-                                }
-                            }
+                    if (wakeLockTimedOut() && RILJ_LOGD) {
+                        ArrayList<RILRequest> pending = new ArrayList<RILRequest>();
+                        mRequestList.snapshot(pending);
+                        Rlog.d(RILJ_LOG_TAG, "WAKE_LOCK_TIMEOUT " +
+                                " mRequestList=" + pending.size());
+                        for (int i = 0; i < pending.size(); i++) {
+                            rr = pending.get(i);
+                            Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] "
+                                    + requestToString(rr.mRequest));
                         }
                     }
                     break;
+
+                case EVENT_REPLAY:
+                    // rild is back. Requests parked from now on can't be
+                    // stranded: they see the new transport instead.
+                    removeMessages(EVENT_REPLAY_EXPIRED);
+                    mReconnecting = false;
+                    t = mTransport;
+                    for (RILRequest parked : takeReplayRequests(true)) {
+                        if (RILJ_LOG_TEXT) riljLog(parked.serialString() + "> "
+                                + requestToString(parked.mRequest) + " replay");
+                        queueRequest(t, parked);
+                    }
+                    flushBatch(t);
+                    break;
+
+                case EVENT_REPLAY_EXPIRED:
+                    mReconnecting = false;
+                    for (RILRequest parked : takeReplayRequests(false)) {
+                        queueRequest(null, parked);
+                    }
+                    break;
             }
         }
-    }
 
-    /**
-     * Reads in a single RIL message off the wire. A RIL message consists
-     * of a 4-byte little-endian length and a subsequent series of bytes.
-     * The final message (length header omitted) is read into
-     * <code>buffer</code> and the length of the final message (less header)
-     * is returned. A return value of -1 indicates end-of-stream.
-     *
-     * @param is non-null; Stream to read from
-     * @param buffer Buffer to fill in. Must be as large as maximum
-     * message size, or an ArrayOutOfBounds exception will be thrown.
-     * @return Length of message less header, or -1 on end of stream.
-     * @throws IOException
-     */
-    private static int readRilMessage(InputStream is, byte[] buffer)
-            throws IOException {
-        int countRead;
-        int offset;
-        int remaining;
-        int messageLength;
-
-        // First, read in the length of the message
-        offset = 0;
-        remaining = 4;
-        do {
-            countRead = is.read(buffer, offset, remaining);
-
-            if (countRead < 0 ) {
-                Rlog.e(RILJ_LOG_TAG, "Hit EOS reading message length");
-                return -1;
+        /**
+         * @param replay true if the requests are about to be replayed, false
+         * if they are about to fail
+         */
+        private ArrayList<RILRequest>
+        takeReplayRequests(boolean replay) {
+            synchronized (mReplayRequests) {
+                ArrayList<RILRequest> parked = new ArrayList<RILRequest>(mReplayRequests);
+                mReplayRequests.clear();
+                if (replay) {
+                    mReplayed += parked.size();
+                } else {
+                    mReplayExpired += parked.size();
+                }
+                return parked;
+            }
+        }
+
+        /**
+         * Adds rr to mRequestList and queues its frame on the transport.
+         * The frame goes out on the next flushBatch().
+         */
+        private void
+        queueRequest(RILFrameTransport t, RILRequest rr) {
+            rr.mDequeueNanos = SystemClock.elapsedRealtimeNanos();
+            // Also undoes a late batchWritten() of a batch rr was in
+            // before it was recycled
+            rr.mWrittenNanos = 0;
+
+            if (t == null) {
+                if (mReconnecting && parkForReplay(rr)) {
+                    return;
+                }
+                mEventLog.log(RILEventLog.ERROR, rr.mRequest, rr.mSerial, RADIO_NOT_AVAILABLE);
+                recordLatency(rr, RADIO_NOT_AVAILABLE);
+                rr.onError(RADIO_NOT_AVAILABLE, null);
+                decrementWakeLock(rr);
+                rr.release();
+                return;
+            }
+
+            try {
+                mRequestList.put(rr);
+                long deadline = mDeadlines.add(rr, SystemClock.uptimeMillis());
+                if (deadline >= 0) {
+                    removeMessages(EVENT_REQUEST_DEADLINE);
+                    sendEmptyMessageAtTime(EVENT_REQUEST_DEADLINE, deadline);
+                }
+
+                byte[] data;
+
+                if (rr.mParcel != null) {
+                    data = rr.mParcel.marshall();
+                    rr.mParcel.recycle();
+                    rr.mParcel = null;
+                    if (mFastReconnect && isIdempotent(rr.mRequest)) {
+                        rr.mReplayData = data;
+                    }
+                } else {
+                    // Replayed after rild restarted
+                    data = rr.mReplayData;
+                }
+
+                if (data.length > RIL_MAX_COMMAND_BYTES) {
+                    throw new RuntimeException(
+                            "Parcel larger than max bytes allowed! "
+                                                  + data.length);
+                }
+
+                //Rlog.v(RILJ_LOG_TAG, "writing packet: " + data.length + " bytes");
+
+                int flushed = t.queueFrame(data, data.length);
+                if (flushed > 0) {
+                    // Everything queued before rr is on the wire now
+                    batchWritten(flushed);
+                }
+            } catch (IOException ex) {
+                Rlog.e(RILJ_LOG_TAG, "IOException", ex);
+                // queueFrame may have flushed and failed, which drops
+                // everything queued so far.
+                writeFailed(t);
+                parkOrFail(t, rr);
+                return;
+            } catch (RuntimeException exc) {
+                Rlog.e(RILJ_LOG_TAG, "Uncaught exception ", exc);
+                failRequest(rr, GENERIC_FAILURE);
+                return;
+            }
+
+            mBatch[mBatchCount++] = rr;
+            if (mBatchCount == mBatch.length) {
+                flushBatch(t);
+            }
+        }
+
+        /**
+         * Writes every queued frame to rild with a single write.
+         */
+        private void
+        flushBatch(RILFrameTransport t) {
+            int count = mBatchCount;
+
+            if (count == 0) {
+                return;
+            }
+
+            try {
+                batchWritten(t.flush());
+            } catch (IOException ex) {
+                Rlog.e(RILJ_LOG_TAG, "IOException", ex);
+                writeFailed(t);
+            }
+        }
+
+        private void
+        batchWritten(int bytes) {
+            int count = mBatchCount;
+
+            mBatchFlushes++;
+            mBatchFrames += count;
+            mBatchBytes += bytes;
+            if (count > mBatchMaxFrames) {
+                mBatchMaxFrames = count;
+            }
+            mBatchSizeBuckets[Math.min(31 - Integer.numberOfLeadingZeros(count),
+                    mBatchSizeBuckets.length - 1)]++;
+
+            long now = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < count; i++) {
+                mBatch[i].mWrittenNanos = now;
+            }
+
+            Arrays.fill(mBatch, 0, count, null);
+            mBatchCount = 0;
+        }
+
+        /**
+         * Handles the requests queued on t when writing to it failed,
+         * which may have lost all of them.
+         */
+        private void
+        writeFailed(RILFrameTransport t) {
+            for (int i = 0; i < mBatchCount; i++) {
+                parkOrFail(t, mBatch[i]);
+                mBatch[i] = null;
+            }
+            mBatchCount = 0;
+        }
+
+        /**
+         * rr may not have reached rild because writing to t failed. rild
+         * went away then, so with fast reconnect an idempotent rr waits to
+         * be replayed like the requests it didn't answer before going away.
+         * Anything else fails as before.
+         */
+        private void
+        parkOrFail(RILFrameTransport t, RILRequest rr) {
+            if (!mFastReconnect || !isIdempotent(rr.mRequest)) {
+                failRequest(rr, RADIO_NOT_AVAILABLE);
+                return;
             }
 
-            offset += countRead;
-            remaining -= countRead;
-        } while (remaining > 0);
-
-        messageLength = ((buffer[0] & 0xff) << 24)
-                | ((buffer[1] & 0xff) << 16)
-                | ((buffer[2] & 0xff) << 8)
-                | (buffer[3] & 0xff);
-
-        // Then, re-use the buffer and read in the message itself
-        offset = 0;
-        remaining = messageLength;
-        do {
-            countRead = is.read(buffer, offset, remaining);
-
-            if (countRead < 0 ) {
-                Rlog.e(RILJ_LOG_TAG, "Hit EOS reading message.  messageLength=" + messageLength
-                        + " remaining=" + remaining);
-                return -1;
+            RILRequest req = findAndRemoveRequestFromList(rr.mSerial);
+            // make sure this request has not already been handled,
+            // eg, if RILReceiver cleared the list.
+            if (req == null) {
+                return;
             }
+            if (!parkForReplay(rr)) {
+                mEventLog.log(RILEventLog.ERROR, rr.mRequest, rr.mSerial, RADIO_NOT_AVAILABLE);
+                recordLatency(rr, RADIO_NOT_AVAILABLE);
+                rr.onError(RADIO_NOT_AVAILABLE, null);
+                decrementWakeLock(rr);
+                rr.release();
+                return;
+            }
+            if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> "
+                    + requestToString(rr.mRequest) + " parked, write failed");
+
+            // Normally RILReceiver only now sees rild gone and replays rr
+            // once it reconnects, or fails it with EVENT_REPLAY_EXPIRED.
+            // If it already reconnected, EVENT_REPLAY may have run before
+            // rr was parked, so run it again for rr.
+            RILFrameTransport current = mTransport;
+            if (current != null && current != t) {
+                sendEmptyMessage(EVENT_REPLAY);
+            }
+        }
 
-            offset += countRead;
-            remaining -= countRead;
-        } while (remaining > 0);
+        /**
+         * Fails rr, whose deadline passed without a response, with a
+         * RILDeadlineException rather than an error from rild.
+         */
+        private void
+        expireRequest(RILRequest rr) {
+            RILRequest req = findAndRemoveRequestFromList(rr.mSerial);
+            if (req != null) {
+                long deadlineMillis = mDeadlines.deadlineMillis(rr.mRequest);
+                Rlog.w(RILJ_LOG_TAG, rr.serialString() + "< "
+                        + requestToString(rr.mRequest) + " deadline expired, no response after "
+                        + deadlineMillis + "ms");
+                mEventLog.log(RILEventLog.ERROR, rr.mRequest, rr.mSerial, DEADLINE_EXPIRED);
+                recordLatency(rr, DEADLINE_EXPIRED);
+                rr.onDeadlineExpired(deadlineMillis);
+                decrementWakeLock(rr);
+                rr.release();
+            }
+        }
 
-        return messageLength;
+        private void
+        failRequest(RILRequest rr, int error) {
+            RILRequest req = findAndRemoveRequestFromList(rr.mSerial);
+            // make sure this request has not already been handled,
+            // eg, if RILReceiver cleared the list.
+            if (req != null) {
+                mEventLog.log(RILEventLog.ERROR, rr.mRequest, rr.mSerial, error);
+                recordLatency(rr, error);
+                rr.onError(error, null);
+                decrementWakeLock(rr);
+                rr.release();
+            }
+        }
     }
 
     class RILReceiver implements Runnable {
-        byte[] buffer;
-
         RILReceiver() {
-            buffer = new byte[RIL_MAX_COMMAND_BYTES];
         }
 
         @Override
         public void
         run() {
             int retryCount = 0;
+            int retryMillis = FAST_RECONNECT_RETRY_MILLIS;
             String rilSocket = "rild";
 
             try {for (;;) {
                 LocalSocket s = null;
                 LocalSocketAddress l;
+                RILFrameTransport t;
 
-                if (mInstanceId == null || mInstanceId == 0 ) {
+                String socketOverride = Build.IS_DEBUGGABLE
+                        ? SystemProperties.get(PROPERTY_SOCKET_NAME) : null;
+                if (!TextUtils.isEmpty(socketOverride)) {
+                    rilSocket = socketOverride;
+                } else if (mInstanceId == null || mInstanceId == 0 ) {
                     rilSocket = SOCKET_NAME_RIL[0];
                 } else {
                     rilSocket = SOCKET_NAME_RIL[mInstanceId];
@@ -613,8 +893,11 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 try {
                     s = new LocalSocket();
                     l = new LocalSocketAddress(rilSocket,
-                            LocalSocketAddress.Namespace.RESERVED);
+                            TextUtils.isEmpty(socketOverride)
+                                    ? LocalSocketAddress.Namespace.RESERVED
+                                    : LocalSocketAddress.Namespace.ABSTRACT);
                     s.connect(l);
+                    t = new RILSocketTransport(s, RIL_MAX_COMMAND_BYTES);
                 } catch (IOException ex){
                     try {
                         if (s != null) {
@@ -639,17 +922,39 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                     }
 
                     try {
-                        Thread.sleep(SOCKET_OPEN_RETRY_MILLIS);
+                        if (mFastReconnect) {
+                            Thread.sleep(retryMillis);
+                            retryMillis = Math.min(retryMillis * FAST_RECONNECT_BACKOFF,
+                                    SOCKET_OPEN_RETRY_MILLIS);
+                        } else {
+                            Thread.sleep(SOCKET_OPEN_RETRY_MILLIS);
+                        }
                     } catch (InterruptedException er) {
                     }
 
                     retryCount++;
+                    if (mReconnecting) {
+                        synchronized (mReplayRequests) {
+                            mReconnectAttempts++;
+                        }
+                    }
                     continue;
                 }
 
                 retryCount = 0;
+                retryMillis = FAST_RECONNECT_RETRY_MILLIS;
+
+                String tracePath = Build.IS_DEBUGGABLE
+                        ? SystemProperties.get(PROPERTY_TRACE_FILE) : null;
+                if (!TextUtils.isEmpty(tracePath)) {
+                    if (mInstanceId != null && mInstanceId != 0) {
+                        tracePath += "." + mInstanceId;
+                    }
+                    t = RILTraceTransport.wrap(t, tracePath);
+                }
 
                 mSocket = s;
+                mTransport = t;
                 Rlog.i(RILJ_LOG_TAG, "(" + mInstanceId + ") Connected to '"
                         + rilSocket + "' socket");
 
@@ -664,14 +969,31 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                     Rlog.e(RILJ_LOG_TAG, "Uncaught exception ", er);
                 }
 
+                if (mFastReconnect) {
+                    synchronized (mReplayRequests) {
+                        if (mDisconnectNanos != 0) {
+                            long took = SystemClock.elapsedRealtimeNanos() - mDisconnectNanos;
+                            mDisconnectNanos = 0;
+                            mReconnects++;
+                            mReconnectTotalNanos += took;
+                            mReconnectLastNanos = took;
+                            if (took > mReconnectMaxNanos) {
+                                mReconnectMaxNanos = took;
+                            }
+                            Rlog.i(RILJ_LOG_TAG, "(" + mInstanceId + ") Reconnected after "
+                                    + took / 1000000 + "ms, replaying "
+                                    + mReplayRequests.size() + " requests");
+                        }
+                    }
+                    mSender.sendEmptyMessage(EVENT_REPLAY);
+                }
+
                 int length = 0;
                 try {
-                    InputStream is = mSocket.getInputStream();
-
                     for (;;) {
                         Parcel p;
 
-                        length = readRilMessage(is, buffer);
+                        length = t.readFrame();
 
                         if (length < 0) {
                             // End-of-stream reached
@@ -679,7 +1001,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                         }
 
                         p = Parcel.obtain();
-                        p.unmarshall(buffer, 0, length);
+                        p.unmarshall(t.frameBuffer(), t.frameOffset(), length);
                         p.setDataPosition(0);
 
                         //Rlog.v(RILJ_LOG_TAG, "Read packet: " + length + " bytes");
@@ -698,15 +1020,28 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 Rlog.i(RILJ_LOG_TAG, "(" + mInstanceId + ") Disconnected from '" + rilSocket
                       + "' socket");
 
+                if (mFastReconnect) {
+                    synchronized (mReplayRequests) {
+                        mDisconnectNanos = SystemClock.elapsedRealtimeNanos();
+                    }
+                    mReconnecting = true;
+                    mSender.sendEmptyMessageDelayed(EVENT_REPLAY_EXPIRED, REPLAY_WINDOW_MILLIS);
+                }
+
+                resetSignalStrengthBaseline();
                 setRadioState (RadioState.RADIO_UNAVAILABLE);
 
+                mTransport = null;
                 try {
-                    mSocket.close();
+                    t.close();
                 } catch (IOException ex) {
                 }
 
                 mSocket = null;
                 RILRequest.resetSerial();
+                if (mQueryCache != null) {
+                    mQueryCache.invalidate();
+                }
 
                 // Clear request list on close
                 clearRequestList(RADIO_NOT_AVAILABLE, false);
@@ -729,13 +1064,12 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
     public RIL(Context context, int preferredNetworkType,
             int cdmaSubscription, Integer instanceId) {
-        super(context);
+        this(context);
         if (RILJ_LOGD) {
             riljLog("RIL(context, preferredNetworkType=" + preferredNetworkType +
                     " cdmaSubscription=" + cdmaSubscription + ")");
         }
 
-        mContext = context;
         mCdmaSubscription  = cdmaSubscription;
         mPreferredNetworkType = preferredNetworkType;
         mPhoneType = RILConstants.NO_PHONE;
@@ -744,8 +1078,6 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         PowerManager pm = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
         mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, RILJ_LOG_TAG);
         mWakeLock.setReferenceCounted(false);
-        mWakeLockTimeout = SystemProperties.getInt(TelephonyProperties.PROPERTY_WAKE_LOCK_TIMEOUT,
-                DEFAULT_WAKE_LOCK_TIMEOUT);
         mWakeLockCount = 0;
 
         mSenderThread = new HandlerThread("RILSender" + mInstanceId);
@@ -782,13 +1114,82 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         tdc.registerRIL(this);
     }
 
+    /**
+     * A RIL that only decodes responses: it doesn't connect to rild, start
+     * threads or hold a wakelock. The public constructors go on from here
+     * to set those up; createDecodeOnly() hands it out as is.
+     *
+     * @param context may be null
+     */
+    RIL(Context context) {
+        super(context);
+
+        mContext = context;
+        mWakeLockTimeout = SystemProperties.getInt(TelephonyProperties.PROPERTY_WAKE_LOCK_TIMEOUT,
+                DEFAULT_WAKE_LOCK_TIMEOUT);
+        mFastReconnect = SystemProperties.getBoolean(PROPERTY_FAST_RECONNECT, false);
+        mSmsBatchWindow = SystemProperties.getInt(PROPERTY_SMS_BATCH_WINDOW, 2);
+        mApduWindow = SystemProperties.getInt(PROPERTY_APDU_WINDOW, 1);
+        mRecordReadWindow = SystemProperties.getInt(PROPERTY_RECORD_READ_WINDOW, 4);
+        mReuseStringArrays = SystemProperties.getBoolean(PROPERTY_REUSE_STRING_ARRAYS, false);
+        mDeadlines = new RILDeadlineWheel(SystemProperties.get(PROPERTY_REQUEST_DEADLINES));
+        mSendBatching = SystemProperties.getBoolean(PROPERTY_SEND_BATCH, true);
+        mSendBatchWindowMillis = SystemProperties.getInt(PROPERTY_SEND_BATCH_MS, 0);
+        mSignalStrengthHysteresisDb = SystemProperties.getInt(
+                PROPERTY_SIGNAL_STRENGTH_HYSTERESIS, 0);
+        mDeferUnsolPolicy = parseDeferUnsolPolicy(
+                SystemProperties.get(PROPERTY_DEFER_UNSOL, DEFAULT_DEFER_UNSOL));
+        mQueryCache = SystemProperties.getBoolean(PROPERTY_QUERY_CACHE, false)
+                ? new RILQueryCache(SystemProperties.getLong(PROPERTY_QUERY_CACHE_TTL_MS, 0))
+                : null;
+        mRequestSupport = new RILRequestSupport(
+                SystemProperties.get(TelephonyProperties.PROPERTY_BASEBAND_VERSION));
+
+        initResponseDecoders();
+    }
+
+    /**
+     * A RIL that only decodes responses, as RIL(Context), for the
+     * benchmarks in tests/riltools.
+     *
+     * @param internStrings false to read every string with
+     * Parcel.readString() rather than through the intern cache
+     * @param reuseStringArrays as PROPERTY_REUSE_STRING_ARRAYS
+     */
+    public static RIL
+    createDecodeOnly(boolean internStrings, boolean reuseStringArrays) {
+        RIL ril = new RIL((Context) null);
+        ril.mStrings.setEnabled(internStrings);
+        ril.mReuseStringArrays = reuseStringArrays;
+        return ril;
+    }
+
+    /**
+     * @return the request code rild knows <code>request</code> by.
+     */
+    public static int
+    toWireRequest(int request) {
+        return SonyRIL.translateRequest(request);
+    }
+
+    /**
+     * @return the RIL_UNSOL_* for the response id rild sent.
+     */
+    public static int
+    fromWireResponse(int response) {
+        return SonyRIL.translateResponse(response);
+    }
+
     //***** CommandsInterface implementation
 
     @Override
     public void getVoiceRadioTechnology(Message result) {
-        RILRequest rr = RILRequest.obtain(RIL_REQUEST_VOICE_RADIO_TECH, result);
+        RILRequest rr = obtainQuery(RIL_REQUEST_VOICE_RADIO_TECH, null, result);
+        if (rr == null) {
+            return;
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -797,12 +1198,21 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     public void getImsRegistrationState(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_IMS_REGISTRATION_STATE, result);
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
     }
 
+    @Override
+    public void setOnSignalStrengthUpdate(Handler h, int what, Object obj) {
+        super.setOnSignalStrengthUpdate(h, what, obj);
+
+        // The new registrant hasn't seen anything yet
+        mLastNotifiedSignalStrength = null;
+        mPendingSignalStrength.set(null);
+    }
+
     @Override public void
     setOnNITZTime(Handler h, int what, Object obj) {
         super.setOnNITZTime(h, what, obj);
@@ -822,7 +1232,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_SIM_STATUS, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -832,7 +1242,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //Note: This RIL request is also valid for SIM and RUIM (ICC card)
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SET_UICC_SUBSCRIPTION, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " slot: " + slotId + " appIndex: " + appIndex
                 + " subId: " + subId + " subStatus: " + subStatus);
 
@@ -847,7 +1257,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     // FIXME This API should take an AID and slot ID
     public void setDataAllowed(boolean allowed, Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ALLOW_DATA, result);
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest) +
                     " allowed: " + allowed);
         }
@@ -868,7 +1278,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PIN, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(2);
         rr.mParcel.writeString(pin);
@@ -888,7 +1298,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PUK, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(3);
         rr.mParcel.writeString(puk);
@@ -909,7 +1319,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PIN2, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(2);
         rr.mParcel.writeString(pin);
@@ -929,7 +1339,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_SIM_PUK2, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(3);
         rr.mParcel.writeString(puk);
@@ -950,7 +1360,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CHANGE_SIM_PIN, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(3);
         rr.mParcel.writeString(oldPin);
@@ -971,7 +1381,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         //       but this request is also valid for SIM and RUIM
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CHANGE_SIM_PIN2, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(3);
         rr.mParcel.writeString(oldPin2);
@@ -986,7 +1396,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     changeBarringPassword(String facility, String oldPwd, String newPwd, Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CHANGE_BARRING_PASSWORD, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(3);
         rr.mParcel.writeString(facility);
@@ -1001,7 +1411,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     supplyNetworkDepersonalization(String netpin, Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeInt(1);
         rr.mParcel.writeString(netpin);
@@ -1014,7 +1424,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     getCurrentCalls (Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_CURRENT_CALLS, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1030,7 +1440,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     getDataCallList(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_DATA_CALL_LIST, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1058,7 +1468,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             rr.mParcel.writeByteArray(uusInfo.getUserData());
         }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1072,12 +1482,15 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void
     getIMSIForApp(String aid, Message result) {
-        RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_IMSI, result);
+        RILRequest rr = obtainQuery(RIL_REQUEST_GET_IMSI, aid, result);
+        if (rr == null) {
+            return;
+        }
 
         rr.mParcel.writeInt(1);
         rr.mParcel.writeString(aid);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() +
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() +
                               "> getIMSI: " + requestToString(rr.mRequest)
                               + " aid: " + aid);
 
@@ -1089,7 +1502,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     getIMEI(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_IMEI, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1099,7 +1512,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     getIMEISV(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_IMEISV, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1112,7 +1525,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_HANGUP, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest) + " " +
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest) + " " +
                 gsmIndex);
 
         rr.mParcel.writeInt(1);
@@ -1127,7 +1540,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND,
                                         result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1139,7 +1552,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(
                         RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND,
                                         result);
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1151,7 +1564,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(
                         RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE,
                                         result);
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1162,7 +1575,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_CONFERENCE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1192,7 +1605,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SEPARATE_CONNECTION, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                             + " " + gsmIndex);
 
         rr.mParcel.writeInt(1);
@@ -1207,7 +1620,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_ANSWER, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1218,7 +1631,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_UDUB, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1229,7 +1642,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_EXPLICIT_CALL_TRANSFER, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1240,7 +1653,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_LAST_CALL_FAIL_CAUSE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1264,7 +1677,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1275,7 +1688,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SET_MUTE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                             + " " + enableMute);
 
         rr.mParcel.writeInt(1);
@@ -1290,7 +1703,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_GET_MUTE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1301,7 +1714,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SIGNAL_STRENGTH, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1312,7 +1725,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_VOICE_REGISTRATION_STATE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1323,7 +1736,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DATA_REGISTRATION_STATE, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1331,10 +1744,12 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void
     getOperator(Message result) {
-        RILRequest rr
-                = RILRequest.obtain(RIL_REQUEST_OPERATOR, result);
+        RILRequest rr = obtainQuery(RIL_REQUEST_OPERATOR, null, result);
+        if (rr == null) {
+            return;
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1344,7 +1759,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     getHardwareConfig (Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_HARDWARE_CONFIG, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1355,7 +1770,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DTMF, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(Character.toString(c));
 
@@ -1368,7 +1783,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DTMF_START, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(Character.toString(c));
 
@@ -1381,7 +1796,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_DTMF_STOP, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1396,7 +1811,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(Integer.toString(on));
         rr.mParcel.writeString(Integer.toString(off));
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + dtmfString);
 
         send(rr);
@@ -1416,7 +1831,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         constructGsmSendSmsRilRequest(rr, smscPDU, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1429,7 +1844,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         constructGsmSendSmsRilRequest(rr, smscPDU, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1481,7 +1896,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         constructCdmaSendSmsRilRequest(rr, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1497,7 +1912,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         constructGsmSendSmsRilRequest(rr, smscPDU, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1512,7 +1927,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         constructCdmaSendSmsRilRequest(rr, pdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1620,7 +2035,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(authType);
         rr.mParcel.writeString(protocol);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest) + " " + radioTechnology + " "
                 + profile + " " + apn + " " + user + " "
                 + password + " " + authType + " " + protocol);
@@ -1638,7 +2053,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(Integer.toString(cid));
         rr.mParcel.writeString(Integer.toString(reason));
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " +
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " +
                 requestToString(rr.mRequest) + " " + cid + " " + reason);
 
         send(rr);
@@ -1652,7 +2067,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(on ? 1 : 0);
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + (on ? " on" : " off"));
         }
@@ -1667,7 +2082,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(0);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOG_TEXT)
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -1682,7 +2097,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(enable ? 1 : 0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest));
 
         send(rr);
@@ -1698,7 +2113,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(success ? 1 : 0);
         rr.mParcel.writeInt(cause);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + success + " " + cause);
 
         send(rr);
@@ -1714,7 +2129,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         // cause code according to X.S004-550E
         rr.mParcel.writeInt(cause);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + success + " " + cause);
 
         send(rr);
@@ -1730,7 +2145,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(success ? "1" : "0");
         rr.mParcel.writeString(ackPdu);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + success + " [" + ackPdu + ']');
 
         send(rr);
@@ -1751,17 +2166,9 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SIM_IO, result);
 
-        rr.mParcel.writeInt(command);
-        rr.mParcel.writeInt(fileid);
-        rr.mParcel.writeString(path);
-        rr.mParcel.writeInt(p1);
-        rr.mParcel.writeInt(p2);
-        rr.mParcel.writeInt(p3);
-        rr.mParcel.writeString(data);
-        rr.mParcel.writeString(pin2);
-        rr.mParcel.writeString(aid);
+        writeIccIO(rr.mParcel, command, fileid, path, p1, p2, p3, data, pin2, aid);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> iccIO: "
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> iccIO: "
                 + requestToString(rr.mRequest)
                 + " 0x" + Integer.toHexString(command)
                 + " 0x" + Integer.toHexString(fileid) + " "
@@ -1772,13 +2179,26 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         send(rr);
     }
 
+    private static void writeIccIO(Parcel p, int command, int fileid, String path,
+            int p1, int p2, int p3, String data, String pin2, String aid) {
+        p.writeInt(command);
+        p.writeInt(fileid);
+        p.writeString(path);
+        p.writeInt(p1);
+        p.writeInt(p2);
+        p.writeInt(p3);
+        p.writeString(data);
+        p.writeString(pin2);
+        p.writeString(aid);
+    }
+
     @Override
     public void
     getCLIR(Message result) {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_GET_CLIR, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1794,7 +2214,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeInt(clirMode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + clirMode);
 
         send(rr);
@@ -1809,7 +2229,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(serviceClass);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + serviceClass);
 
         send(rr);
@@ -1825,7 +2245,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(enable ? 1 : 0);
         rr.mParcel.writeInt(serviceClass);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + enable + ", " + serviceClass);
 
         send(rr);
@@ -1838,7 +2258,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1850,7 +2270,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + operatorNumeric);
 
         rr.mParcel.writeString(operatorNumeric);
@@ -1865,7 +2285,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1877,7 +2297,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_QUERY_AVAILABLE_NETWORKS,
                                     response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1896,7 +2316,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(number);
         rr.mParcel.writeInt (timeSeconds);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + action + " " + cfReason + " " + serviceClass
                     + timeSeconds);
 
@@ -1917,7 +2337,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(number);
         rr.mParcel.writeInt (0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " " + cfReason + " " + serviceClass);
 
         send(rr);
@@ -1929,7 +2349,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
             = RILRequest.obtain(RIL_REQUEST_QUERY_CLIP, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1938,10 +2358,12 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void
     getBasebandVersion (Message response) {
-        RILRequest rr
-                = RILRequest.obtain(RIL_REQUEST_BASEBAND_VERSION, response);
+        RILRequest rr = obtainQuery(RIL_REQUEST_BASEBAND_VERSION, null, response);
+        if (rr == null) {
+            return;
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -1959,7 +2381,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                             Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_QUERY_FACILITY_LOCK, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                                                  + " [" + facility + " " + serviceClass
                                                  + " " + appId + "]");
 
@@ -1990,7 +2412,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
          RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_SET_FACILITY_LOCK, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                                                         + " [" + facility + " " + lockState
                                                         + " " + serviceClass + " " + appId + "]");
 
@@ -2032,7 +2454,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_CANCEL_USSD, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString()
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString()
                 + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -2044,7 +2466,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_RESET_RADIO, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2054,7 +2476,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_OEM_HOOK_RAW, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                + "[" + IccUtils.bytesToHexString(data) + "]");
 
         rr.mParcel.writeByteArray(data);
@@ -2068,7 +2490,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_OEM_HOOK_STRINGS, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeStringArray(strings);
 
@@ -2089,7 +2511,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(bandMode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                  + " " + bandMode);
 
         send(rr);
@@ -2109,7 +2531,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 = RILRequest.obtain(RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE,
                 response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2122,7 +2544,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(contents);
         send(rr);
@@ -2136,7 +2558,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         rr.mParcel.writeString(contents);
         send(rr);
@@ -2150,7 +2572,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + '[' + contents + ']');
 
         rr.mParcel.writeString(contents);
@@ -2168,7 +2590,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             RILConstants.RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM,
             response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         int[] param = new int[1];
         param[0] = accept ? 1 : 0;
@@ -2188,8 +2610,11 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(networkType);
 
         mPreferredNetworkType = networkType;
+        if (mQueryCache != null) {
+            mQueryCache.invalidate(RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE);
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + networkType);
 
         send(rr);
@@ -2200,10 +2625,13 @@ public final class RIL extends BaseCommands implements CommandsInterface {
      */
     @Override
     public void getPreferredNetworkType(Message response) {
-        RILRequest rr = RILRequest.obtain(
-                RILConstants.RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE, response);
+        RILRequest rr = obtainQuery(
+                RILConstants.RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE, null, response);
+        if (rr == null) {
+            return;
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2216,7 +2644,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_GET_NEIGHBORING_CELL_IDS, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2230,7 +2658,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(enable ? 1 : 0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest) + ": " + enable);
 
         send(rr);
@@ -2241,9 +2669,12 @@ public final class RIL extends BaseCommands implements CommandsInterface {
      */
     @Override
     public void getSmscAddress(Message result) {
-        RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_SMSC_ADDRESS, result);
+        RILRequest rr = obtainQuery(RIL_REQUEST_GET_SMSC_ADDRESS, null, result);
+        if (rr == null) {
+            return;
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2256,8 +2687,11 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SET_SMSC_ADDRESS, result);
 
         rr.mParcel.writeString(address);
+        if (mQueryCache != null) {
+            mQueryCache.invalidate(RIL_REQUEST_GET_SMSC_ADDRESS);
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + address);
 
         send(rr);
@@ -2272,7 +2706,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(available ? 1 : 0);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> "
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> "
                 + requestToString(rr.mRequest) + ": " + available);
 
         send(rr);
@@ -2285,7 +2719,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     public void reportStkServiceIsRunning(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2297,7 +2731,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     public void getGsmBroadcastConfig(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GSM_GET_BROADCAST_CONFIG, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -2320,7 +2754,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             rr.mParcel.writeInt(config[i].isSelected() ? 1 : 0);
         }
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " with " + numOfConfig + " configs : ");
             for (int i = 0; i < numOfConfig; i++) {
@@ -2331,210 +2765,1347 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         send(rr);
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void setGsmBroadcastActivation(boolean activate, Message response) {
-        RILRequest rr = RILRequest.obtain(RIL_REQUEST_GSM_BROADCAST_ACTIVATION, response);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setGsmBroadcastActivation(boolean activate, Message response) {
+        RILRequest rr = RILRequest.obtain(RIL_REQUEST_GSM_BROADCAST_ACTIVATION, response);
+
+        rr.mParcel.writeInt(1);
+        rr.mParcel.writeInt(activate ? 0 : 1);
+
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+
+        send(rr);
+    }
+
+    //***** Private Methods
+
+    // TODO(jeffbrown): Delete me.
+    // The RIL should *not* be listening for screen state changes since they are
+    // becoming increasingly ambiguous on our devices.  The RIL_REQUEST_SCREEN_STATE
+    // message should be deleted and replaced with more precise messages to control
+    // behavior such as signal strength reporting or power managements based on
+    // more robust signals.
+    /**
+     * Update the screen state. Send screen state ON if the default display is ON or the device
+     * is plugged.
+     */
+    private void updateScreenState() {
+        final int oldState = mRadioScreenState;
+        mRadioScreenState = (mDefaultDisplayState == Display.STATE_ON || mIsDevicePlugged)
+                ? RADIO_SCREEN_ON : RADIO_SCREEN_OFF;
+        if (mRadioScreenState != oldState) {
+            if (RILJ_LOGV) {
+                riljLog("defaultDisplayState: " + mDefaultDisplayState
+                        + ", isDevicePlugged: " + mIsDevicePlugged);
+            }
+            sendScreenState(mRadioScreenState == RADIO_SCREEN_ON);
+            if (mRadioScreenState == RADIO_SCREEN_ON) {
+                flushDeferredUnsol();
+            }
+        }
+    }
+
+    private static int parseDeferUnsolPolicy(String policy) {
+        int flags = 0;
+        for (String kind : policy.split(",")) {
+            kind = kind.trim();
+            if ("cell_info".equals(kind)) {
+                flags |= DEFER_CELL_INFO;
+            } else if ("nitz".equals(kind)) {
+                flags |= DEFER_NITZ;
+            } else if ("data_call".equals(kind)) {
+                flags |= DEFER_DATA_CALL_LIST;
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Holds back an unsolicited response while the screen is off, if the
+     * policy allows deferring its kind. A response of the same kind still
+     * held back is replaced and never delivered.
+     *
+     * @param kind one of DEFER_*
+     * @return true if the response was deferred
+     */
+    private boolean deferUnsol(int kind, Object ret) {
+        if ((mDeferUnsolPolicy & kind) == 0 || mRadioScreenState != RADIO_SCREEN_OFF) {
+            return false;
+        }
+
+        synchronized (mDeferredUnsolLock) {
+            if (mRadioScreenState != RADIO_SCREEN_OFF) {
+                // The screen came on since the check above, and
+                // updateScreenState() may have flushed already. Deliver
+                // now, dropping what this response supersedes so the
+                // flush can't deliver it after this one.
+                switch (kind) {
+                    case DEFER_CELL_INFO:
+                        mDeferredCellInfo = null;
+                        break;
+                    case DEFER_NITZ:
+                        mDeferredNitz = null;
+                        break;
+                    default:
+                        mDeferredDataCallList = null;
+                        break;
+                }
+                return false;
+            }
+
+            Object previous;
+            switch (kind) {
+                case DEFER_CELL_INFO:
+                    previous = mDeferredCellInfo;
+                    mDeferredCellInfo = ret;
+                    break;
+                case DEFER_NITZ:
+                    previous = mDeferredNitz;
+                    mDeferredNitz = ret;
+                    break;
+                default:
+                    previous = mDeferredDataCallList;
+                    mDeferredDataCallList = ret;
+                    break;
+            }
+            mUnsolDeferred++;
+            if (previous != null) {
+                mUnsolCoalesced++;
+            }
+            mHasDeferredUnsol = true;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if <code>nitz</code> is the same NITZ string as the last
+     * one received, eg rild repeating it on registering again.
+     */
+    private boolean isNitzRepeat(Object nitz) {
+        Object[] last = (Object[]) mLastNITZTimeInfo;
+        return last != null && last[0] != null && last[0].equals(nitz);
+    }
+
+    /**
+     * Delivers the deferred unsolicited responses. Called when the screen
+     * comes on, and before any other unsolicited response is delivered as
+     * the device is awake then anyway.
+     */
+    private void flushDeferredUnsol() {
+        synchronized (mDeferredUnsolLock) {
+            if (!mHasDeferredUnsol) {
+                return;
+            }
+            mHasDeferredUnsol = false;
+            mUnsolFlushes++;
+
+            if (mDeferredNitz != null) {
+                if (mNITZTimeRegistrant != null) {
+                    mNITZTimeRegistrant
+                        .notifyRegistrant(new AsyncResult (null, mDeferredNitz, null));
+                }
+                mDeferredNitz = null;
+            }
+            if (mDeferredDataCallList != null) {
+                mDataNetworkStateRegistrants.notifyRegistrants(
+                        new AsyncResult(null, mDeferredDataCallList, null));
+                mDeferredDataCallList = null;
+            }
+            if (mDeferredCellInfo != null) {
+                if (mRilCellInfoListRegistrants != null) {
+                    mRilCellInfoListRegistrants.notifyRegistrants(
+                                        new AsyncResult (null, mDeferredCellInfo, null));
+                }
+                mDeferredCellInfo = null;
+            }
+        }
+    }
+
+    private void sendScreenState(boolean on) {
+        RILRequest rr = RILRequest.obtain(RIL_REQUEST_SCREEN_STATE, null);
+        rr.mParcel.writeInt(1);
+        rr.mParcel.writeInt(on ? 1 : 0);
+
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString()
+                + "> " + requestToString(rr.mRequest) + ": " + on);
+
+        send(rr);
+    }
+
+    @Override
+    protected void
+    onRadioAvailable() {
+        // In case screen state was lost (due to process crash),
+        // this ensures that the RIL knows the correct screen state.
+        updateScreenState();
+   }
+
+    private RadioState getRadioStateFromInt(int stateInt) {
+        RadioState state;
+
+        /* RIL_RadioState ril.h */
+        switch(stateInt) {
+            case 0: state = RadioState.RADIO_OFF; break;
+            case 1: state = RadioState.RADIO_UNAVAILABLE; break;
+            case 10: state = RadioState.RADIO_ON; break;
+
+            default:
+                throw new RuntimeException(
+                            "Unrecognized RIL_RadioState: " + stateInt);
+        }
+        return state;
+    }
+
+    private void switchToRadioState(RadioState newState) {
+        setRadioState(newState);
+    }
+
+    /**
+     * Holds a PARTIAL_WAKE_LOCK whenever
+     * a) There is outstanding RIL request sent to RIL deamon and no replied
+     * b) There is a request pending to be sent out.
+     *
+     * Read-only queries rild doesn't answer by their deadline are failed,
+     * which releases their share of the lock. Beyond that there is a
+     * WAKE_LOCK_TIMEOUT to release the lock, though it shouldn't happen
+     * often.
+     */
+
+    private void
+    acquireWakeLock(RILRequest rr) {
+        synchronized (mWakeLock) {
+            mWakeLock.acquire();
+            rr.mWakeShareNanos = mWakeStats.advance(SystemClock.elapsedRealtimeNanos(),
+                    mWakeLockCount);
+            rr.mWakeGeneration = mWakeLockGeneration;
+            mWakeStats.acquired();
+            mWakeLockCount++;
+
+            mLastWakeLockAcquireMillis = SystemClock.uptimeMillis();
+            if (mWakeLockCount == 1) {
+                mSender.sendEmptyMessageAtTime(EVENT_WAKE_LOCK_TIMEOUT,
+                        mLastWakeLockAcquireMillis + mWakeLockTimeout);
+            }
+        }
+    }
+
+    /**
+     * Called when EVENT_WAKE_LOCK_TIMEOUT fires. If a request took the
+     * lock less than mWakeLockTimeout ago the timeout is started again
+     * from then, otherwise the lock is cleared.
+     *
+     * @return true if we had the wakelock and cleared it
+     */
+    private boolean
+    wakeLockTimedOut() {
+        synchronized (mWakeLock) {
+            long due = mLastWakeLockAcquireMillis + mWakeLockTimeout;
+            if (mWakeLockCount > 0 && due > SystemClock.uptimeMillis()) {
+                mSender.sendEmptyMessageAtTime(EVENT_WAKE_LOCK_TIMEOUT, due);
+                return false;
+            }
+            return clearWakeLock();
+        }
+    }
+
+    /**
+     * Gives up rr's share of the wakelock. Must be called before rr is
+     * released.
+     */
+    private void
+    decrementWakeLock(RILRequest rr) {
+        synchronized (mWakeLock) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (rr.mWakeGeneration != mWakeLockGeneration) {
+                // Already taken away by clearWakeLock()
+                mWakeStats.released(rr.mRequest, mWakeShareAtTimeout - rr.mWakeShareNanos,
+                        now - rr.mSendNanos);
+                return;
+            }
+            long share = mWakeStats.advance(now, mWakeLockCount);
+            mWakeStats.released(rr.mRequest, share - rr.mWakeShareNanos, now - rr.mSendNanos);
+
+            if (mWakeLockCount > 1) {
+                mWakeLockCount--;
+            } else {
+                mWakeLockCount = 0;
+                mWakeLock.release();
+                mSender.removeMessages(EVENT_WAKE_LOCK_TIMEOUT);
+            }
+        }
+    }
+
+    // true if we had the wakelock
+    private boolean
+    clearWakeLock() {
+        synchronized (mWakeLock) {
+            if (mWakeLockCount == 0 && mWakeLock.isHeld() == false) return false;
+            Rlog.d(RILJ_LOG_TAG, "NOTE: mWakeLockCount is " + mWakeLockCount + "at time of clearing");
+            mWakeShareAtTimeout = mWakeStats.advance(SystemClock.elapsedRealtimeNanos(),
+                    mWakeLockCount);
+            mWakeLockGeneration++;
+            mWakeLockCount = 0;
+            mWakeLock.release();
+            mSender.removeMessages(EVENT_WAKE_LOCK_TIMEOUT);
+            return true;
+        }
+    }
+
+    private void
+    send(RILRequest rr) {
+        Message msg;
+
+        rr.mSendNanos = SystemClock.elapsedRealtimeNanos();
+        mEventLog.log(RILEventLog.SEND, rr.mRequest, rr.mSerial, 0);
+
+        if (mSocket == null && !(mReconnecting && isIdempotent(rr.mRequest))) {
+            mEventLog.log(RILEventLog.ERROR, rr.mRequest, rr.mSerial, RADIO_NOT_AVAILABLE);
+            recordLatency(rr, RADIO_NOT_AVAILABLE);
+            rr.onError(RADIO_NOT_AVAILABLE, null);
+            rr.release();
+            return;
+        }
+
+        if (!mRequestSupport.isSupported(rr.mRequest)) {
+            mRequestSupport.failedLocally(rr.mRequest);
+            rr.onError(REQUEST_NOT_SUPPORTED, null);
+            rr.release();
+            return;
+        }
+
+        acquireWakeLock(rr);
+
+        if (mSendBatching) {
+            // Requests posted while RILSender is busy are written together
+            mSendScheduler.add(rr);
+            if (mSendKickPending.compareAndSet(false, true)) {
+                mSender.sendEmptyMessage(EVENT_SEND);
+            }
+        } else {
+            msg = mSender.obtainMessage(EVENT_SEND, rr);
+            msg.sendToTarget();
+        }
+    }
+
+    /**
+     * Decodes the payload of a solicited or unsolicited response into the
+     * object handed to the requester or registrants.
+     */
+    public interface ResponseDecoder {
+        Object decode(Parcel p);
+    }
+
+    private final ResponseDecoder mIccCardStatusDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseIccCardStatus(p);
+        }
+    };
+
+    private final ResponseDecoder mIntsDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseInts(p);
+        }
+    };
+
+    private final ResponseDecoder mCallListDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCallList(p);
+        }
+    };
+
+    private final ResponseDecoder mVoidDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseVoid(p);
+        }
+    };
+
+    private final ResponseDecoder mStringDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseString(p);
+        }
+    };
+
+    private final ResponseDecoder mFailCauseDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseFailCause(p);
+        }
+    };
+
+    private final ResponseDecoder mSignalStrengthDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSignalStrength(p);
+        }
+    };
+
+    private final ResponseDecoder mStringsDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseStrings(p);
+        }
+    };
+
+    /**
+     * For string arrays polled over and over. With mReuseStringArrays,
+     * hands out the previous array again while its contents don't change.
+     */
+    private final class PolledStringsDecoder implements ResponseDecoder {
+        private String[] mLast;
+
+        @Override
+        public Object decode(Parcel p) {
+            String[] strings = mStrings.readStringArray(p, mReuseStringArrays ? mLast : null);
+            mLast = strings;
+            return strings;
+        }
+    }
+
+    private final ResponseDecoder mSMSDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSMS(p);
+        }
+    };
+
+    private final ResponseDecoder mSetupDataCallDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSetupDataCall(p);
+        }
+    };
+
+    private final ResponseDecoder mICCIODecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseICC_IO(p);
+        }
+    };
+
+    private final ResponseDecoder mCallForwardDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCallForward(p);
+        }
+    };
+
+    private final ResponseDecoder mOperatorInfosDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseOperatorInfos(p);
+        }
+    };
+
+    private final ResponseDecoder mDataCallListDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseDataCallList(p);
+        }
+    };
+
+    private final ResponseDecoder mRawDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseRaw(p);
+        }
+    };
+
+    private final ResponseDecoder mGetPreferredNetworkTypeDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseGetPreferredNetworkType(p);
+        }
+    };
+
+    private final ResponseDecoder mCellListDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCellList(p);
+        }
+    };
+
+    private final ResponseDecoder mGmsBroadcastConfigDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseGmsBroadcastConfig(p);
+        }
+    };
+
+    private final ResponseDecoder mCdmaBroadcastConfigDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaBroadcastConfig(p);
+        }
+    };
+
+    private final ResponseDecoder mCellInfoListDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return mCellInfo.decode(p);
+        }
+    };
+
+    private final ResponseDecoder mHardwareConfigDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseHardwareConfig(p);
+        }
+    };
+
+    private final ResponseDecoder mICCIOBase64Decoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseICC_IOBase64(p);
+        }
+    };
+
+    private final ResponseDecoder mRadioCapabilityDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseRadioCapability(p);
+        }
+    };
+
+    private final ResponseDecoder mLceStatusDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseLceStatus(p);
+        }
+    };
+
+    private final ResponseDecoder mLceDataDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseLceData(p);
+        }
+    };
+
+    private final ResponseDecoder mActivityDataDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseActivityData(p);
+        }
+    };
+
+    private final ResponseDecoder mSuppServiceNotificationDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSuppServiceNotification(p);
+        }
+    };
+
+    private final ResponseDecoder mSimRefreshDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSimRefresh(p);
+        }
+    };
+
+    private final ResponseDecoder mCallRingDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCallRing(p);
+        }
+    };
+
+    private final ResponseDecoder mCdmaSmsDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaSms(p);
+        }
+    };
+
+    private final ResponseDecoder mCdmaCallWaitingDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaCallWaiting(p);
+        }
+    };
+
+    private final ResponseDecoder mCdmaInformationRecordDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseCdmaInformationRecord(p);
+        }
+    };
+
+    private final ResponseDecoder mSsDataDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            return responseSsData(p);
+        }
+    };
+    /**
+     * Skips parsing an unsolicited signal strength identical to the
+     * previous one, returning SIGNAL_STRENGTH_UNCHANGED instead.
+     */
+    private final ResponseDecoder mUnsolSignalStrengthDecoder = new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            int start = p.dataPosition();
+            int count = Math.min(p.dataAvail() / 4, MAX_SIGNAL_STRENGTH_WORDS);
+            boolean unchanged = count == mLastSignalStrengthWordCount;
+
+            for (int i = 0; i < count; i++) {
+                int word = p.readInt();
+                if (word != mLastSignalStrengthWords[i]) {
+                    unchanged = false;
+                    mLastSignalStrengthWords[i] = word;
+                }
+            }
+            mLastSignalStrengthWordCount = count;
+
+            if (unchanged && mLastNotifiedSignalStrength != null) {
+                return SIGNAL_STRENGTH_UNCHANGED;
+            }
+            p.setDataPosition(start);
+            return responseSignalStrength(p);
+        }
+    };
+
+    private final ResponseDecoder mHangupForegroundResumeBackgroundDecoder =
+            new ResponseDecoder() {
+        @Override
+        public Object decode(Parcel p) {
+            if (mTestingEmergencyCall.getAndSet(false)) {
+                if (mEmergencyCallbackModeRegistrant != null) {
+                    riljLog("testing emergency call, notify ECM Registrants");
+                    mEmergencyCallbackModeRegistrant.notifyRegistrant();
+                }
+            }
+            return responseVoid(p);
+        }
+    };
+
+    // Solicited decoders indexed by RIL_REQUEST_*
+    private volatile ResponseDecoder[] mSolicitedDecoders = new ResponseDecoder[0];
+    // Unsolicited decoders indexed by RIL_UNSOL_* - RIL_UNSOL_RESPONSE_BASE
+    private ResponseDecoder[] mUnsolDecoders = new ResponseDecoder[0];
+    // What processUnsolicited dispatches through
+    private volatile UnsolDispatch mUnsolDispatch = new UnsolDispatch(0);
+
+    /**
+     * Unsolicited decoders and response ids indexed by the id rild sends
+     * less RIL_UNSOL_RESPONSE_BASE, with SonyRIL.translateResponse
+     * already applied.
+     */
+    private static final class UnsolDispatch {
+        final ResponseDecoder[] mDecoders;
+        final int[] mResponses;
+
+        UnsolDispatch(int size) {
+            mDecoders = new ResponseDecoder[size];
+            mResponses = new int[size];
+        }
+    }
+
+    private void initResponseDecoders() {
+        registerSolicitedDecoder(RIL_REQUEST_GET_SIM_STATUS, mIccCardStatusDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ENTER_SIM_PIN, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ENTER_SIM_PUK, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ENTER_SIM_PIN2, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ENTER_SIM_PUK2, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CHANGE_SIM_PIN, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CHANGE_SIM_PIN2, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_CURRENT_CALLS, mCallListDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DIAL, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_IMSI, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_HANGUP, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND,
+                mHangupForegroundResumeBackgroundDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CONFERENCE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_UDUB, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_LAST_CALL_FAIL_CAUSE, mFailCauseDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SIGNAL_STRENGTH, mSignalStrengthDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_VOICE_REGISTRATION_STATE,
+                new PolledStringsDecoder());
+        registerSolicitedDecoder(RIL_REQUEST_DATA_REGISTRATION_STATE,
+                new PolledStringsDecoder());
+        registerSolicitedDecoder(RIL_REQUEST_OPERATOR, new PolledStringsDecoder());
+        registerSolicitedDecoder(RIL_REQUEST_RADIO_POWER, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DTMF, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SEND_SMS, mSMSDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SEND_SMS_EXPECT_MORE, mSMSDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SETUP_DATA_CALL, mSetupDataCallDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SIM_IO, mICCIODecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SEND_USSD, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CANCEL_USSD, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_CLIR, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_CLIR, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_CALL_FORWARD_STATUS, mCallForwardDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_CALL_FORWARD, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_CALL_WAITING, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_CALL_WAITING, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SMS_ACKNOWLEDGE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_IMEI, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_IMEISV, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ANSWER, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DEACTIVATE_DATA_CALL, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_FACILITY_LOCK, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_FACILITY_LOCK, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CHANGE_BARRING_PASSWORD, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_AVAILABLE_NETWORKS, mOperatorInfosDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DTMF_START, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DTMF_STOP, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_BASEBAND_VERSION, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SEPARATE_CONNECTION, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_MUTE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_MUTE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_CLIP, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DATA_CALL_LIST, mDataCallListDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_RESET_RADIO, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_OEM_HOOK_RAW, mRawDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_OEM_HOOK_STRINGS, mStringsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SCREEN_STATE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_WRITE_SMS_TO_SIM, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DELETE_SMS_ON_SIM, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_BAND_MODE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_STK_GET_PROFILE, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_STK_SET_PROFILE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_EXPLICIT_CALL_TRANSFER, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE, mGetPreferredNetworkTypeDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_NEIGHBORING_CELL_IDS, mCellListDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_LOCATION_UPDATES, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_TTY_MODE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_QUERY_TTY_MODE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_FLASH, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_BURST_DTMF, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_SEND_SMS, mSMSDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GSM_GET_BROADCAST_CONFIG, mGmsBroadcastConfigDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GSM_SET_BROADCAST_CONFIG, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GSM_BROADCAST_ACTIVATION, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG, mCdmaBroadcastConfigDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_BROADCAST_ACTIVATION, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_SUBSCRIPTION, mStringsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_DEVICE_IDENTITY, mStringsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_SMSC_ADDRESS, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_SMSC_ADDRESS, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_REPORT_SMS_MEMORY_STATUS, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ISIM_AUTHENTICATION, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS, mICCIODecoder);
+        registerSolicitedDecoder(RIL_REQUEST_VOICE_RADIO_TECH, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_CELL_INFO_LIST, mCellInfoListDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_INITIAL_ATTACH_APN, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_DATA_PROFILE, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_IMS_REGISTRATION_STATE, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_IMS_SEND_SMS, mSMSDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC, mICCIODecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SIM_OPEN_CHANNEL, mIntsDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SIM_CLOSE_CHANNEL, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL, mICCIODecoder);
+        registerSolicitedDecoder(RIL_REQUEST_NV_READ_ITEM, mStringDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_NV_WRITE_ITEM, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_NV_WRITE_CDMA_PRL, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_NV_RESET_CONFIG, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_UICC_SUBSCRIPTION, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_ALLOW_DATA, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_HARDWARE_CONFIG, mHardwareConfigDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SIM_AUTHENTICATION, mICCIOBase64Decoder);
+        registerSolicitedDecoder(RIL_REQUEST_SHUTDOWN, mVoidDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_RADIO_CAPABILITY, mRadioCapabilityDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_SET_RADIO_CAPABILITY, mRadioCapabilityDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_START_LCE, mLceStatusDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_STOP_LCE, mLceStatusDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_PULL_LCEDATA, mLceDataDecoder);
+        registerSolicitedDecoder(RIL_REQUEST_GET_ACTIVITY_INFO, mActivityDataDecoder);
+
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_SMS, mStringDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT, mStringDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_ON_USSD, mStringsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_NITZ_TIME_RECEIVED, mStringDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_SIGNAL_STRENGTH, mUnsolSignalStrengthDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_DATA_CALL_LIST_CHANGED, mDataCallListDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_SUPP_SVC_NOTIFICATION, mSuppServiceNotificationDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_STK_SESSION_END, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_STK_PROACTIVE_COMMAND, mStringDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_STK_EVENT_NOTIFY, mStringDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_STK_CALL_SETUP, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_SIM_SMS_STORAGE_FULL, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_SIM_REFRESH, mSimRefreshDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_CALL_RING, mCallRingDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESTRICTED_STATE_CHANGED, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_CDMA_NEW_SMS, mCdmaSmsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS, mRawDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_CDMA_CALL_WAITING, mCdmaCallWaitingDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_CDMA_OTA_PROVISION_STATUS, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_CDMA_INFO_REC, mCdmaInformationRecordDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_OEM_HOOK_RAW, mRawDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RINGBACK_TONE, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESEND_INCALL_MUTE, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOl_CDMA_PRL_CHANGED, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RIL_CONNECTED, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_VOICE_RADIO_TECH_CHANGED, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_CELL_INFO_LIST, mCellInfoListDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED, mVoidDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_SRVCC_STATE_NOTIFY, mIntsDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_HARDWARE_CONFIG_CHANGED, mHardwareConfigDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_RADIO_CAPABILITY, mRadioCapabilityDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_ON_SS, mSsDataDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_STK_CC_ALPHA_NOTIFY, mStringDecoder);
+        registerUnsolicitedDecoder(RIL_UNSOL_LCEDATA_RECV, mLceDataDecoder);
+    }
+
+    /**
+     * Installs the decoder for responses to <code>request</code>, replacing
+     * any existing one. Vendor quirks use this to change how a response is
+     * parsed without touching processSolicited.
+     *
+     * @param request RIL_REQUEST_*
+     */
+    synchronized void registerSolicitedDecoder(int request, ResponseDecoder decoder) {
+        ResponseDecoder[] decoders = mSolicitedDecoders;
+        if (request >= decoders.length) {
+            decoders = Arrays.copyOf(decoders, request + 1);
+        } else {
+            decoders = decoders.clone();
+        }
+        decoders[request] = decoder;
+        mSolicitedDecoders = decoders;
+    }
+
+    /**
+     * @return the decoder for responses to <code>request</code>, or null
+     * if there is none.
+     */
+    public ResponseDecoder getSolicitedDecoder(int request) {
+        ResponseDecoder[] decoders = mSolicitedDecoders;
+        return request >= 0 && request < decoders.length ? decoders[request] : null;
+    }
+
+    /**
+     * @return the decoder processUnsolicited uses for the response rild
+     * sends as <code>id</code>, before SonyRIL translated it, or null if
+     * there is none.
+     */
+    public ResponseDecoder getUnsolicitedDecoder(int id) {
+        UnsolDispatch dispatch = mUnsolDispatch;
+        int index = id - RIL_UNSOL_RESPONSE_BASE;
+        return index >= 0 && index < dispatch.mDecoders.length ? dispatch.mDecoders[index] : null;
+    }
+
+    /**
+     * Installs the decoder for <code>response</code>, replacing any
+     * existing one. Vendor ids that SonyRIL.translateResponse maps onto
+     * <code>response</code> get the same decoder.
+     *
+     * @param response RIL_UNSOL_*
+     */
+    synchronized void registerUnsolicitedDecoder(int response, ResponseDecoder decoder) {
+        int index = response - RIL_UNSOL_RESPONSE_BASE;
+        if (index >= mUnsolDecoders.length) {
+            mUnsolDecoders = Arrays.copyOf(mUnsolDecoders, index + 1);
+        }
+        mUnsolDecoders[index] = decoder;
+
+        int size = mUnsolDecoders.length + UNSOL_VENDOR_SLACK;
+        UnsolDispatch dispatch = new UnsolDispatch(size);
+        for (int i = 0; i < size; i++) {
+            int translated = SonyRIL.translateResponse(RIL_UNSOL_RESPONSE_BASE + i);
+            int j = translated - RIL_UNSOL_RESPONSE_BASE;
+            dispatch.mResponses[i] = translated;
+            if (j >= 0 && j < mUnsolDecoders.length) {
+                dispatch.mDecoders[i] = mUnsolDecoders[j];
+            }
+        }
+        mUnsolDispatch = dispatch;
+    }
+
+    private void
+    processResponse (Parcel p) {
+        int type;
+
+        type = p.readInt();
+
+        if (type == RESPONSE_UNSOLICITED) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            processUnsolicited (p);
+            mWakeStats.unsolicited(mLastUnsolResponse, start, SystemClock.elapsedRealtimeNanos());
+        } else if (type == RESPONSE_SOLICITED) {
+            RILRequest rr = processSolicited (p);
+            if (rr != null) {
+                decrementWakeLock(rr);
+                rr.release();
+            }
+        }
+    }
+
+    /**
+     * Release each request in mRequestList then clear the list
+     * @param error is the RIL_Errno sent back
+     * @param loggable true means to print all requests in mRequestList
+     */
+    private void clearRequestList(int error, boolean loggable) {
+        RILRequest rr;
+        ArrayList<RILRequest> pending = new ArrayList<RILRequest>();
+        mRequestList.removeAll(pending);
+
+        int count = pending.size();
+        if (RILJ_LOGD && loggable) {
+            Rlog.d(RILJ_LOG_TAG, "clearRequestList " +
+                    " mWakeLockCount=" + mWakeLockCount +
+                    " mRequestList=" + count);
+        }
+
+        for (int i = 0; i < count ; i++) {
+            rr = pending.get(i);
+            mDeadlines.cancel(rr);
+            if (mReconnecting && parkForReplay(rr)) {
+                continue;
+            }
+            if (RILJ_LOGD && loggable) {
+                Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] " +
+                        requestToString(rr.mRequest));
+            }
+            mEventLog.log(RILEventLog.ERROR, rr.mRequest, rr.mSerial, error);
+            recordLatency(rr, error);
+            rr.onError(error, null);
+            decrementWakeLock(rr);
+            rr.release();
+        }
+    }
+
+    /**
+     * Holds rr back until rild is reconnected, if it is safe to send again.
+     *
+     * @return false if rr can't be replayed and must fail instead.
+     */
+    private boolean parkForReplay(RILRequest rr) {
+        if (!isIdempotent(rr.mRequest)) {
+            return false;
+        }
+        if (rr.mParcel != null) {
+            rr.mReplayData = rr.mParcel.marshall();
+            rr.mParcel.recycle();
+            rr.mParcel = null;
+        } else if (rr.mReplayData == null) {
+            return false;
+        }
+
+        synchronized (mReplayRequests) {
+            mReplayRequests.add(rr);
+        }
+        return true;
+    }
+
+    /**
+     * @return true for requests that only read state, which rild may be
+     * sent again without side effects.
+     */
+    static boolean isIdempotent(int request) {
+        switch (request) {
+            case RIL_REQUEST_GET_SIM_STATUS:
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+            case RIL_REQUEST_GET_IMSI:
+            case RIL_REQUEST_GET_IMEI:
+            case RIL_REQUEST_GET_IMEISV:
+            case RIL_REQUEST_DEVICE_IDENTITY:
+            case RIL_REQUEST_BASEBAND_VERSION:
+            case RIL_REQUEST_SIGNAL_STRENGTH:
+            case RIL_REQUEST_VOICE_REGISTRATION_STATE:
+            case RIL_REQUEST_DATA_REGISTRATION_STATE:
+            case RIL_REQUEST_OPERATOR:
+            case RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE:
+            case RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE:
+            case RIL_REQUEST_VOICE_RADIO_TECH:
+            case RIL_REQUEST_GET_CELL_INFO_LIST:
+            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS:
+            case RIL_REQUEST_DATA_CALL_LIST:
+            case RIL_REQUEST_GET_SMSC_ADDRESS:
+            case RIL_REQUEST_GET_CLIR:
+            case RIL_REQUEST_QUERY_CLIP:
+            case RIL_REQUEST_QUERY_TTY_MODE:
+            case RIL_REQUEST_CDMA_SUBSCRIPTION:
+            case RIL_REQUEST_GET_HARDWARE_CONFIG:
+            case RIL_REQUEST_GET_RADIO_CAPABILITY:
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * RILRequest.obtain for idempotent queries. With the query cache
+     * enabled, result may be answered by an identical query already in
+     * flight or from the cache instead.
+     *
+     * @param arg the query's arguments if any, or null
+     * @return the request to send, or null if result is taken care of.
+     */
+    private RILRequest obtainQuery(int request, String arg, Message result) {
+        RILQueryCache.Flight flight = null;
+
+        if (mQueryCache != null && result != null && result.getTarget() != null) {
+            flight = mQueryCache.begin(request, arg, result);
+            if (flight == null) {
+                return null;
+            }
+        }
+
+        RILRequest rr = RILRequest.obtain(request, result);
+        rr.mFlight = flight;
+        return rr;
+    }
+
+    private void recordLatency(RILRequest rr, int error) {
+        if (rr.mSendNanos == 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtimeNanos();
+        long dequeued = rr.mDequeueNanos != 0 ? rr.mDequeueNanos : now;
+        // 0 if the request never reached rild, or its response was read
+        // before RILSender saw the write return
+        long written = rr.mWrittenNanos;
+        if (written == 0 || written < dequeued || written > now) {
+            written = now;
+        }
+        mLatencyStats.record(rr.mRequest, dequeued - rr.mSendNanos, written - dequeued,
+                now - written, error);
+    }
+
+    /**
+     * @return a copy of the per request latency histograms and error counts
+     * collected since this RIL was created.
+     */
+    public ArrayList<RILLatencyStats.Entry> getRequestLatencySnapshot() {
+        return mLatencyStats.snapshot();
+    }
+
+    //***** Asynchronous API
+    //
+    // Counterparts of CommandsInterface queries answering through a
+    // RILFuture instead of a Message. executor and callback may be null.
+
+    public RILFuture<ArrayList<DriverCall>>
+    getCurrentCallsAsync(Executor executor, RILFuture.Callback<? super ArrayList<DriverCall>> callback) {
+        return sendAsync(RIL_REQUEST_GET_CURRENT_CALLS, executor, callback);
+    }
+
+    public RILFuture<SignalStrength>
+    getSignalStrengthAsync(Executor executor, RILFuture.Callback<? super SignalStrength> callback) {
+        return sendAsync(RIL_REQUEST_SIGNAL_STRENGTH, executor, callback);
+    }
+
+    public RILFuture<String[]>
+    getVoiceRegistrationStateAsync(Executor executor, RILFuture.Callback<? super String[]> callback) {
+        return sendAsync(RIL_REQUEST_VOICE_REGISTRATION_STATE, executor, callback);
+    }
+
+    public RILFuture<String[]>
+    getDataRegistrationStateAsync(Executor executor, RILFuture.Callback<? super String[]> callback) {
+        return sendAsync(RIL_REQUEST_DATA_REGISTRATION_STATE, executor, callback);
+    }
+
+    public RILFuture<String[]>
+    getOperatorAsync(Executor executor, RILFuture.Callback<? super String[]> callback) {
+        return sendAsync(RIL_REQUEST_OPERATOR, executor, callback);
+    }
+
+    public RILFuture<ArrayList<CellInfo>>
+    getCellInfoListAsync(Executor executor, RILFuture.Callback<? super ArrayList<CellInfo>> callback) {
+        return sendAsync(RIL_REQUEST_GET_CELL_INFO_LIST, executor, callback);
+    }
+
+    /**
+     * Sends a query that takes no arguments, answering through a
+     * RILFuture. The result has the type the Message based API delivers
+     * in AsyncResult.result.
+     *
+     * @param request RIL_REQUEST_*, one of those isNoArgumentQuery()
+     * accepts
+     * @throws IllegalArgumentException for any other request
+     */
+    public RILFuture<Object>
+    requestAsync(int request, Executor executor, RILFuture.Callback<Object> callback) {
+        if (!isNoArgumentQuery(request)) {
+            throw new IllegalArgumentException(requestToString(request)
+                    + " isn't a query without arguments");
+        }
+        return sendAsync(request, executor, callback);
+    }
+
+    /**
+     * @return whether request is a read-only query rild expects no
+     * arguments for, so that requestAsync() may send it.
+     */
+    static boolean isNoArgumentQuery(int request) {
+        switch (request) {
+            case RIL_REQUEST_GET_SIM_STATUS:
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+            case RIL_REQUEST_GET_IMEI:
+            case RIL_REQUEST_GET_IMEISV:
+            case RIL_REQUEST_DEVICE_IDENTITY:
+            case RIL_REQUEST_BASEBAND_VERSION:
+            case RIL_REQUEST_SIGNAL_STRENGTH:
+            case RIL_REQUEST_VOICE_REGISTRATION_STATE:
+            case RIL_REQUEST_DATA_REGISTRATION_STATE:
+            case RIL_REQUEST_OPERATOR:
+            case RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE:
+            case RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE:
+            case RIL_REQUEST_VOICE_RADIO_TECH:
+            case RIL_REQUEST_GET_CELL_INFO_LIST:
+            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS:
+            case RIL_REQUEST_DATA_CALL_LIST:
+            case RIL_REQUEST_GET_SMSC_ADDRESS:
+            case RIL_REQUEST_GET_CLIR:
+            case RIL_REQUEST_QUERY_TTY_MODE:
+            case RIL_REQUEST_CDMA_SUBSCRIPTION:
+            case RIL_REQUEST_GET_HARDWARE_CONFIG:
+            case RIL_REQUEST_GET_RADIO_CAPABILITY:
+            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE:
+            case RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE:
+            case RIL_REQUEST_GET_MUTE:
+                return true;
+        }
+        return false;
+    }
+
+    private <T> RILFuture<T>
+    sendAsync(int request, Executor executor, RILFuture.Callback<? super T> callback) {
+        return sendAsync(RILRequest.obtain(request, null), executor, callback);
+    }
 
-        rr.mParcel.writeInt(1);
-        rr.mParcel.writeInt(activate ? 0 : 1);
+    private <T> RILFuture<T>
+    sendAsync(RILRequest rr, Executor executor, RILFuture.Callback<? super T> callback) {
+        RILFuture<T> future = new RILFuture<T>(this, rr.mSerial, executor, callback);
+        rr.mFuture = future;
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
+        return future;
     }
 
-    //***** Private Methods
-
-    // TODO(jeffbrown): Delete me.
-    // The RIL should *not* be listening for screen state changes since they are
-    // becoming increasingly ambiguous on our devices.  The RIL_REQUEST_SCREEN_STATE
-    // message should be deleted and replaced with more precise messages to control
-    // behavior such as signal strength reporting or power managements based on
-    // more robust signals.
     /**
-     * Update the screen state. Send screen state ON if the default display is ON or the device
-     * is plugged.
+     * Sends GSM SMS PDUs as one pipeline, keeping the radio link up between
+     * them and retrying parts that fail temporarily. See RILSmsBatch.
+     *
+     * @param smscPdus SMSC address of each part, as for sendSMS()
+     * @param pdus the parts, as for sendSMS()
+     * @param executor runs listener, or null to run it on the RILReceiver
+     * thread
      */
-    private void updateScreenState() {
-        final int oldState = mRadioScreenState;
-        mRadioScreenState = (mDefaultDisplayState == Display.STATE_ON || mIsDevicePlugged)
-                ? RADIO_SCREEN_ON : RADIO_SCREEN_OFF;
-        if (mRadioScreenState != oldState) {
-            if (RILJ_LOGV) {
-                riljLog("defaultDisplayState: " + mDefaultDisplayState
-                        + ", isDevicePlugged: " + mIsDevicePlugged);
-            }
-            sendScreenState(mRadioScreenState == RADIO_SCREEN_ON);
-        }
+    public RILSmsBatch
+    sendSmsBatch(String[] smscPdus, String[] pdus, Executor executor,
+            RILSmsBatch.Listener listener) {
+        RILSmsBatch batch = new RILSmsBatch(this, smscPdus, pdus, mSmsBatchWindow,
+                executor, listener);
+        if (RILJ_LOGD) riljLog("sendSmsBatch: " + pdus.length + " parts");
+        batch.start();
+        return batch;
     }
 
-    private void sendScreenState(boolean on) {
-        RILRequest rr = RILRequest.obtain(RIL_REQUEST_SCREEN_STATE, null);
-        rr.mParcel.writeInt(1);
-        rr.mParcel.writeInt(on ? 1 : 0);
-
-        if (RILJ_LOGD) riljLog(rr.serialString()
-                + "> " + requestToString(rr.mRequest) + ": " + on);
-
-        send(rr);
-    }
+    void
+    sendSmsPart(String smscPdu, String pdu, boolean expectMore,
+            RILFuture.Callback<SmsResponse> callback) {
+        RILRequest rr = RILRequest.obtain(expectMore
+                ? RIL_REQUEST_SEND_SMS_EXPECT_MORE : RIL_REQUEST_SEND_SMS, null);
 
-    @Override
-    protected void
-    onRadioAvailable() {
-        // In case screen state was lost (due to process crash),
-        // this ensures that the RIL knows the correct screen state.
-        updateScreenState();
-   }
+        constructGsmSendSmsRilRequest(rr, smscPdu, pdu);
 
-    private RadioState getRadioStateFromInt(int stateInt) {
-        RadioState state;
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
-        /* RIL_RadioState ril.h */
-        switch(stateInt) {
-            case 0: state = RadioState.RADIO_OFF; break;
-            case 1: state = RadioState.RADIO_UNAVAILABLE; break;
-            case 10: state = RadioState.RADIO_ON; break;
+        sendAsync(rr, null, callback);
+    }
 
-            default:
-                throw new RuntimeException(
-                            "Unrecognized RIL_RadioState: " + stateInt);
-        }
-        return state;
+    /**
+     * Runs r on the RILSender thread after delayMillis.
+     */
+    void
+    postDelayed(Runnable r, long delayMillis) {
+        mSender.postDelayed(r, delayMillis);
     }
 
-    private void switchToRadioState(RadioState newState) {
-        setRadioState(newState);
+    void
+    smsBatchComplete(RILSmsBatch batch) {
+        if (RILJ_LOGD) riljLog("sendSmsBatch: sent " + batch.getSentCount()
+                + "/" + batch.getPartCount() + " in " + batch.getElapsedMillis() + "ms");
+        synchronized (mSmsBatchLock) {
+            mSmsBatches++;
+            mSmsBatchParts += batch.getPartCount();
+            mSmsBatchSent += batch.getSentCount();
+            mSmsBatchFailed += batch.getFailedCount();
+            mSmsBatchRetries += batch.getRetryCount();
+            mSmsBatchMillis += batch.getElapsedMillis();
+        }
     }
 
     /**
-     * Holds a PARTIAL_WAKE_LOCK whenever
-     * a) There is outstanding RIL request sent to RIL deamon and no replied
-     * b) There is a request pending to be sent out.
+     * Sends APDUs on a logical channel opened with iccOpenLogicalChannel()
+     * as one pipeline, stopping at the first one that fails. By default
+     * one APDU is in flight at a time; with a wider window APDUs after a
+     * failing one may already have run on the card. See RILApduScript.
      *
-     * There is a WAKE_LOCK_TIMEOUT to release the lock, though it shouldn't
-     * happen often.
+     * @param executor runs listener, or null to run it on the RILReceiver
+     * thread
      */
+    public RILApduScript
+    iccTransmitApduScript(int channel, RILApduScript.Apdu[] apdus, Executor executor,
+            RILApduScript.Listener listener) {
+        RILApduScript script = new RILApduScript(this, channel, apdus, mApduWindow,
+                executor, listener);
+        if (RILJ_LOGD) riljLog("iccTransmitApduScript: " + apdus.length + " APDUs");
+        script.start();
+        return script;
+    }
 
-    private void
-    acquireWakeLock() {
-        synchronized (mWakeLock) {
-            mWakeLock.acquire();
-            mWakeLockCount++;
+    void
+    transmitApdu(int channel, RILApduScript.Apdu apdu,
+            RILFuture.Callback<IccIoResult> callback) {
+        RILRequest rr = RILRequest.obtain(RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL, null);
+        writeApdu(rr.mParcel, channel, apdu.cla, apdu.instruction, apdu.p1, apdu.p2,
+                apdu.p3, apdu.data);
 
-            mSender.removeMessages(EVENT_WAKE_LOCK_TIMEOUT);
-            Message msg = mSender.obtainMessage(EVENT_WAKE_LOCK_TIMEOUT);
-            mSender.sendMessageDelayed(msg, mWakeLockTimeout);
-        }
+        sendAsync(rr, null, callback);
     }
 
-    private void
-    decrementWakeLock() {
-        synchronized (mWakeLock) {
-            if (mWakeLockCount > 1) {
-                mWakeLockCount--;
-            } else {
-                mWakeLockCount = 0;
-                mWakeLock.release();
-                mSender.removeMessages(EVENT_WAKE_LOCK_TIMEOUT);
+    void
+    apduScriptComplete(RILApduScript script) {
+        if (RILJ_LOGD) riljLog("iccTransmitApduScript: " + script.getApduCount()
+                + " APDUs in " + script.getElapsedMillis() + "ms, failed at "
+                + script.getFailedIndex());
+        synchronized (mApduScriptLock) {
+            mApduScripts++;
+            if (!script.isSuccessful()) {
+                mApduScriptsFailed++;
             }
+            mApduScriptApdus += script.getApduCount();
+            mApduScriptMillis += script.getElapsedMillis();
         }
     }
 
-    // true if we had the wakelock
-    private boolean
-    clearWakeLock() {
-        synchronized (mWakeLock) {
-            if (mWakeLockCount == 0 && mWakeLock.isHeld() == false) return false;
-            Rlog.d(RILJ_LOG_TAG, "NOTE: mWakeLockCount is " + mWakeLockCount + "at time of clearing");
-            mWakeLockCount = 0;
-            mWakeLock.release();
-            mSender.removeMessages(EVENT_WAKE_LOCK_TIMEOUT);
-            return true;
-        }
+    /**
+     * Reads records <code>first</code> to <code>last</code> of a linear
+     * fixed or cyclic EF with a window of READ RECORD requests in flight,
+     * handing each record to listener as it arrives. See RILRecordReader.
+     *
+     * @param path and aid as for iccIOForApp()
+     * @param last last record to read, or -1 for the last one of the EF
+     * @param recordSize size of the EF's records, or 0 to read it from the
+     * EF's GET RESPONSE
+     * @param executor runs listener, or null to run it on the RILReceiver
+     * thread
+     */
+    public RILRecordReader
+    iccReadRecords(int fileId, String path, String aid, int first, int last, int recordSize,
+            Executor executor, RILRecordReader.Listener listener) {
+        RILRecordReader reader = new RILRecordReader(this, fileId, path, aid, first, last,
+                recordSize, mRecordReadWindow, executor, listener);
+        if (RILJ_LOGD) riljLog("iccReadRecords: 0x" + Integer.toHexString(fileId)
+                + " " + first + "-" + last);
+        reader.start();
+        return reader;
     }
 
-    private void
-    send(RILRequest rr) {
-        Message msg;
-
-        if (mSocket == null) {
-            rr.onError(RADIO_NOT_AVAILABLE, null);
-            rr.release();
-            return;
-        }
-
-        if (!SonyRIL.isRequestSupported(rr.mRequest)) {
-            rr.onError(REQUEST_NOT_SUPPORTED, null);
-            rr.release();
-            return;
-        }
-
-        msg = mSender.obtainMessage(EVENT_SEND, rr);
+    void
+    iccIOAsync(int command, int fileid, String path, int p1, int p2, int p3, String aid,
+            RILFuture.Callback<IccIoResult> callback) {
+        RILRequest rr = RILRequest.obtain(RIL_REQUEST_SIM_IO, null);
 
-        acquireWakeLock();
+        writeIccIO(rr.mParcel, command, fileid, path, p1, p2, p3, null, null, aid);
 
-        msg.sendToTarget();
+        sendAsync(rr, null, callback);
     }
 
-    private void
-    processResponse (Parcel p) {
-        int type;
-
-        type = p.readInt();
-
-        if (type == RESPONSE_UNSOLICITED) {
-            processUnsolicited (p);
-        } else if (type == RESPONSE_SOLICITED) {
-            RILRequest rr = processSolicited (p);
-            if (rr != null) {
-                rr.release();
-                decrementWakeLock();
-            }
+    void
+    recordReadComplete(RILRecordReader reader) {
+        if (RILJ_LOGD) riljLog("iccReadRecords: 0x" + Integer.toHexString(reader.getFileId())
+                + " read " + reader.getReadCount() + " records in "
+                + reader.getElapsedMillis() + "ms, first after "
+                + reader.getFirstRecordMillis() + "ms");
+        synchronized (mRecordReadLock) {
+            mRecordReads++;
+            mRecordsRead += reader.getReadCount();
+            mRecordsFailed += reader.getFailedCount();
+            mRecordReadMillis += reader.getElapsedMillis();
+            mRecordFirstMillis += Math.max(reader.getFirstRecordMillis(), 0);
         }
     }
 
     /**
-     * Release each request in mRequestList then clear the list
-     * @param error is the RIL_Errno sent back
-     * @param loggable true means to print all requests in mRequestList
+     * Takes the request of a cancelled RILFuture out of mRequestList. A
+     * request still waiting for RILSender is sent anyway, and its response
+     * dropped.
+     *
+     * Runs on RILSender: queueRequest() puts a request in mRequestList
+     * before it marshalls it and sets its deadline, so a request taken out
+     * and released from another thread in between would be linked into
+     * mDeadlines and have its parcel recycled after it went back to the
+     * pool.
      */
-    private void clearRequestList(int error, boolean loggable) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            int count = mRequestList.size();
-            if (RILJ_LOGD && loggable) {
-                Rlog.d(RILJ_LOG_TAG, "clearRequestList " +
-                        " mWakeLockCount=" + mWakeLockCount +
-                        " mRequestList=" + count);
+    void cancelAsync(final int serial, final RILFuture<?> future) {
+        mSender.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelSentAsync(serial, future);
             }
+        });
+    }
 
-            for (int i = 0; i < count ; i++) {
-                rr = mRequestList.valueAt(i);
-                if (RILJ_LOGD && loggable) {
-                    Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] " +
-                            requestToString(rr.mRequest));
-                }
-                rr.onError(error, null);
-                rr.release();
-                decrementWakeLock();
-            }
-            mRequestList.clear();
+    private void cancelSentAsync(int serial, RILFuture<?> future) {
+        // Another request may have the serial after it wrapped around
+        RILRequest rr = mRequestList.remove(serial, future);
+        if (rr == null) {
+            return;
         }
+
+        mDeadlines.cancel(rr);
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "< " + requestToString(rr.mRequest)
+                + " cancelled");
+        rr.mFuture = null;
+        decrementWakeLock(rr);
+        rr.release();
     }
 
     private RILRequest findAndRemoveRequestFromList(int serial) {
-        RILRequest rr = null;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-            if (rr != null) {
-                mRequestList.remove(serial);
-            }
+        RILRequest rr = mRequestList.remove(serial);
+        if (rr != null) {
+            mDeadlines.cancel(rr);
         }
-
         return rr;
     }
 
@@ -2556,162 +4127,21 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             return null;
         }
 
+        mEventLog.log(error == 0 ? RILEventLog.RESPONSE : RILEventLog.ERROR,
+                rr.mRequest, serial, error == 0 ? p.dataSize() : error);
+        recordLatency(rr, error);
+
         Object ret = null;
 
         if (error == 0 || p.dataAvail() > 0) {
             // either command succeeds or command fails but with data payload
-            try {switch (rr.mRequest) {
-            /*
- cat libs/telephony/ril_commands.h \
- | egrep "^ *{RIL_" \
- | sed -re 's/\{([^,]+),[^,]+,([^}]+).+/case \1: ret = \2(p); break;/'
-             */
-            case RIL_REQUEST_GET_SIM_STATUS: ret =  responseIccCardStatus(p); break;
-            case RIL_REQUEST_ENTER_SIM_PIN: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PUK: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PIN2: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PUK2: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_SIM_PIN: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_SIM_PIN2: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION: ret =  responseInts(p); break;
-            case RIL_REQUEST_GET_CURRENT_CALLS: ret =  responseCallList(p); break;
-            case RIL_REQUEST_DIAL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_IMSI: ret =  responseString(p); break;
-            case RIL_REQUEST_HANGUP: ret =  responseVoid(p); break;
-            case RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND: ret =  responseVoid(p); break;
-            case RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND: {
-                if (mTestingEmergencyCall.getAndSet(false)) {
-                    if (mEmergencyCallbackModeRegistrant != null) {
-                        riljLog("testing emergency call, notify ECM Registrants");
-                        mEmergencyCallbackModeRegistrant.notifyRegistrant();
-                    }
+            try {
+                ResponseDecoder decoder = getSolicitedDecoder(rr.mRequest);
+                if (decoder == null) {
+                    throw new RuntimeException("Unrecognized solicited response: " + rr.mRequest);
                 }
-                ret =  responseVoid(p);
-                break;
-            }
-            case RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CONFERENCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_UDUB: ret =  responseVoid(p); break;
-            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE: ret =  responseFailCause(p); break;
-            case RIL_REQUEST_SIGNAL_STRENGTH: ret =  responseSignalStrength(p); break;
-            case RIL_REQUEST_VOICE_REGISTRATION_STATE: ret =  responseStrings(p); break;
-            case RIL_REQUEST_DATA_REGISTRATION_STATE: ret =  responseStrings(p); break;
-            case RIL_REQUEST_OPERATOR: ret =  responseStrings(p); break;
-            case RIL_REQUEST_RADIO_POWER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DTMF: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SEND_SMS_EXPECT_MORE: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SETUP_DATA_CALL: ret =  responseSetupDataCall(p); break;
-            case RIL_REQUEST_SIM_IO: ret =  responseICC_IO(p); break;
-            case RIL_REQUEST_SEND_USSD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CANCEL_USSD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_CLIR: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_CLIR: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_CALL_FORWARD_STATUS: ret =  responseCallForward(p); break;
-            case RIL_REQUEST_SET_CALL_FORWARD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_CALL_WAITING: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_CALL_WAITING: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SMS_ACKNOWLEDGE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_IMEI: ret =  responseString(p); break;
-            case RIL_REQUEST_GET_IMEISV: ret =  responseString(p); break;
-            case RIL_REQUEST_ANSWER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DEACTIVATE_DATA_CALL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_FACILITY_LOCK: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_FACILITY_LOCK: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_BARRING_PASSWORD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_AVAILABLE_NETWORKS : ret =  responseOperatorInfos(p); break;
-            case RIL_REQUEST_DTMF_START: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DTMF_STOP: ret =  responseVoid(p); break;
-            case RIL_REQUEST_BASEBAND_VERSION: ret =  responseString(p); break;
-            case RIL_REQUEST_SEPARATE_CONNECTION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_MUTE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_MUTE: ret =  responseInts(p); break;
-            case RIL_REQUEST_QUERY_CLIP: ret =  responseInts(p); break;
-            case RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE: ret =  responseInts(p); break;
-            case RIL_REQUEST_DATA_CALL_LIST: ret =  responseDataCallList(p); break;
-            case RIL_REQUEST_RESET_RADIO: ret =  responseVoid(p); break;
-            case RIL_REQUEST_OEM_HOOK_RAW: ret =  responseRaw(p); break;
-            case RIL_REQUEST_OEM_HOOK_STRINGS: ret =  responseStrings(p); break;
-            case RIL_REQUEST_SCREEN_STATE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_WRITE_SMS_TO_SIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_DELETE_SMS_ON_SIM: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_BAND_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_STK_GET_PROFILE: ret =  responseString(p); break;
-            case RIL_REQUEST_STK_SET_PROFILE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND: ret =  responseString(p); break;
-            case RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_EXPLICIT_CALL_TRANSFER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE: ret =  responseGetPreferredNetworkType(p); break;
-            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS: ret = responseCellList(p); break;
-            case RIL_REQUEST_SET_LOCATION_UPDATES: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_TTY_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_TTY_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_FLASH: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_BURST_DTMF: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GSM_GET_BROADCAST_CONFIG: ret =  responseGmsBroadcastConfig(p); break;
-            case RIL_REQUEST_GSM_SET_BROADCAST_CONFIG: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GSM_BROADCAST_ACTIVATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG: ret =  responseCdmaBroadcastConfig(p); break;
-            case RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_BROADCAST_ACTIVATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SUBSCRIPTION: ret =  responseStrings(p); break;
-            case RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DEVICE_IDENTITY: ret =  responseStrings(p); break;
-            case RIL_REQUEST_GET_SMSC_ADDRESS: ret = responseString(p); break;
-            case RIL_REQUEST_SET_SMSC_ADDRESS: ret = responseVoid(p); break;
-            case RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE: ret = responseVoid(p); break;
-            case RIL_REQUEST_REPORT_SMS_MEMORY_STATUS: ret = responseVoid(p); break;
-            case RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING: ret = responseVoid(p); break;
-            case RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE: ret =  responseInts(p); break;
-            case RIL_REQUEST_ISIM_AUTHENTICATION: ret =  responseString(p); break;
-            case RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU: ret = responseVoid(p); break;
-            case RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS: ret = responseICC_IO(p); break;
-            case RIL_REQUEST_VOICE_RADIO_TECH: ret = responseInts(p); break;
-            case RIL_REQUEST_GET_CELL_INFO_LIST: ret = responseCellInfoList(p); break;
-            case RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_INITIAL_ATTACH_APN: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_DATA_PROFILE: ret = responseVoid(p); break;
-            case RIL_REQUEST_IMS_REGISTRATION_STATE: ret = responseInts(p); break;
-            case RIL_REQUEST_IMS_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC: ret =  responseICC_IO(p); break;
-            case RIL_REQUEST_SIM_OPEN_CHANNEL: ret  = responseInts(p); break;
-            case RIL_REQUEST_SIM_CLOSE_CHANNEL: ret  = responseVoid(p); break;
-            case RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL: ret = responseICC_IO(p); break;
-            case RIL_REQUEST_NV_READ_ITEM: ret = responseString(p); break;
-            case RIL_REQUEST_NV_WRITE_ITEM: ret = responseVoid(p); break;
-            case RIL_REQUEST_NV_WRITE_CDMA_PRL: ret = responseVoid(p); break;
-            case RIL_REQUEST_NV_RESET_CONFIG: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_UICC_SUBSCRIPTION: ret = responseVoid(p); break;
-            case RIL_REQUEST_ALLOW_DATA: ret = responseVoid(p); break;
-            case RIL_REQUEST_GET_HARDWARE_CONFIG: ret = responseHardwareConfig(p); break;
-            case RIL_REQUEST_SIM_AUTHENTICATION: ret =  responseICC_IOBase64(p); break;
-            case RIL_REQUEST_SHUTDOWN: ret = responseVoid(p); break;
-            case RIL_REQUEST_GET_RADIO_CAPABILITY: ret =  responseRadioCapability(p); break;
-            case RIL_REQUEST_SET_RADIO_CAPABILITY: ret =  responseRadioCapability(p); break;
-            case RIL_REQUEST_START_LCE: ret = responseLceStatus(p); break;
-            case RIL_REQUEST_STOP_LCE: ret = responseLceStatus(p); break;
-            case RIL_REQUEST_PULL_LCEDATA: ret = responseLceData(p); break;
-            case RIL_REQUEST_GET_ACTIVITY_INFO: ret = responseActivityData(p); break;
-            default:
-                throw new RuntimeException("Unrecognized solicited response: " + rr.mRequest);
-            //break;
-            }} catch (Throwable tr) {
+                ret = decoder.decode(p);
+            } catch (Throwable tr) {
                 // Exceptions here usually mean invalid RIL responses
 
                 Rlog.w(RILJ_LOG_TAG, rr.serialString() + "< "
@@ -2722,6 +4152,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                     AsyncResult.forMessage(rr.mResult, null, tr);
                     rr.mResult.sendToTarget();
                 }
+                rr.completeWaiters(null, tr);
                 return rr;
             }
         }
@@ -2787,15 +4218,24 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
             if (error != 0) rr.onError(error, ret);
         }
+        if (error == REQUEST_NOT_SUPPORTED) {
+            mRequestSupport.notSupported(rr.mRequest);
+        } else {
+            mRequestSupport.supported(rr.mRequest);
+        }
         if (error == 0) {
+            if (rr.mRequest == RIL_REQUEST_BASEBAND_VERSION && ret instanceof String) {
+                mRequestSupport.setBaseband((String) ret);
+            }
 
-            if (RILJ_LOGD) riljLog(rr.serialString() + "< " + requestToString(rr.mRequest)
+            if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "< " + requestToString(rr.mRequest)
                     + " " + retToString(rr.mRequest, ret));
 
             if (rr.mResult != null) {
                 AsyncResult.forMessage(rr.mResult, ret, null);
                 rr.mResult.sendToTarget();
             }
+            rr.completeWaiters(ret, null);
         }
         return rr;
     }
@@ -2904,98 +4344,76 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         int response;
         Object ret;
 
-        response = SonyRIL.translateResponse(p.readInt());
-
-        try {switch(response) {
-/*
- cat libs/telephony/ril_unsol_commands.h \
- | egrep "^ *{RIL_" \
- | sed -re 's/\{([^,]+),[^,]+,([^}]+).+/case \1: \2(rr, p); break;/'
-*/
+        int id = p.readInt();
+        UnsolDispatch dispatch = mUnsolDispatch;
+        int index = id - RIL_UNSOL_RESPONSE_BASE;
+        ResponseDecoder decoder = null;
+        if (index >= 0 && index < dispatch.mDecoders.length) {
+            response = dispatch.mResponses[index];
+            decoder = dispatch.mDecoders[index];
+        } else {
+            response = SonyRIL.translateResponse(id);
+        }
+        mLastUnsolResponse = response;
 
-            case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_SMS: ret =  responseString(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT: ret =  responseString(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM: ret =  responseInts(p); break;
-            case RIL_UNSOL_ON_USSD: ret =  responseStrings(p); break;
-            case RIL_UNSOL_NITZ_TIME_RECEIVED: ret =  responseString(p); break;
-            case RIL_UNSOL_SIGNAL_STRENGTH: ret = responseSignalStrength(p); break;
-            case RIL_UNSOL_DATA_CALL_LIST_CHANGED: ret = responseDataCallList(p);break;
-            case RIL_UNSOL_SUPP_SVC_NOTIFICATION: ret = responseSuppServiceNotification(p); break;
-            case RIL_UNSOL_STK_SESSION_END: ret = responseVoid(p); break;
-            case RIL_UNSOL_STK_PROACTIVE_COMMAND: ret = responseString(p); break;
-            case RIL_UNSOL_STK_EVENT_NOTIFY: ret = responseString(p); break;
-            case RIL_UNSOL_STK_CALL_SETUP: ret = responseInts(p); break;
-            case RIL_UNSOL_SIM_SMS_STORAGE_FULL: ret =  responseVoid(p); break;
-            case RIL_UNSOL_SIM_REFRESH: ret =  responseSimRefresh(p); break;
-            case RIL_UNSOL_CALL_RING: ret =  responseCallRing(p); break;
-            case RIL_UNSOL_RESTRICTED_STATE_CHANGED: ret = responseInts(p); break;
-            case RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED:  ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_CDMA_NEW_SMS:  ret =  responseCdmaSms(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS:  ret =  responseRaw(p); break;
-            case RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL:  ret =  responseVoid(p); break;
-            case RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE: ret = responseVoid(p); break;
-            case RIL_UNSOL_CDMA_CALL_WAITING: ret = responseCdmaCallWaiting(p); break;
-            case RIL_UNSOL_CDMA_OTA_PROVISION_STATUS: ret = responseInts(p); break;
-            case RIL_UNSOL_CDMA_INFO_REC: ret = responseCdmaInformationRecord(p); break;
-            case RIL_UNSOL_OEM_HOOK_RAW: ret = responseRaw(p); break;
-            case RIL_UNSOL_RINGBACK_TONE: ret = responseInts(p); break;
-            case RIL_UNSOL_RESEND_INCALL_MUTE: ret = responseVoid(p); break;
-            case RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED: ret = responseInts(p); break;
-            case RIL_UNSOl_CDMA_PRL_CHANGED: ret = responseInts(p); break;
-            case RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE: ret = responseVoid(p); break;
-            case RIL_UNSOL_RIL_CONNECTED: ret = responseInts(p); break;
-            case RIL_UNSOL_VOICE_RADIO_TECH_CHANGED: ret =  responseInts(p); break;
-            case RIL_UNSOL_CELL_INFO_LIST: ret = responseCellInfoList(p); break;
-            case RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED: ret =  responseInts(p); break;
-            case RIL_UNSOL_SRVCC_STATE_NOTIFY: ret = responseInts(p); break;
-            case RIL_UNSOL_HARDWARE_CONFIG_CHANGED: ret = responseHardwareConfig(p); break;
-            case RIL_UNSOL_RADIO_CAPABILITY:
-                    ret = responseRadioCapability(p); break;
-            case RIL_UNSOL_ON_SS: ret =  responseSsData(p); break;
-            case RIL_UNSOL_STK_CC_ALPHA_NOTIFY: ret =  responseString(p); break;
-            case RIL_UNSOL_LCEDATA_RECV: ret = responseLceData(p); break;
+        mEventLog.log(RILEventLog.UNSOL, response, 0, p.dataSize());
 
-            default:
+        try {
+            if (decoder == null) {
                 throw new RuntimeException("Unrecognized unsol response: " + response);
-            //break; (implied)
-        }} catch (Throwable tr) {
+            }
+            ret = decoder.decode(p);
+        } catch (Throwable tr) {
             Rlog.e(RILJ_LOG_TAG, "Exception processing unsol response: " + response +
                 "Exception:" + tr.toString());
             return;
         }
 
+        if (mQueryCache != null) {
+            mQueryCache.onUnsolicited(response);
+        }
+
+        // Deliver what was deferred before anything newer, so registrants
+        // never see a deferred value after a more recent one
+        if (mHasDeferredUnsol && (mRadioScreenState != RADIO_SCREEN_OFF
+                || (response != RIL_UNSOL_CELL_INFO_LIST
+                        && response != RIL_UNSOL_NITZ_TIME_RECEIVED
+                        && response != RIL_UNSOL_DATA_CALL_LIST_CHANGED))) {
+            flushDeferredUnsol();
+        }
+
         switch(response) {
             case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED:
                 /* has bonus radio state int */
                 RadioState newState = getRadioStateFromInt(p.readInt());
-                if (RILJ_LOGD) unsljLogMore(response, newState.toString());
+                if (RILJ_LOG_TEXT) unsljLogMore(response, newState.toString());
 
+                if (newState != RadioState.RADIO_ON) {
+                    // ServiceStateTracker drops to no signal
+                    resetSignalStrengthBaseline();
+                }
                 switchToRadioState(newState);
             break;
             case RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 mImsNetworkStateChangedRegistrants
                     .notifyRegistrants(new AsyncResult(null, null, null));
             break;
             case RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 mCallStateRegistrants
                     .notifyRegistrants(new AsyncResult(null, null, null));
             break;
             case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 mVoiceNetworkStateRegistrants
                     .notifyRegistrants(new AsyncResult(null, null, null));
             break;
             case RIL_UNSOL_RESPONSE_NEW_SMS: {
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 // FIXME this should move up a layer
                 String a[] = new String[2];
@@ -3012,7 +4430,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             break;
             }
             case RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mSmsStatusRegistrant != null) {
                     mSmsStatusRegistrant.notifyRegistrant(
@@ -3020,7 +4438,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 }
             break;
             case RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 int[] smsIndex = (int[])ret;
 
@@ -3042,14 +4460,14 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                     resp[0] = ((String[])ret)[0];
                     resp[1] = null;
                 }
-                if (RILJ_LOGD) unsljLogMore(response, resp[0]);
+                if (RILJ_LOG_TEXT) unsljLogMore(response, resp[0]);
                 if (mUSSDRegistrant != null) {
                     mUSSDRegistrant.notifyRegistrant(
                         new AsyncResult (null, resp, null));
                 }
             break;
             case RIL_UNSOL_NITZ_TIME_RECEIVED:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 // has bonus long containing milliseconds since boot that the NITZ
                 // time was received
@@ -3065,6 +4483,8 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
                 if (ignoreNitz) {
                     if (RILJ_LOGD) riljLog("ignoring UNSOL_NITZ_TIME_RECEIVED");
+                } else if (isNitzRepeat(ret) && deferUnsol(DEFER_NITZ, result)) {
+                    mLastNITZTimeInfo = result;
                 } else {
                     if (mNITZTimeRegistrant != null) {
 
@@ -3082,19 +4502,32 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 // frequently
                 if (RILJ_LOGV) unsljLogvRet(response, ret);
 
+                mSignalStrengthReceived++;
+                if (ret == SIGNAL_STRENGTH_UNCHANGED) {
+                    mSignalStrengthUnchanged++;
+                    break;
+                }
+                if (isSignalStrengthWithinHysteresis((SignalStrength) ret)) {
+                    mSignalStrengthSuppressed++;
+                    break;
+                }
+
                 if (mSignalStrengthRegistrant != null) {
-                    mSignalStrengthRegistrant.notifyRegistrant(
-                                        new AsyncResult (null, ret, null));
+                    mLastNotifiedSignalStrength = new SignalStrength((SignalStrength) ret);
+                    notifySignalStrength((SignalStrength) ret);
                 }
             break;
             case RIL_UNSOL_DATA_CALL_LIST_CHANGED:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
+                if (deferUnsol(DEFER_DATA_CALL_LIST, ret)) {
+                    break;
+                }
                 mDataNetworkStateRegistrants.notifyRegistrants(new AsyncResult(null, ret, null));
             break;
 
             case RIL_UNSOL_SUPP_SVC_NOTIFICATION:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mSsnRegistrant != null) {
                     mSsnRegistrant.notifyRegistrant(
@@ -3103,7 +4536,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_STK_SESSION_END:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 if (mCatSessionEndRegistrant != null) {
                     mCatSessionEndRegistrant.notifyRegistrant(
@@ -3112,7 +4545,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_STK_PROACTIVE_COMMAND:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 if (mCatProCmdRegistrant != null) {
                     mCatProCmdRegistrant.notifyRegistrant(
@@ -3121,7 +4554,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_STK_EVENT_NOTIFY:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 if (mCatEventRegistrant != null) {
                     mCatEventRegistrant.notifyRegistrant(
@@ -3130,7 +4563,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_STK_CALL_SETUP:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mCatCallSetUpRegistrant != null) {
                     mCatCallSetUpRegistrant.notifyRegistrant(
@@ -3139,7 +4572,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_SIM_SMS_STORAGE_FULL:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 if (mIccSmsFullRegistrant != null) {
                     mIccSmsFullRegistrant.notifyRegistrant();
@@ -3147,7 +4580,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_SIM_REFRESH:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mIccRefreshRegistrants != null) {
                     mIccRefreshRegistrants.notifyRegistrants(
@@ -3156,7 +4589,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_CALL_RING:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mRingRegistrant != null) {
                     mRingRegistrant.notifyRegistrant(
@@ -3165,7 +4598,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_RESTRICTED_STATE_CHANGED:
-                if (RILJ_LOGD) unsljLogvRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogvRet(response, ret);
                 if (mRestrictedStateRegistrant != null) {
                     mRestrictedStateRegistrant.notifyRegistrant(
                                         new AsyncResult (null, ret, null));
@@ -3173,7 +4606,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 if (mIccStatusChangedRegistrants != null) {
                     mIccStatusChangedRegistrants.notifyRegistrants();
@@ -3181,7 +4614,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_RESPONSE_CDMA_NEW_SMS:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 SmsMessage sms = (SmsMessage) ret;
 
@@ -3192,7 +4625,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS:
-                if (RILJ_LOGD) unsljLogvRet(response, IccUtils.bytesToHexString((byte[])ret));
+                if (RILJ_LOG_TEXT) unsljLogvRet(response, IccUtils.bytesToHexString((byte[])ret));
 
                 if (mGsmBroadcastSmsRegistrant != null) {
                     mGsmBroadcastSmsRegistrant
@@ -3201,7 +4634,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 if (mIccSmsFullRegistrant != null) {
                     mIccSmsFullRegistrant.notifyRegistrant();
@@ -3209,7 +4642,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE:
-                if (RILJ_LOGD) unsljLog(response);
+                if (RILJ_LOG_TEXT) unsljLog(response);
 
                 if (mEmergencyCallbackModeRegistrant != null) {
                     mEmergencyCallbackModeRegistrant.notifyRegistrant();
@@ -3217,7 +4650,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_CDMA_CALL_WAITING:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mCallWaitingInfoRegistrants != null) {
                     mCallWaitingInfoRegistrants.notifyRegistrants(
@@ -3226,7 +4659,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_CDMA_OTA_PROVISION_STATUS:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mOtaProvisionRegistrants != null) {
                     mOtaProvisionRegistrants.notifyRegistrants(
@@ -3245,20 +4678,20 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 }
 
                 for (CdmaInformationRecords rec : listInfoRecs) {
-                    if (RILJ_LOGD) unsljLogRet(response, rec);
+                    if (RILJ_LOG_TEXT) unsljLogRet(response, rec);
                     notifyRegistrantsCdmaInfoRec(rec);
                 }
                 break;
 
             case RIL_UNSOL_OEM_HOOK_RAW:
-                if (RILJ_LOGD) unsljLogvRet(response, IccUtils.bytesToHexString((byte[]) ret));
+                if (RILJ_LOG_TEXT) unsljLogvRet(response, IccUtils.bytesToHexString((byte[]) ret));
                 if (mUnsolOemHookRawRegistrant != null) {
                     mUnsolOemHookRawRegistrant.notifyRegistrant(new AsyncResult(null, ret, null));
                 }
                 break;
 
             case RIL_UNSOL_RINGBACK_TONE:
-                if (RILJ_LOGD) unsljLogvRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogvRet(response, ret);
                 if (mRingbackToneRegistrants != null) {
                     boolean playtone = (((int[])ret)[0] == 1);
                     mRingbackToneRegistrants.notifyRegistrants(
@@ -3267,7 +4700,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_RESEND_INCALL_MUTE:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mResendIncallMuteRegistrants != null) {
                     mResendIncallMuteRegistrants.notifyRegistrants(
@@ -3276,7 +4709,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_VOICE_RADIO_TECH_CHANGED:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mVoiceRadioTechChangedRegistrants != null) {
                     mVoiceRadioTechChangedRegistrants.notifyRegistrants(
@@ -3285,7 +4718,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mCdmaSubscriptionChangedRegistrants != null) {
                     mCdmaSubscriptionChangedRegistrants.notifyRegistrants(
@@ -3294,7 +4727,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOl_CDMA_PRL_CHANGED:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mCdmaPrlChangedRegistrants != null) {
                     mCdmaPrlChangedRegistrants.notifyRegistrants(
@@ -3303,7 +4736,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mExitEmergencyCallbackModeRegistrants != null) {
                     mExitEmergencyCallbackModeRegistrants.notifyRegistrants(
@@ -3312,7 +4745,10 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
 
             case RIL_UNSOL_RIL_CONNECTED: {
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
+
+                mCellInfo.reset();
+                resetSignalStrengthBaseline();
 
                 // Initial conditions
                 setRadioPower(false, null);
@@ -3322,8 +4758,11 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
             }
             case RIL_UNSOL_CELL_INFO_LIST: {
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
+                if (deferUnsol(DEFER_CELL_INFO, ret)) {
+                    break;
+                }
                 if (mRilCellInfoListRegistrants != null) {
                     mRilCellInfoListRegistrants.notifyRegistrants(
                                         new AsyncResult (null, ret, null));
@@ -3331,7 +4770,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
             }
             case RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED: {
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mSubscriptionStatusRegistrants != null) {
                     mSubscriptionStatusRegistrants.notifyRegistrants(
@@ -3340,7 +4779,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
             }
             case RIL_UNSOL_SRVCC_STATE_NOTIFY: {
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mSrvccStateRegistrants != null) {
                     mSrvccStateRegistrants
@@ -3349,7 +4788,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 break;
             }
             case RIL_UNSOL_HARDWARE_CONFIG_CHANGED:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mHardwareConfigChangeRegistrants != null) {
                     mHardwareConfigChangeRegistrants.notifyRegistrants(
@@ -3357,7 +4796,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 }
                 break;
             case RIL_UNSOL_RADIO_CAPABILITY:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mPhoneRadioCapabilityChangedRegistrants != null) {
                     mPhoneRadioCapabilityChangedRegistrants.notifyRegistrants(
@@ -3365,7 +4804,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                  }
                  break;
             case RIL_UNSOL_ON_SS:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mSsRegistrant != null) {
                     mSsRegistrant.notifyRegistrant(
@@ -3373,7 +4812,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 }
                 break;
             case RIL_UNSOL_STK_CC_ALPHA_NOTIFY:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mCatCcAlphaRegistrant != null) {
                     mCatCcAlphaRegistrant.notifyRegistrant(
@@ -3381,7 +4820,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                 }
                 break;
             case RIL_UNSOL_LCEDATA_RECV:
-                if (RILJ_LOGD) unsljLogRet(response, ret);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, ret);
 
                 if (mLceInfoRegistrant != null) {
                     mLceInfoRegistrant.notifyRegistrant(new AsyncResult(null, ret, null));
@@ -3482,7 +4921,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     responseString(Parcel p) {
         String response;
 
-        response = p.readString();
+        response = mStrings.readString(p);
 
         return response;
     }
@@ -3492,7 +4931,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         int num;
         String response[];
 
-        response = p.readStringArray();
+        response = mStrings.readStringArray(p, null);
 
         return response;
     }
@@ -3581,8 +5020,8 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             appStatus.app_type       = appStatus.AppTypeFromRILInt(p.readInt());
             appStatus.app_state      = appStatus.AppStateFromRILInt(p.readInt());
             appStatus.perso_substate = appStatus.PersoSubstateFromRILInt(p.readInt());
-            appStatus.aid            = p.readString();
-            appStatus.app_label      = p.readString();
+            appStatus.aid            = mStrings.readString(p);
+            appStatus.app_label      = mStrings.readString(p);
             appStatus.pin1_replaced  = p.readInt();
             appStatus.pin1           = appStatus.PinStateFromRILInt(p.readInt());
             appStatus.pin2           = appStatus.PinStateFromRILInt(p.readInt());
@@ -3628,10 +5067,10 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             voiceSettings = p.readInt();
             dc.isVoice = (0 == voiceSettings) ? false : true;
             dc.isVoicePrivacy = (0 != p.readInt());
-            dc.number = p.readString();
+            dc.number = mStrings.readString(p);
             int np = p.readInt();
             dc.numberPresentation = DriverCall.presentationFromCLIP(np);
-            dc.name = p.readString();
+            dc.name = mStrings.readString(p);
             // according to ril.h, namePresentation should be handled as numberPresentation;
             dc.namePresentation = DriverCall.presentationFromCLIP(p.readInt());
             int uusInfoPresent = p.readInt();
@@ -3686,7 +5125,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         if (version < 5) {
             dataCall.cid = p.readInt();
             dataCall.active = p.readInt();
-            dataCall.type = p.readString();
+            dataCall.type = mStrings.readString(p);
             String addresses = p.readString();
             if (!TextUtils.isEmpty(addresses)) {
                 dataCall.addresses = addresses.split(" ");
@@ -3696,8 +5135,8 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             dataCall.suggestedRetryTime = p.readInt();
             dataCall.cid = p.readInt();
             dataCall.active = p.readInt();
-            dataCall.type = p.readString();
-            dataCall.ifname = p.readString();
+            dataCall.type = mStrings.readString(p);
+            dataCall.ifname = mStrings.readString(p);
             if ((dataCall.status == DcFailCause.NONE.getErrorCode()) &&
                     TextUtils.isEmpty(dataCall.ifname)) {
               throw new RuntimeException("getDataCallResponse, no ifname");
@@ -3755,7 +5194,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             dataCall = new DataCallResponse();
             dataCall.version = ver;
             dataCall.cid = Integer.parseInt(p.readString());
-            dataCall.ifname = p.readString();
+            dataCall.ifname = mStrings.readString(p);
             if (TextUtils.isEmpty(dataCall.ifname)) {
                 throw new RuntimeException(
                         "RIL_REQUEST_SETUP_DATA_CALL response, no ifname");
@@ -3923,6 +5362,65 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         return response;
     }
 
+    /**
+     * Hands ss to mSignalStrengthRegistrant through mPendingSignalStrength.
+     * While an earlier value still waits for the registrant's handler, ss
+     * takes its place and the earlier one is never delivered.
+     */
+    private void notifySignalStrength(SignalStrength ss) {
+        Handler h = mSignalStrengthRegistrant.getHandler();
+        if (h == null) {
+            // The registrant's handler was collected
+            mPendingSignalStrength.set(null);
+            return;
+        }
+        if (mPendingSignalStrength.getAndSet(ss) != null) {
+            mSignalStrengthStaleDropped++;
+        } else {
+            h.post(mDeliverSignalStrength);
+        }
+    }
+
+    private final Runnable mDeliverSignalStrength = new Runnable() {
+        @Override
+        public void run() {
+            SignalStrength ss = mPendingSignalStrength.getAndSet(null);
+            Registrant r = mSignalStrengthRegistrant;
+            if (ss != null && r != null) {
+                r.notifyRegistrant(new AsyncResult (null, ss, null));
+            }
+        }
+    };
+
+    /**
+     * Forgets the signal strength updates compared against, so that the
+     * next one is notified whatever it is. Called on the RILReceiver thread
+     * whenever the registrant may have dropped to no signal: rild
+     * (re)connected, went away, or turned the radio off.
+     */
+    private void resetSignalStrengthBaseline() {
+        mLastSignalStrengthWordCount = -1;
+        mLastNotifiedSignalStrength = null;
+    }
+
+    /**
+     * @return true if ss is too close to the last notified signal strength
+     * to be worth notifying.
+     */
+    private boolean isSignalStrengthWithinHysteresis(SignalStrength ss) {
+        SignalStrength last = mLastNotifiedSignalStrength;
+
+        if (last == null) {
+            return false;
+        }
+        if (last.equals(ss)) {
+            return true;
+        }
+        return mSignalStrengthHysteresisDb > 0
+                && last.getLevel() == ss.getLevel()
+                && Math.abs(last.getDbm() - ss.getDbm()) < mSignalStrengthHysteresisDb;
+    }
+
     private Object
     responseSignalStrength(Parcel p) {
         // Assume this is gsm, but doesn't matter as ServiceStateTracker
@@ -3987,68 +5485,49 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         int response = RIL_UNSOL_CDMA_INFO_REC;
         if (infoRec.record instanceof CdmaInformationRecords.CdmaDisplayInfoRec) {
             if (mDisplayInfoRegistrants != null) {
-                if (RILJ_LOGD) unsljLogRet(response, infoRec.record);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, infoRec.record);
                 mDisplayInfoRegistrants.notifyRegistrants(
                         new AsyncResult (null, infoRec.record, null));
             }
         } else if (infoRec.record instanceof CdmaInformationRecords.CdmaSignalInfoRec) {
             if (mSignalInfoRegistrants != null) {
-                if (RILJ_LOGD) unsljLogRet(response, infoRec.record);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, infoRec.record);
                 mSignalInfoRegistrants.notifyRegistrants(
                         new AsyncResult (null, infoRec.record, null));
             }
         } else if (infoRec.record instanceof CdmaInformationRecords.CdmaNumberInfoRec) {
             if (mNumberInfoRegistrants != null) {
-                if (RILJ_LOGD) unsljLogRet(response, infoRec.record);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, infoRec.record);
                 mNumberInfoRegistrants.notifyRegistrants(
                         new AsyncResult (null, infoRec.record, null));
             }
         } else if (infoRec.record instanceof CdmaInformationRecords.CdmaRedirectingNumberInfoRec) {
             if (mRedirNumInfoRegistrants != null) {
-                if (RILJ_LOGD) unsljLogRet(response, infoRec.record);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, infoRec.record);
                 mRedirNumInfoRegistrants.notifyRegistrants(
                         new AsyncResult (null, infoRec.record, null));
             }
         } else if (infoRec.record instanceof CdmaInformationRecords.CdmaLineControlInfoRec) {
             if (mLineControlInfoRegistrants != null) {
-                if (RILJ_LOGD) unsljLogRet(response, infoRec.record);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, infoRec.record);
                 mLineControlInfoRegistrants.notifyRegistrants(
                         new AsyncResult (null, infoRec.record, null));
             }
         } else if (infoRec.record instanceof CdmaInformationRecords.CdmaT53ClirInfoRec) {
             if (mT53ClirInfoRegistrants != null) {
-                if (RILJ_LOGD) unsljLogRet(response, infoRec.record);
+                if (RILJ_LOG_TEXT) unsljLogRet(response, infoRec.record);
                 mT53ClirInfoRegistrants.notifyRegistrants(
                         new AsyncResult (null, infoRec.record, null));
             }
         } else if (infoRec.record instanceof CdmaInformationRecords.CdmaT53AudioControlInfoRec) {
             if (mT53AudCntrlInfoRegistrants != null) {
-               if (RILJ_LOGD) unsljLogRet(response, infoRec.record);
+               if (RILJ_LOG_TEXT) unsljLogRet(response, infoRec.record);
                mT53AudCntrlInfoRegistrants.notifyRegistrants(
                        new AsyncResult (null, infoRec.record, null));
             }
         }
     }
 
-    private ArrayList<CellInfo> responseCellInfoList(Parcel p) {
-        int numberOfInfoRecs;
-        ArrayList<CellInfo> response;
-
-        /**
-         * Loop through all of the information records unmarshalling them
-         * and converting them to Java Objects.
-         */
-        numberOfInfoRecs = p.readInt();
-        response = new ArrayList<CellInfo>(numberOfInfoRecs);
-
-        for (int i = 0; i < numberOfInfoRecs; i++) {
-            CellInfo InfoRec = CellInfo.CREATOR.createFromParcel(p);
-            response.add(InfoRec);
-        }
-
-        return response;
-    }
-
    private Object
    responseHardwareConfig(Parcel p) {
       int num;
@@ -4156,7 +5635,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
                         idleModeTimeMs, txModeTimeMs, rxModeTimeMs, 0);
     }
 
-    static String
+    public static String
     requestToString(int request) {
 /*
  cat libs/telephony/ril_commands.h \
@@ -4435,9 +5914,12 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void
     getDeviceIdentity(Message response) {
-        RILRequest rr = RILRequest.obtain(RIL_REQUEST_DEVICE_IDENTITY, response);
+        RILRequest rr = obtainQuery(RIL_REQUEST_DEVICE_IDENTITY, null, response);
+        if (rr == null) {
+            return;
+        }
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4447,7 +5929,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     getCDMASubscription(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_CDMA_SUBSCRIPTION, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4466,7 +5948,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4482,7 +5964,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(cdmaRoamingType);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + cdmaRoamingType);
 
         send(rr);
@@ -4499,7 +5981,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(cdmaSubscription);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + cdmaSubscription);
 
         send(rr);
@@ -4513,7 +5995,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4526,7 +6008,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RILConstants.RIL_REQUEST_QUERY_TTY_MODE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4542,7 +6024,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(ttyMode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + ttyMode);
 
         send(rr);
@@ -4558,7 +6040,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeString(FeatureCode);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " : " + FeatureCode);
 
         send(rr);
@@ -4595,7 +6077,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
             rr.mParcel.writeInt(rilConfigs[i].isSelected() ? 1 : 0);
         }
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " with " + rilConfigs.length + " configs : ");
             for (int i = 0; i < rilConfigs.length; i++) {
@@ -4613,7 +6095,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(activate ? 0 :1);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4625,7 +6107,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     public void exitEmergencyCallbackMode(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4636,7 +6118,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeString(nonce);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4650,7 +6132,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(data);
         rr.mParcel.writeString(aid);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4662,7 +6144,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     public void getCellInfoList(Message result) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_CELL_INFO_LIST, result);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4678,7 +6160,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(rateInMillis);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4695,7 +6177,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(username);
         rr.mParcel.writeString(password);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ", apn:" + apn + ", protocol:" + protocol + ", authType:" + authType
                 + ", username:" + username + ", password:" + password);
 
@@ -4708,7 +6190,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SET_DATA_PROFILE, null);
         DataProfile.toParcel(rr.mParcel, dps);
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " with " + dps + " Data Profiles : ");
             for (int i = 0; i < dps.length; i++) {
@@ -4737,17 +6219,93 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         pw.println(" mReceiver=" + mReceiver);
         pw.println(" mWakeLock=" + mWakeLock);
         pw.println(" mWakeLockTimeout=" + mWakeLockTimeout);
-        synchronized (mRequestList) {
-            synchronized (mWakeLock) {
-                pw.println(" mWakeLockCount=" + mWakeLockCount);
-            }
-            int count = mRequestList.size();
-            pw.println(" mRequestList count=" + count);
-            for (int i = 0; i < count; i++) {
-                RILRequest rr = mRequestList.valueAt(i);
-                pw.println("  [" + rr.mSerial + "] " + requestToString(rr.mRequest));
-            }
+        pw.println(" mSendBatching=" + mSendBatching
+                + " mSendBatchWindowMillis=" + mSendBatchWindowMillis
+                + " queued=" + mSendScheduler.size());
+        mSendScheduler.dump(pw);
+        pw.println(" send batches=" + mSender.mBatchFlushes
+                + " frames=" + mSender.mBatchFrames
+                + " bytes=" + mSender.mBatchBytes
+                + " maxFrames=" + mSender.mBatchMaxFrames
+                + " sizes[1,2-3,4-7,8-15,16+]=" + Arrays.toString(mSender.mBatchSizeBuckets));
+        pw.println(" signal strength received=" + mSignalStrengthReceived
+                + " unchanged=" + mSignalStrengthUnchanged
+                + " suppressed=" + mSignalStrengthSuppressed
+                + " staleDropped=" + mSignalStrengthStaleDropped
+                + " hysteresisDb=" + mSignalStrengthHysteresisDb);
+        if (mQueryCache != null) {
+            mQueryCache.dump(pw);
+        }
+        synchronized (mDeferredUnsolLock) {
+            pw.println(" screen off unsol policy=0x" + Integer.toHexString(mDeferUnsolPolicy)
+                    + " deferred=" + mUnsolDeferred
+                    + " deferred/coalesced unsols=" + mUnsolCoalesced
+                    + " flushes=" + mUnsolFlushes
+                    + " pending=" + mHasDeferredUnsol);
+        }
+        RILFrameTransport transport = mTransport;
+        if (transport instanceof RILTraceTransport) {
+            pw.println(" trace " + ((RILTraceTransport) transport).stats());
         }
+        synchronized (mWakeLock) {
+            pw.println(" mWakeLockCount=" + mWakeLockCount);
+        }
+        mDeadlines.dump(pw);
+        mCellInfo.dump(pw, "cell info");
+        mStrings.dump(pw);
+        mRequestSupport.dump(pw);
+        synchronized (mSmsBatchLock) {
+            pw.println(" sms batches=" + mSmsBatches
+                    + " window=" + mSmsBatchWindow
+                    + " parts=" + mSmsBatchParts
+                    + " sent=" + mSmsBatchSent
+                    + " failed=" + mSmsBatchFailed
+                    + " retries=" + mSmsBatchRetries
+                    + " partsPerSec=" + (mSmsBatchMillis > 0
+                            ? mSmsBatchSent * 1000 / mSmsBatchMillis : 0));
+        }
+        synchronized (mApduScriptLock) {
+            pw.println(" apdu scripts=" + mApduScripts
+                    + " window=" + mApduWindow
+                    + " failed=" + mApduScriptsFailed
+                    + " apdus=" + mApduScriptApdus
+                    + " apdusPerSec=" + (mApduScriptMillis > 0
+                            ? mApduScriptApdus * 1000 / mApduScriptMillis : 0));
+        }
+        synchronized (mRecordReadLock) {
+            pw.println(" record reads=" + mRecordReads
+                    + " window=" + mRecordReadWindow
+                    + " records=" + mRecordsRead
+                    + " failed=" + mRecordsFailed
+                    + " recordsPerSec=" + (mRecordReadMillis > 0
+                            ? mRecordsRead * 1000 / mRecordReadMillis : 0)
+                    + " avgFirstRecordMs=" + (mRecordReads > 0
+                            ? mRecordFirstMillis / mRecordReads : 0));
+        }
+        synchronized (mReplayRequests) {
+            pw.println(" fast reconnect=" + mFastReconnect
+                    + " reconnecting=" + mReconnecting
+                    + " reconnects=" + mReconnects
+                    + " attempts=" + mReconnectAttempts
+                    + " lastMs=" + mReconnectLastNanos / 1000000
+                    + " meanMs=" + (mReconnects > 0 ? mReconnectTotalNanos / mReconnects / 1000000 : 0)
+                    + " maxMs=" + mReconnectMaxNanos / 1000000
+                    + " replayed=" + mReplayed
+                    + " replayExpired=" + mReplayExpired
+                    + " parked=" + mReplayRequests.size());
+        }
+        mWakeStats.dump(pw);
+        ArrayList<RILRequest> pending = new ArrayList<RILRequest>();
+        mRequestList.snapshot(pending);
+        int count = pending.size();
+        pw.println(" mRequestList count=" + count);
+        for (int i = 0; i < count; i++) {
+            RILRequest rr = pending.get(i);
+            pw.println("  [" + rr.mSerial + "] " + requestToString(rr.mRequest));
+        }
+        RILRequest.dumpPool(pw);
+        mLatencyStats.dump(pw);
+        mEventLog.dump(pw);
         pw.println(" mLastNITZTimeInfo=" + mLastNITZTimeInfo);
         pw.println(" mTestingEmergencyCall=" + mTestingEmergencyCall.get());
     }
@@ -4760,7 +6318,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_SIM_OPEN_CHANNEL, response);
         rr.mParcel.writeString(AID);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOG_TEXT)
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -4775,7 +6333,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(channel);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOG_TEXT)
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
@@ -4812,27 +6370,32 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     private void iccTransmitApduHelper(int rilCommand, int channel, int cla,
             int instruction, int p1, int p2, int p3, String data, Message response) {
         RILRequest rr = RILRequest.obtain(rilCommand, response);
-        rr.mParcel.writeInt(channel);
-        rr.mParcel.writeInt(cla);
-        rr.mParcel.writeInt(instruction);
-        rr.mParcel.writeInt(p1);
-        rr.mParcel.writeInt(p2);
-        rr.mParcel.writeInt(p3);
-        rr.mParcel.writeString(data);
+        writeApdu(rr.mParcel, channel, cla, instruction, p1, p2, p3, data);
 
-        if (RILJ_LOGD)
+        if (RILJ_LOG_TEXT)
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
 
+    private static void writeApdu(Parcel p, int channel, int cla, int instruction,
+            int p1, int p2, int p3, String data) {
+        p.writeInt(channel);
+        p.writeInt(cla);
+        p.writeInt(instruction);
+        p.writeInt(p1);
+        p.writeInt(p2);
+        p.writeInt(p3);
+        p.writeString(data);
+    }
+
     @Override
     public void nvReadItem(int itemID, Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_NV_READ_ITEM, response);
 
         rr.mParcel.writeInt(itemID);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + itemID);
 
         send(rr);
@@ -4845,7 +6408,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(itemID);
         rr.mParcel.writeString(itemValue);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + itemID + ": " + itemValue);
 
         send(rr);
@@ -4857,7 +6420,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
 
         rr.mParcel.writeByteArray(preferredRoamingList);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + " (" + preferredRoamingList.length + " bytes)");
 
         send(rr);
@@ -4870,7 +6433,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(resetType);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                 + ' ' + resetType);
 
         send(rr);
@@ -4888,7 +6451,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeString(rc.getLogicalModemUuid());
         rr.mParcel.writeInt(rc.getStatus());
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest)
                     + " " + rc.toString());
         }
@@ -4901,7 +6464,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr = RILRequest.obtain(
                 RIL_REQUEST_GET_RADIO_CAPABILITY, response);
 
-        if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
+        if (RILJ_LOG_TEXT) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
     }
@@ -4914,7 +6477,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
         rr.mParcel.writeInt(reportIntervalMs);
         rr.mParcel.writeInt(pullMode ? 1: 0);  // PULL mode: 1; PUSH mode: 0;
 
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
 
@@ -4924,7 +6487,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void stopLceService(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_STOP_LCE, response);
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
@@ -4933,7 +6496,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     @Override
     public void pullLceData(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_PULL_LCEDATA, response);
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
@@ -4944,7 +6507,7 @@ public final class RIL extends BaseCommands implements CommandsInterface {
     */
     public void getModemActivityInfo(Message response) {
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_GET_ACTIVITY_INFO, response);
-        if (RILJ_LOGD) {
+        if (RILJ_LOG_TEXT) {
             riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
         }
         send(rr);
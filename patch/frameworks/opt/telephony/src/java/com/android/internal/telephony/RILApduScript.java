@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+import com.android.internal.telephony.uicc.IccIoResult;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A script of APDUs sent through RIL on one logical channel as a
+ * pipeline.
+ *
+ * Up to a window of APDUs are in flight at a time; rild answers them in
+ * order. Once an APDU fails, either with a CommandException or with an
+ * error status word, no further APDUs are sent. A status word is an error
+ * unless SW1 is 0x90, 0x91, 0x9e or 0x9f (see IccIoResult.success()), 0x61
+ * (more data available) or 0x62 / 0x63 (warnings).
+ *
+ * Pipelining hazard: with a window above 1, the APDUs sent after the one
+ * that fails have already run on the card by the time its status word
+ * arrives. They still complete and are reported, but the script hasn't
+ * stopped where it failed, which matters for scripts that change the
+ * card, eg applet provisioning. The window defaults to 1 for that reason.
+ * Besides, pipelining stops for the rest of the script at the first status
+ * word other than 9000, so that eg the APDU following a 61xx, typically a
+ * GET RESPONSE, is only sent once the 61xx is in.
+ *
+ * The Listener runs once, with every response at hand, on the Executor
+ * given to RIL.iccTransmitApduScript(). Without one it runs on the
+ * RILReceiver thread, or on the calling thread if the script fails without
+ * reaching rild. Exceptions it throws are logged.
+ *
+ * {@hide}
+ */
+public class RILApduScript {
+    public interface Listener {
+        /**
+         * Called once every APDU sent was answered.
+         */
+        void onScriptComplete(RILApduScript script);
+    }
+
+    /**
+     * One command APDU, as for CommandsInterface.iccTransmitApduLogicalChannel().
+     */
+    public static final class Apdu {
+        public final int cla;
+        public final int instruction;
+        public final int p1;
+        public final int p2;
+        public final int p3;
+        public final String data;
+
+        public Apdu(int cla, int instruction, int p1, int p2, int p3, String data) {
+            this.cla = cla;
+            this.instruction = instruction;
+            this.p1 = p1;
+            this.p2 = p2;
+            this.p3 = p3;
+            this.data = data;
+        }
+    }
+
+    private final RIL mRil;
+    private final int mChannel;
+    private final Apdu[] mApdus;
+    private final int mWindow;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    private final IccIoResult[] mResponses;
+    private final Throwable[] mErrors;
+    private final long[] mIssueNanos;
+    private final long[] mApduNanos;
+
+    // Next APDU not issued yet
+    private int mNext;
+    private int mInFlight;
+    // First APDU that failed, or -1
+    private int mFailed = -1;
+    // Cleared at the first status word other than 9000, from then on one
+    // APDU is in flight at a time
+    private boolean mPipelining = true;
+    private long mStartNanos;
+    private long mEndNanos;
+    private boolean mComplete;
+
+    RILApduScript(RIL ril, int channel, Apdu[] apdus, int window,
+            Executor executor, Listener listener) {
+        if (channel <= 0) {
+            throw new IllegalArgumentException("Invalid channel " + channel);
+        }
+        mRil = ril;
+        mChannel = channel;
+        mApdus = apdus;
+        mWindow = Math.max(window, 1);
+        mExecutor = executor;
+        mListener = listener;
+        mResponses = new IccIoResult[apdus.length];
+        mErrors = new Throwable[apdus.length];
+        mIssueNanos = new long[apdus.length];
+        mApduNanos = new long[apdus.length];
+    }
+
+    public int getChannel() {
+        return mChannel;
+    }
+
+    public int getApduCount() {
+        return mApdus.length;
+    }
+
+    public synchronized boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * @return whether every APDU was sent and succeeded.
+     */
+    public synchronized boolean isSuccessful() {
+        return mComplete && mFailed < 0;
+    }
+
+    /**
+     * @return index of the first APDU that failed, or -1.
+     */
+    public synchronized int getFailedIndex() {
+        return mFailed;
+    }
+
+    /**
+     * @return the response to each APDU, null for those not answered with
+     * a response. The array is only valid once the script is complete.
+     */
+    public IccIoResult[] getResponses() {
+        return mResponses;
+    }
+
+    /**
+     * @return the exception each APDU failed with, null for those that
+     * got a response or weren't sent.
+     */
+    public Throwable[] getErrors() {
+        return mErrors;
+    }
+
+    /**
+     * @return microseconds from sending each APDU to its response, 0 for
+     * those not sent.
+     */
+    public synchronized long[] getApduMicros() {
+        long[] micros = new long[mApduNanos.length];
+        for (int i = 0; i < micros.length; i++) {
+            micros[i] = mApduNanos[i] / 1000;
+        }
+        return micros;
+    }
+
+    /**
+     * @return milliseconds from start to the last response, or until now
+     * while APDUs are outstanding.
+     */
+    public synchronized long getElapsedMillis() {
+        long end = mComplete ? mEndNanos : SystemClock.elapsedRealtimeNanos();
+        return (end - mStartNanos) / 1000000;
+    }
+
+    void start() {
+        synchronized (this) {
+            mStartNanos = SystemClock.elapsedRealtimeNanos();
+        }
+        issue();
+        if (mApdus.length == 0) {
+            finish();
+        }
+    }
+
+    /**
+     * Sends APDUs until the window is full.
+     */
+    private void issue() {
+        for (;;) {
+            final int index;
+
+            synchronized (this) {
+                if (mInFlight >= (mPipelining ? mWindow : 1)
+                        || mFailed >= 0 || mNext >= mApdus.length) {
+                    return;
+                }
+                index = mNext++;
+                mInFlight++;
+                mIssueNanos[index] = SystemClock.elapsedRealtimeNanos();
+            }
+
+            mRil.transmitApdu(mChannel, mApdus[index], new RILFuture.Callback<IccIoResult>() {
+                @Override
+                public void onComplete(IccIoResult response, Throwable error) {
+                    onApduComplete(index, response, error);
+                }
+            });
+        }
+    }
+
+    private void onApduComplete(int index, IccIoResult response, Throwable error) {
+        boolean done;
+
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            mInFlight--;
+            mApduNanos[index] = now - mIssueNanos[index];
+            mResponses[index] = response;
+            mErrors[index] = error;
+            if ((error != null || isError(response)) && (mFailed < 0 || index < mFailed)) {
+                mFailed = index;
+            }
+            if (error != null || response == null
+                    || response.sw1 != 0x90 || response.sw2 != 0x00) {
+                mPipelining = false;
+            }
+            done = mInFlight == 0 && (mFailed >= 0 || mNext >= mApdus.length);
+            if (done) {
+                mEndNanos = now;
+            }
+        }
+
+        if (done) {
+            finish();
+        } else {
+            issue();
+        }
+    }
+
+    private void finish() {
+        synchronized (this) {
+            mComplete = true;
+            if (mApdus.length == 0) {
+                mEndNanos = mStartNanos;
+            }
+        }
+        mRil.apduScriptComplete(this);
+        if (mListener == null) {
+            return;
+        }
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onScriptComplete(RILApduScript.this);
+            }
+        });
+    }
+
+    /**
+     * Runs a Listener call on the Executor, or right here. Nothing the
+     * Listener throws gets any further, the caller may be RILReceiver.
+     */
+    private void dispatch(final Runnable r) {
+        Runnable guarded = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    r.run();
+                } catch (RuntimeException ex) {
+                    Rlog.e(RIL.RILJ_LOG_TAG, "RILApduScript listener threw", ex);
+                }
+            }
+        };
+        if (mExecutor != null) {
+            mExecutor.execute(guarded);
+        } else {
+            guarded.run();
+        }
+    }
+
+    private static boolean isError(IccIoResult response) {
+        if (response == null) {
+            return true;
+        }
+        if (response.success()) {
+            return false;
+        }
+        switch (response.sw1) {
+            case 0x61:
+            case 0x62:
+            case 0x63:
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Parcel;
+import android.telephony.CellInfo;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Decodes RIL cell info lists against the previous list it returned.
+ *
+ * Each record is read as raw words first: type, registered, the cell
+ * identity and the signal strength, with the time stamp kept aside. Only
+ * records that differ from the matching cell of the previous list go
+ * through CellInfo.CREATOR; a cell identical down to its time stamp reuses
+ * the previous CellInfo. Instances are therefore shared between successive
+ * lists. They are never modified once returned, as their receivers may be
+ * reading them on other threads.
+ *
+ * Every list is returned, changed or not: rild's own rate limit is the
+ * only filter. There is no delta below which changes go unreported:
+ * Sony's rild never sends RIL_UNSOL_CELL_INFO_LIST (its 1036 is the IMS
+ * network state change), and SonyRIL.isRequestSupported() keeps
+ * RIL_REQUEST_GET_CELL_INFO_LIST from it, so one could never be tuned on
+ * this device.
+ *
+ * Records of a type whose layout isn't known here are decoded in full.
+ * Only used on the RILReceiver thread.
+ *
+ * {@hide}
+ */
+class RILCellInfoDecoder {
+    // Record types, CellInfo's own are not visible here
+    private static final int TYPE_GSM = 1;
+    private static final int TYPE_CDMA = 2;
+    private static final int TYPE_LTE = 3;
+    private static final int TYPE_WCDMA = 4;
+
+    // Words preceding the identity: type and registered
+    private static final int HEADER_WORDS = 2;
+
+    // The previous list and its records' words
+    private CellInfo[] mCells = new CellInfo[0];
+    private int[][] mWords = new int[0][];
+    private int[] mTimeStampTypes = new int[0];
+    private long[] mTimeStamps = new long[0];
+
+    private long mLists;
+    private long mCellsBuilt;
+    private long mCellsReused;
+    private long mFullDecodes;
+
+    ArrayList<CellInfo> decode(Parcel p) {
+        mLists++;
+
+        int start = p.dataPosition();
+        int count = p.readInt();
+        int[][] words = new int[Math.max(count, 0)][];
+        int[] offsets = new int[words.length];
+        int[] timeStampTypes = new int[words.length];
+        long[] timeStamps = new long[words.length];
+
+        for (int i = 0; i < count; i++) {
+            offsets[i] = p.dataPosition();
+            int type = p.readInt();
+            int identityWords = identityWords(type);
+            if (identityWords < 0) {
+                p.setDataPosition(start);
+                return decodeAll(p);
+            }
+
+            int[] w = new int[HEADER_WORDS + identityWords + signalWords(type)];
+            w[0] = type;
+            w[1] = p.readInt();
+            timeStampTypes[i] = p.readInt();
+            timeStamps[i] = p.readLong();
+            for (int j = HEADER_WORDS; j < w.length; j++) {
+                w[j] = p.readInt();
+            }
+            words[i] = w;
+        }
+        int end = p.dataPosition();
+
+        CellInfo[] cells = new CellInfo[words.length];
+        for (int i = 0; i < words.length; i++) {
+            int m = findCell(words[i], i);
+            if (m >= 0 && Arrays.equals(words[i], mWords[m])
+                    && timeStampTypes[i] == mTimeStampTypes[m]
+                    && timeStamps[i] == mTimeStamps[m]) {
+                cells[i] = mCells[m];
+                mCellsReused++;
+            } else {
+                p.setDataPosition(offsets[i]);
+                cells[i] = CellInfo.CREATOR.createFromParcel(p);
+                mCellsBuilt++;
+            }
+        }
+        p.setDataPosition(end);
+
+        mCells = cells;
+        mWords = words;
+        mTimeStampTypes = timeStampTypes;
+        mTimeStamps = timeStamps;
+        return new ArrayList<CellInfo>(Arrays.asList(cells));
+    }
+
+    /**
+     * Forgets the previous list, eg after rild restarted.
+     */
+    void reset() {
+        mCells = new CellInfo[0];
+        mWords = new int[0][];
+        mTimeStampTypes = new int[0];
+        mTimeStamps = new long[0];
+    }
+
+    void dump(PrintWriter pw, String name) {
+        pw.println(" " + name + " lists=" + mLists
+                + " cellsBuilt=" + mCellsBuilt
+                + " cellsReused=" + mCellsReused
+                + " fullDecodes=" + mFullDecodes);
+    }
+
+    private ArrayList<CellInfo> decodeAll(Parcel p) {
+        mFullDecodes++;
+
+        int count = p.readInt();
+        ArrayList<CellInfo> response = new ArrayList<CellInfo>(count);
+        for (int i = 0; i < count; i++) {
+            response.add(CellInfo.CREATOR.createFromParcel(p));
+        }
+
+        // Can't compare against this list, so nothing is reused from it
+        reset();
+        return response;
+    }
+
+    /**
+     * @return the index of the previous cell with the same type and
+     * identity as w, preferring the one at the same position.
+     */
+    private int findCell(int[] w, int position) {
+        if (position < mWords.length && sameCell(w, mWords[position])) {
+            return position;
+        }
+        for (int i = 0; i < mWords.length; i++) {
+            if (sameCell(w, mWords[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameCell(int[] a, int[] b) {
+        if (a[0] != b[0]) {
+            return false;
+        }
+        for (int i = HEADER_WORDS, end = HEADER_WORDS + identityWords(a[0]); i < end; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Record layouts as CellInfo.CREATOR reads them
+
+    private static int identityWords(int type) {
+        switch (type) {
+            case TYPE_GSM:
+                return 4; // mcc, mnc, lac, cid
+            case TYPE_CDMA:
+                return 5; // network id, system id, base station id, longitude, latitude
+            case TYPE_LTE:
+                return 5; // mcc, mnc, ci, pci, tac
+            case TYPE_WCDMA:
+                return 5; // mcc, mnc, lac, cid, psc
+        }
+        return -1;
+    }
+
+    private static int signalWords(int type) {
+        switch (type) {
+            case TYPE_GSM:
+                return 2; // signal strength, bit error rate
+            case TYPE_CDMA:
+                return 5; // cdma dbm, cdma ecio, evdo dbm, evdo ecio, evdo snr
+            case TYPE_LTE:
+                return 6; // signal strength, rsrp, rsrq, rssnr, cqi, timing advance
+            case TYPE_WCDMA:
+                return 2; // signal strength, bit error rate
+        }
+        return -1;
+    }
+}
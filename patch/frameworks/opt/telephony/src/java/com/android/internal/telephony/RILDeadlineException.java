@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+/**
+ * The exception a read-only query completes with when rild didn't answer
+ * it by its RILDeadlineWheel deadline.
+ *
+ * rild never reported an error, so this isn't GENERIC_FAILURE: its error
+ * is INVALID_RESPONSE, the one CommandException already has for a query
+ * without a usable answer. Callers that need to tell a timeout apart
+ * check for this class.
+ *
+ * {@hide}
+ */
+public class RILDeadlineException extends CommandException {
+    private final int mRequest;
+    private final long mDeadlineMillis;
+
+    RILDeadlineException(int request, long deadlineMillis) {
+        super(Error.INVALID_RESPONSE);
+        mRequest = request;
+        mDeadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @return the RIL_REQUEST_* that timed out.
+     */
+    public int getRequest() {
+        return mRequest;
+    }
+
+    /**
+     * @return how long rild had to answer.
+     */
+    public long getDeadlineMillis() {
+        return mDeadlineMillis;
+    }
+
+    @Override
+    public String getMessage() {
+        return "deadline expired: no response to " + RIL.requestToString(mRequest)
+                + " after " + mDeadlineMillis + "ms";
+    }
+}
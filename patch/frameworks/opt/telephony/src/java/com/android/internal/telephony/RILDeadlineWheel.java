@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.telephony.Rlog;
+import android.util.SparseIntArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Deadlines of the requests waiting on rild, in a hashed timer wheel.
+ *
+ * Only read-only queries, see mayExpire(), get a deadline, by their
+ * RIL_REQUEST_* code, when they are written to rild; failing them when rild
+ * is slow loses nothing. Everything else waits for its response however
+ * late it comes, so that eg an SMS rild did send is never reported failed
+ * and sent again.
+ *
+ * Deadlines are rounded up to TICK_MILLIS and the request is linked into
+ * slot (tick % SLOTS) through its own mDeadlineNext and mDeadlinePrev, so
+ * scheduling and cancelling are constant time and allocate nothing.
+ * Deadlines further out than one revolution share slots with nearer ones
+ * and are skipped until their tick comes. expire() only visits the slots
+ * of the ticks since it last ran, and the slots up to the next deadline.
+ *
+ * The owner keeps a single timer, for the earliest deadline, and calls
+ * expire() when it fires. Times are SystemClock.uptimeMillis().
+ *
+ * {@hide}
+ */
+class RILDeadlineWheel {
+    static final long TICK_MILLIS = 500;
+    private static final int SLOTS = 128;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final long IDLE = Long.MAX_VALUE;
+
+    private final RILRequest[] mSlots = new RILRequest[SLOTS];
+    // Deadlines by request code, absent or 0 for none
+    private final SparseIntArray mMillisByRequest;
+
+    private int mCount;
+    // Tick the owner's timer is set for, IDLE if none
+    private long mWakeTick = IDLE;
+    // Last tick expire() handled, -1 before the first call
+    private long mLastTick = -1;
+
+    private long mScheduled;
+    private long mExpired;
+
+    /**
+     * @param overrides comma separated &lt;request code&gt;:&lt;millis&gt;
+     * pairs, on top of the built in ones. Requests mayExpire() turns down
+     * are ignored.
+     */
+    RILDeadlineWheel(String overrides) {
+        mMillisByRequest = new SparseIntArray();
+
+        // Network scans may legitimately take minutes
+        mMillisByRequest.put(RIL_REQUEST_QUERY_AVAILABLE_NETWORKS, 180 * 1000);
+        // Polled state the modem answers from memory
+        mMillisByRequest.put(RIL_REQUEST_GET_CURRENT_CALLS, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_SIGNAL_STRENGTH, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_VOICE_REGISTRATION_STATE, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_DATA_REGISTRATION_STATE, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_OPERATOR, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_VOICE_RADIO_TECH, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_GET_CELL_INFO_LIST, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_GET_NEIGHBORING_CELL_IDS, 15 * 1000);
+        mMillisByRequest.put(RIL_REQUEST_BASEBAND_VERSION, 15 * 1000);
+
+        if (overrides != null && overrides.length() > 0) {
+            for (String pair : overrides.split(",")) {
+                int colon = pair.indexOf(':');
+                try {
+                    int request = Integer.parseInt(pair.substring(0, colon).trim());
+                    int millis = Integer.parseInt(pair.substring(colon + 1).trim());
+                    if (mayExpire(request)) {
+                        mMillisByRequest.put(request, millis);
+                    } else {
+                        Rlog.w(RIL.RILJ_LOG_TAG, "Ignoring deadline of "
+                                + RIL.requestToString(request) + ", not a read-only query");
+                    }
+                } catch (RuntimeException ex) {
+                    Rlog.w(RIL.RILJ_LOG_TAG, "Ignoring malformed request deadline '" + pair + "'");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether request may be failed for want of a response: a
+     * read-only query, which the caller can simply ask again.
+     */
+    static boolean mayExpire(int request) {
+        return RIL.isIdempotent(request) || request == RIL_REQUEST_QUERY_AVAILABLE_NETWORKS;
+    }
+
+    /**
+     * @return the deadline of request in milliseconds, 0 for none.
+     */
+    int deadlineMillis(int request) {
+        return mMillisByRequest.get(request, 0);
+    }
+
+    /**
+     * Schedules rr's deadline. rr must not be scheduled already.
+     *
+     * @return the uptime the owner's timer must be moved to, or -1 if it
+     * is set early enough.
+     */
+    synchronized long add(RILRequest rr, long now) {
+        int millis = deadlineMillis(rr.mRequest);
+        if (millis <= 0) {
+            return -1;
+        }
+
+        long tick = (now + millis + TICK_MILLIS - 1) / TICK_MILLIS;
+        int slot = (int) (tick & SLOT_MASK);
+
+        rr.mDeadlineTick = tick;
+        rr.mDeadlinePrev = null;
+        rr.mDeadlineNext = mSlots[slot];
+        if (rr.mDeadlineNext != null) {
+            rr.mDeadlineNext.mDeadlinePrev = rr;
+        }
+        mSlots[slot] = rr;
+        mCount++;
+        mScheduled++;
+
+        if (tick < mWakeTick) {
+            mWakeTick = tick;
+            return tick * TICK_MILLIS;
+        }
+        return -1;
+    }
+
+    /**
+     * Unschedules rr, if it is scheduled. Called whenever rr leaves the
+     * request list, before it can go back to the pool.
+     */
+    synchronized void cancel(RILRequest rr) {
+        if (rr.mDeadlineTick != 0) {
+            unlink(rr);
+        }
+    }
+
+    /**
+     * Unschedules every request due by now and adds it to expired.
+     *
+     * @return the uptime to call expire() again at, or -1 if nothing is
+     * scheduled anymore.
+     */
+    synchronized long expire(long now, ArrayList<RILRequest> expired) {
+        long nowTick = now / TICK_MILLIS;
+        long next = IDLE;
+
+        // The slots of the ticks passed since the last call, each once
+        long first = mLastTick < 0 || nowTick - mLastTick > SLOTS
+                ? nowTick - SLOTS + 1 : mLastTick + 1;
+        for (long tick = first; tick <= nowTick && mCount > 0; tick++) {
+            RILRequest rr = mSlots[(int) (tick & SLOT_MASK)];
+            while (rr != null) {
+                RILRequest following = rr.mDeadlineNext;
+                if (rr.mDeadlineTick <= nowTick) {
+                    unlink(rr);
+                    expired.add(rr);
+                    mExpired++;
+                }
+                rr = following;
+            }
+        }
+        mLastTick = Math.max(mLastTick, nowTick);
+
+        // The next deadline is the first slot ahead holding one due in this
+        // revolution. Failing that, the earliest of the later revolutions.
+        for (long tick = nowTick + 1; tick <= nowTick + SLOTS && mCount > 0; tick++) {
+            for (RILRequest rr = mSlots[(int) (tick & SLOT_MASK)]; rr != null;
+                    rr = rr.mDeadlineNext) {
+                if (rr.mDeadlineTick < next) {
+                    next = rr.mDeadlineTick;
+                }
+            }
+            if (next <= tick) {
+                break;
+            }
+        }
+
+        mWakeTick = next;
+        return next == IDLE ? -1 : next * TICK_MILLIS;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(" request deadlines pending=").append(mCount)
+                .append(" scheduled=").append(mScheduled)
+                .append(" expired=").append(mExpired)
+                .append(" deadlines={");
+        for (int i = 0; i < mMillisByRequest.size(); i++) {
+            sb.append(i > 0 ? ", " : "")
+                    .append(RIL.requestToString(mMillisByRequest.keyAt(i)))
+                    .append('=').append(mMillisByRequest.valueAt(i));
+        }
+        pw.println(sb.append('}'));
+    }
+
+    private void unlink(RILRequest rr) {
+        if (rr.mDeadlinePrev != null) {
+            rr.mDeadlinePrev.mDeadlineNext = rr.mDeadlineNext;
+        } else {
+            mSlots[(int) (rr.mDeadlineTick & SLOT_MASK)] = rr.mDeadlineNext;
+        }
+        if (rr.mDeadlineNext != null) {
+            rr.mDeadlineNext.mDeadlinePrev = rr.mDeadlinePrev;
+        }
+        rr.mDeadlineNext = null;
+        rr.mDeadlinePrev = null;
+        rr.mDeadlineTick = 0;
+        mCount--;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * Fixed size ring of RIL events kept as plain ints, so recording an event
+ * allocates nothing and formats nothing. Events are only turned into text
+ * by {@link #dump}.
+ *
+ * {@hide}
+ */
+class RILEventLog {
+    // Request handed to send(); serial, no argument
+    static final int SEND = 1;
+    // Successful solicited response; serial, payload bytes
+    static final int RESPONSE = 2;
+    // Failed request, from rild or RILJ; serial, RIL_Errno
+    static final int ERROR = 3;
+    // Unsolicited response; no serial, payload bytes
+    static final int UNSOL = 4;
+
+    private static final String[] TYPE_NAMES = { "?", ">", "<", "<!", "[UNSL]<" };
+
+    private final int mMask;
+    private final long[] mTimes;
+    private final byte[] mTypes;
+    private final int[] mIds;
+    private final int[] mSerials;
+    private final int[] mArgs;
+    // Total events logged, the next one goes to mNext & mMask
+    private long mNext;
+
+    /**
+     * @param capacity events kept, rounded up to a power of two
+     */
+    RILEventLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mMask = size - 1;
+        mTimes = new long[size];
+        mTypes = new byte[size];
+        mIds = new int[size];
+        mSerials = new int[size];
+        mArgs = new int[size];
+    }
+
+    /**
+     * @param type one of SEND, RESPONSE, ERROR or UNSOL
+     * @param id RIL_REQUEST_* or RIL_UNSOL_*
+     */
+    synchronized void log(int type, int id, int serial, int arg) {
+        int i = (int) (mNext++ & mMask);
+        mTimes[i] = SystemClock.elapsedRealtime();
+        mTypes[i] = (byte) type;
+        mIds[i] = id;
+        mSerials[i] = serial;
+        mArgs[i] = arg;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        long count = Math.min(mNext, mMask + 1);
+        long now = SystemClock.elapsedRealtime();
+
+        pw.println(" RIL events (" + count + " of " + mNext + ", ms before now):");
+        StringBuilder sb = new StringBuilder();
+        for (long n = mNext - count; n < mNext; n++) {
+            int i = (int) (n & mMask);
+            int type = mTypes[i];
+
+            sb.setLength(0);
+            sb.append("  -").append(now - mTimes[i]).append(' ');
+            if (type == UNSOL) {
+                sb.append(TYPE_NAMES[type]).append(' ')
+                        .append(RIL.responseToString(mIds[i]))
+                        .append(" bytes=").append(mArgs[i]);
+            } else {
+                sb.append('[').append(mSerials[i]).append("] ").append(TYPE_NAMES[type])
+                        .append(' ').append(RIL.requestToString(mIds[i]));
+                if (type == RESPONSE) {
+                    sb.append(" bytes=").append(mArgs[i]);
+                } else if (type == ERROR) {
+                    sb.append(" error=").append(mArgs[i]);
+                }
+            }
+            pw.println(sb);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.IOException;
+
+/**
+ * Carries length-prefixed RIL frames between RILJ and rild.
+ *
+ * A frame is a 4-byte big-endian length followed by a marshalled Parcel.
+ * Writes happen on the RILSender thread and reads on the RILReceiver
+ * thread, so implementations must tolerate one writer and one reader
+ * running concurrently but need no further locking.
+ *
+ * {@hide}
+ */
+interface RILFrameTransport {
+    /**
+     * Writes one frame, header and payload, with a single write to the
+     * underlying stream.
+     *
+     * @param data marshalled parcel
+     * @param length number of valid bytes in <code>data</code>
+     * @throws IOException
+     */
+    void writeFrame(byte[] data, int length) throws IOException;
+
+    /**
+     * Appends one frame to the pending output without writing it. Pending
+     * frames are written by {@link #flush()}, or first thing here if the
+     * new frame does not fit behind them. If this throws, all pending
+     * frames are discarded.
+     *
+     * @param data marshalled parcel
+     * @param length number of valid bytes in <code>data</code>
+     * @return number of previously pending bytes written to make room,
+     * 0 if nothing was written.
+     * @throws IOException
+     */
+    int queueFrame(byte[] data, int length) throws IOException;
+
+    /**
+     * Writes all pending frames. If this throws, all pending frames are
+     * discarded.
+     *
+     * @return number of bytes written
+     * @throws IOException
+     */
+    int flush() throws IOException;
+
+    /**
+     * Reads the next frame. On success the payload (less header) is
+     * available in {@link #frameBuffer()} starting at {@link #frameOffset()}
+     * until the next call to readFrame.
+     *
+     * @return length of the payload, or -1 on end of stream.
+     * @throws IOException
+     */
+    int readFrame() throws IOException;
+
+    /** Buffer holding the payload of the last frame returned by readFrame. */
+    byte[] frameBuffer();
+
+    /** Offset of the payload of the last frame in {@link #frameBuffer()}. */
+    int frameOffset();
+
+    void close() throws IOException;
+}
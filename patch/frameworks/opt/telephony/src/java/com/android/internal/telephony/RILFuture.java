@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of a request sent through RIL's asynchronous API, completed
+ * straight from the RILReceiver thread without a Message or AsyncResult.
+ *
+ * The optional Callback runs once, on the Executor given when the request
+ * was sent. Without one it runs on the RILReceiver thread, or on the
+ * caller's thread, before the sending method returns, if the request fails
+ * without reaching rild; it must not block either way. An exception the
+ * Callback throws is logged and goes no further. A failed request
+ * completes with the
+ * CommandException rild answered with, or the exception that broke
+ * decoding the response.
+ *
+ * Cancelling takes the request out of RIL's request list if it has been
+ * sent to rild, and rild's eventual response is dropped.
+ *
+ * {@hide}
+ */
+public class RILFuture<T> implements Future<T> {
+    public interface Callback<T> {
+        /**
+         * @param result the response; on failure whatever rild sent along
+         * with the error, eg the SmsResponse of a failed SMS, or null
+         * @param error null on success
+         */
+        void onComplete(T result, Throwable error);
+    }
+
+    private static final int PENDING = 0;
+    private static final int DONE = 1;
+    private static final int CANCELLED = 2;
+
+    private final RIL mRil;
+    private final int mSerial;
+    private final Executor mExecutor;
+    private final Callback<? super T> mCallback;
+
+    private int mState = PENDING;
+    private T mResult;
+    private Throwable mError;
+
+    RILFuture(RIL ril, int serial, Executor executor, Callback<? super T> callback) {
+        mRil = ril;
+        mSerial = serial;
+        mExecutor = executor;
+        mCallback = callback;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mState = CANCELLED;
+            notifyAll();
+        }
+        mRil.cancelAsync(mSerial, this);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != PENDING;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (mState == PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mState == PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    /**
+     * Completes the future, unless it was cancelled, and runs the callback.
+     */
+    @SuppressWarnings("unchecked")
+    void complete(Object ret, Throwable ex) {
+        synchronized (this) {
+            if (mState != PENDING) {
+                return;
+            }
+            mState = DONE;
+            mResult = ex == null ? (T) ret : null;
+            mError = ex;
+            notifyAll();
+        }
+
+        if (mCallback == null) {
+            return;
+        }
+        final T result = (T) ret;
+        final Throwable error = ex;
+        if (mExecutor == null) {
+            runCallback(result, error);
+        } else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runCallback(result, error);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the callback so that nothing it throws reaches the completing
+     * thread, which may be RILReceiver.
+     */
+    private void runCallback(T result, Throwable error) {
+        try {
+            mCallback.onComplete(result, error);
+        } catch (RuntimeException ex) {
+            Rlog.e(RIL.RILJ_LOG_TAG, "RILFuture callback threw", ex);
+        }
+    }
+
+    private T result() throws ExecutionException {
+        if (mState == CANCELLED) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Per RIL_REQUEST_* latency histograms and error counters.
+ *
+ * Each completed request contributes three intervals: queued, from send()
+ * until RILSender picks it up; on wire, from then until the write carrying
+ * it to rild returned; and waiting, from then until rild answers or RILJ
+ * gives up on it. Intervals go into fixed log2 buckets of
+ * microseconds, bucket i counting [2^i, 2^(i+1)) us, so recording is a few
+ * increments and percentiles are exact to within a factor of two.
+ *
+ * {@hide}
+ */
+public class RILLatencyStats {
+    public static final int BUCKETS = 28; // last bucket holds 2^27 us (~2 min) and up
+
+    /**
+     * Counters for one request code. Snapshots are copies and are not
+     * updated after being handed out.
+     */
+    public static final class Entry {
+        public final int mRequest;
+        public long mCount;
+        public long mErrors;
+        public long mTotalMicros;
+        public long mMaxMicros;
+        public final long[] mQueuedBuckets = new long[BUCKETS];
+        public final long[] mOnWireBuckets = new long[BUCKETS];
+        public final long[] mWaitingBuckets = new long[BUCKETS];
+        // Error counts keyed by RIL_Errno
+        public final SparseArray<Long> mErrorsByErrno = new SparseArray<Long>();
+
+        Entry(int request) {
+            mRequest = request;
+        }
+
+        Entry copy() {
+            Entry e = new Entry(mRequest);
+            e.mCount = mCount;
+            e.mErrors = mErrors;
+            e.mTotalMicros = mTotalMicros;
+            e.mMaxMicros = mMaxMicros;
+            System.arraycopy(mQueuedBuckets, 0, e.mQueuedBuckets, 0, BUCKETS);
+            System.arraycopy(mOnWireBuckets, 0, e.mOnWireBuckets, 0, BUCKETS);
+            System.arraycopy(mWaitingBuckets, 0, e.mWaitingBuckets, 0, BUCKETS);
+            for (int i = 0; i < mErrorsByErrno.size(); i++) {
+                e.mErrorsByErrno.put(mErrorsByErrno.keyAt(i), mErrorsByErrno.valueAt(i));
+            }
+            return e;
+        }
+    }
+
+    // Indexed by request code, grown on demand
+    private Entry[] mEntries = new Entry[0];
+
+    /**
+     * @param queuedNanos time spent waiting for RILSender
+     * @param onWireNanos time from RILSender until written to rild
+     * @param waitingNanos time from written to completion
+     * @param error RIL_Errno the request completed with, 0 on success
+     */
+    synchronized void record(int request, long queuedNanos, long onWireNanos,
+            long waitingNanos, int error) {
+        if (request < 0) {
+            return;
+        }
+        if (request >= mEntries.length) {
+            mEntries = Arrays.copyOf(mEntries, request + 1);
+        }
+        Entry e = mEntries[request];
+        if (e == null) {
+            e = new Entry(request);
+            mEntries[request] = e;
+        }
+
+        long queuedMicros = Math.max(queuedNanos / 1000, 0);
+        long onWireMicros = Math.max(onWireNanos / 1000, 0);
+        long waitingMicros = Math.max(waitingNanos / 1000, 0);
+        long totalMicros = queuedMicros + onWireMicros + waitingMicros;
+
+        e.mCount++;
+        e.mTotalMicros += totalMicros;
+        if (totalMicros > e.mMaxMicros) {
+            e.mMaxMicros = totalMicros;
+        }
+        e.mQueuedBuckets[bucket(queuedMicros)]++;
+        e.mOnWireBuckets[bucket(onWireMicros)]++;
+        e.mWaitingBuckets[bucket(waitingMicros)]++;
+
+        if (error != 0) {
+            e.mErrors++;
+            Long count = e.mErrorsByErrno.get(error);
+            e.mErrorsByErrno.put(error, count == null ? 1L : count + 1);
+        }
+    }
+
+    /**
+     * @return a copy of the counters of every request code seen so far.
+     */
+    public synchronized ArrayList<Entry> snapshot() {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for (Entry e : mEntries) {
+            if (e != null) {
+                entries.add(e.copy());
+            }
+        }
+        return entries;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println(" RIL request latency (ms, percentiles are bucket upper bounds):");
+        for (Entry e : snapshot()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("  ").append(RIL.requestToString(e.mRequest))
+                    .append(" n=").append(e.mCount)
+                    .append(" mean=").append(millis(e.mTotalMicros / e.mCount))
+                    .append(" max=").append(millis(e.mMaxMicros));
+            appendPercentiles(sb, "queued", e.mQueuedBuckets, e.mCount);
+            appendPercentiles(sb, "wire", e.mOnWireBuckets, e.mCount);
+            appendPercentiles(sb, "waiting", e.mWaitingBuckets, e.mCount);
+            if (e.mErrors > 0) {
+                sb.append(" errors=").append(e.mErrors).append(" {");
+                for (int i = 0; i < e.mErrorsByErrno.size(); i++) {
+                    int errno = e.mErrorsByErrno.keyAt(i);
+                    CommandException ex = CommandException.fromRilErrno(errno);
+                    sb.append(i > 0 ? ", " : "")
+                            .append(ex != null ? ex.getCommandError() : errno)
+                            .append('=').append(e.mErrorsByErrno.valueAt(i));
+                }
+                sb.append('}');
+            }
+            pw.println(sb);
+        }
+    }
+
+    private static void appendPercentiles(StringBuilder sb, String name, long[] buckets,
+            long count) {
+        sb.append(' ').append(name).append(" p50/p90/p99=")
+                .append(millis(percentile(buckets, count, 50))).append('/')
+                .append(millis(percentile(buckets, count, 90))).append('/')
+                .append(millis(percentile(buckets, count, 99)));
+    }
+
+    private static int bucket(long micros) {
+        int b = 63 - Long.numberOfLeadingZeros(micros);
+        return b < 0 ? 0 : (b >= BUCKETS ? BUCKETS - 1 : b);
+    }
+
+    /**
+     * @return upper bound in microseconds of the bucket holding the given
+     * percentile.
+     */
+    private static long percentile(long[] buckets, long count, int percent) {
+        long rank = (count * percent + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKETS;
+    }
+
+    private static String millis(long micros) {
+        return (micros / 1000) + "." + ((micros % 1000) / 100);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.AsyncResult;
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Single-flight de-duplication and an optional TTL cache for idempotent
+ * RIL queries.
+ *
+ * A query identical to one still waiting on rild doesn't go to rild
+ * again; its Message is answered together with the first one's. With a
+ * TTL, successful results are also kept that long and answer later
+ * identical queries straight away. Cached results are dropped on the
+ * unsolicited responses that may change them, and results of a flight
+ * that overlapped such an invalidation are not cached.
+ *
+ * {@hide}
+ */
+class RILQueryCache {
+    /**
+     * A query on its way to rild and the Messages waiting for its result
+     * besides the RILRequest's own.
+     */
+    final class Flight {
+        final String mKey;
+        final int mGeneration;
+        final ArrayList<Message> mWaiters = new ArrayList<Message>();
+
+        Flight(String key, int generation) {
+            mKey = key;
+            mGeneration = generation;
+        }
+
+        /**
+         * Answers every waiter. Called once, with the result the RILRequest's
+         * own Message received.
+         */
+        void complete(Object ret, Throwable ex) {
+            synchronized (RILQueryCache.this) {
+                if (mFlights.get(mKey) == this) {
+                    mFlights.remove(mKey);
+                }
+                if (ex == null && mTtlMillis > 0 && mGeneration == mInvalidations) {
+                    mResults.put(mKey, new Result(copyOf(ret), SystemClock.elapsedRealtime()));
+                }
+            }
+
+            for (Message waiter : mWaiters) {
+                AsyncResult.forMessage(waiter, copyOf(ret), ex);
+                waiter.sendToTarget();
+            }
+        }
+    }
+
+    private static final class Result {
+        final Object mValue;
+        final long mTime;
+
+        Result(Object value, long time) {
+            mValue = value;
+            mTime = time;
+        }
+    }
+
+    private final long mTtlMillis;
+    private final HashMap<String, Flight> mFlights = new HashMap<String, Flight>();
+    private final HashMap<String, Result> mResults = new HashMap<String, Result>();
+    // Bumped by every invalidation
+    private int mInvalidations;
+
+    private long mJoined;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param ttlMillis how long results are cached, 0 for single-flight only
+     */
+    RILQueryCache(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Answers <code>result</code> from the cache, or queues it behind an
+     * identical query in flight. Otherwise the query must go to rild, and
+     * a new Flight is registered for it.
+     *
+     * @param arg distinguishes queries with the same request code, or null
+     * @return the Flight to attach to the query sent to rild, or null if
+     * result has been taken care of.
+     */
+    Flight begin(int request, String arg, Message result) {
+        String key = key(request, arg);
+        Result cached;
+
+        synchronized (this) {
+            cached = mResults.get(key);
+            if (cached != null
+                    && SystemClock.elapsedRealtime() - cached.mTime >= mTtlMillis) {
+                mResults.remove(key);
+                cached = null;
+            }
+
+            if (cached == null) {
+                Flight flight = mFlights.get(key);
+                // A flight started before an invalidation may bring back
+                // what the invalidation was about; don't join it
+                if (flight != null && flight.mGeneration == mInvalidations) {
+                    flight.mWaiters.add(result);
+                    mJoined++;
+                    return null;
+                }
+                mMisses++;
+                flight = new Flight(key, mInvalidations);
+                mFlights.put(key, flight);
+                return flight;
+            }
+            mHits++;
+        }
+
+        AsyncResult.forMessage(result, copyOf(cached.mValue), null);
+        result.sendToTarget();
+        return null;
+    }
+
+    synchronized void invalidate() {
+        mInvalidations++;
+        mResults.clear();
+    }
+
+    synchronized void invalidate(int request) {
+        mInvalidations++;
+        String bare = key(request, null);
+        String prefix = bare + ":";
+        for (Iterator<String> it = mResults.keySet().iterator(); it.hasNext(); ) {
+            String key = it.next();
+            if (key.equals(bare) || key.startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached results an unsolicited response may have changed.
+     */
+    void onUnsolicited(int response) {
+        switch (response) {
+            case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED:
+                invalidate();
+                break;
+            case RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED:
+                invalidate(RIL_REQUEST_GET_IMSI);
+                invalidate(RIL_REQUEST_GET_SMSC_ADDRESS);
+                break;
+            case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED:
+                invalidate(RIL_REQUEST_OPERATOR);
+                invalidate(RIL_REQUEST_VOICE_RADIO_TECH);
+                invalidate(RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE);
+                break;
+            case RIL_UNSOL_VOICE_RADIO_TECH_CHANGED:
+                invalidate(RIL_REQUEST_VOICE_RADIO_TECH);
+                break;
+        }
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(" query cache ttlMs=" + mTtlMillis
+                + " hits=" + mHits
+                + " joined=" + mJoined
+                + " misses=" + mMisses
+                + " inFlight=" + mFlights.size()
+                + " cached=" + mResults.size());
+    }
+
+    /**
+     * A null arg and an empty one give different keys.
+     */
+    private static String key(int request, String arg) {
+        return arg == null ? Integer.toString(request) : request + ":" + arg;
+    }
+
+    /**
+     * Each Message gets its own copy of mutable results.
+     */
+    private static Object copyOf(Object ret) {
+        if (ret instanceof String[]) {
+            return ((String[]) ret).clone();
+        } else if (ret instanceof int[]) {
+            return ((int[]) ret).clone();
+        }
+        return ret;
+    }
+}
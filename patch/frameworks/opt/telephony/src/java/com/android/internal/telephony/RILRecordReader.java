@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+import com.android.internal.telephony.uicc.IccIoResult;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Reads a range of records of a linear fixed or cyclic EF through RIL,
+ * with a window of READ RECORD requests in flight.
+ *
+ * If the record size or the number of records isn't given, the EF's
+ * GET RESPONSE is read first to learn them, the way IccFileHandler does.
+ * Records are handed to the Listener as they arrive, completing straight
+ * from the RILReceiver thread rather than through a Message per record.
+ * The first record that fails, with a CommandException or a status word
+ * IccIoResult.success() rejects, ends the read: no further records are
+ * requested, those in flight are still reported.
+ *
+ * The Listener runs on the Executor given to RIL.iccReadRecords(). Without
+ * one it runs on the RILReceiver thread, or on the calling thread for
+ * records that fail without reaching rild. Exceptions it throws are
+ * logged.
+ *
+ * {@hide}
+ */
+public class RILRecordReader {
+    public interface Listener {
+        /**
+         * Called once per record requested, when it was read or failed.
+         *
+         * @param record number of the record, starting at 1
+         * @param data the record, or null if it failed
+         * @param error null unless reading the record failed with an
+         * exception
+         */
+        void onRecord(RILRecordReader reader, int record, byte[] data, Throwable error);
+
+        /**
+         * Called once every record requested was reported, or the
+         * GET RESPONSE failed.
+         */
+        void onReadComplete(RILRecordReader reader);
+    }
+
+    // TS 51.011 9.2, the values IccFileHandler uses
+    static final int COMMAND_READ_RECORD = 0xb2;
+    static final int COMMAND_GET_RESPONSE = 0xc0;
+    static final int READ_RECORD_MODE_ABSOLUTE = 4;
+    static final int GET_RESPONSE_EF_SIZE_BYTES = 15;
+    // Offsets into the GET RESPONSE data
+    private static final int RESPONSE_DATA_FILE_SIZE_1 = 2;
+    private static final int RESPONSE_DATA_FILE_SIZE_2 = 3;
+    private static final int RESPONSE_DATA_RECORD_LENGTH = 14;
+
+    private final RIL mRil;
+    private final int mFileId;
+    private final String mPath;
+    private final String mAid;
+    private final int mWindow;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    private int mFirst;
+    private int mLast;
+    private int mRecordSize;
+
+    // Next record not requested yet
+    private int mNext;
+    private int mInFlight;
+    private boolean mStopped;
+    private boolean mComplete;
+
+    private int mRead;
+    private int mFailed;
+    private long mStartNanos;
+    private long mFirstRecordNanos;
+    private long mEndNanos;
+
+    /**
+     * @param last last record to read, or -1 for the last one of the EF
+     * @param recordSize size of the EF's records, or 0 if not known
+     */
+    RILRecordReader(RIL ril, int fileId, String path, String aid, int first, int last,
+            int recordSize, int window, Executor executor, Listener listener) {
+        if (first < 1 || (last >= 0 && last < first)) {
+            throw new IllegalArgumentException("Invalid records " + first + "-" + last);
+        }
+        mRil = ril;
+        mFileId = fileId;
+        mPath = path;
+        mAid = aid;
+        mFirst = first;
+        mLast = last;
+        mRecordSize = recordSize;
+        mWindow = Math.max(window, 1);
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    public int getFileId() {
+        return mFileId;
+    }
+
+    public synchronized int getRecordSize() {
+        return mRecordSize;
+    }
+
+    public synchronized int getReadCount() {
+        return mRead;
+    }
+
+    public synchronized int getFailedCount() {
+        return mFailed;
+    }
+
+    public synchronized boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * @return milliseconds from start to the first record arriving, or -1
+     * if none has yet.
+     */
+    public synchronized long getFirstRecordMillis() {
+        return mFirstRecordNanos > 0 ? (mFirstRecordNanos - mStartNanos) / 1000000 : -1;
+    }
+
+    /**
+     * @return milliseconds from start to the last record, or until now
+     * while records are outstanding.
+     */
+    public synchronized long getElapsedMillis() {
+        long end = mComplete ? mEndNanos : SystemClock.elapsedRealtimeNanos();
+        return (end - mStartNanos) / 1000000;
+    }
+
+    void start() {
+        boolean known;
+        synchronized (this) {
+            mStartNanos = SystemClock.elapsedRealtimeNanos();
+            mNext = mFirst;
+            known = mRecordSize > 0 && mLast >= 0;
+        }
+
+        if (known) {
+            issue();
+            return;
+        }
+
+        mRil.iccIOAsync(COMMAND_GET_RESPONSE, mFileId, mPath, 0, 0,
+                GET_RESPONSE_EF_SIZE_BYTES, mAid, new RILFuture.Callback<IccIoResult>() {
+            @Override
+            public void onComplete(IccIoResult response, Throwable error) {
+                onGetResponse(response, error);
+            }
+        });
+    }
+
+    private void onGetResponse(IccIoResult response, Throwable error) {
+        byte[] data = response != null && response.success() ? response.payload : null;
+        if (error != null || data == null || data.length <= RESPONSE_DATA_RECORD_LENGTH) {
+            synchronized (this) {
+                mStopped = true;
+                mEndNanos = SystemClock.elapsedRealtimeNanos();
+            }
+            finish();
+            return;
+        }
+
+        synchronized (this) {
+            int recordSize = data[RESPONSE_DATA_RECORD_LENGTH] & 0xff;
+            int fileSize = ((data[RESPONSE_DATA_FILE_SIZE_1] & 0xff) << 8)
+                    + (data[RESPONSE_DATA_FILE_SIZE_2] & 0xff);
+            int count = recordSize > 0 ? fileSize / recordSize : 0;
+            if (mRecordSize <= 0) {
+                mRecordSize = recordSize;
+            }
+            if (mLast < 0 || mLast > count) {
+                mLast = count;
+            }
+        }
+        if (!issue()) {
+            // Nothing to read
+            synchronized (this) {
+                mEndNanos = SystemClock.elapsedRealtimeNanos();
+            }
+            finish();
+        }
+    }
+
+    /**
+     * Requests records until the window is full.
+     *
+     * @return false if there was nothing to request and none in flight.
+     */
+    private boolean issue() {
+        boolean any = false;
+        for (;;) {
+            final int record;
+            int recordSize;
+
+            synchronized (this) {
+                if (mInFlight >= mWindow || mStopped || mNext > mLast) {
+                    return any || mInFlight > 0;
+                }
+                record = mNext++;
+                recordSize = mRecordSize;
+                mInFlight++;
+                any = true;
+            }
+
+            mRil.iccIOAsync(COMMAND_READ_RECORD, mFileId, mPath, record,
+                    READ_RECORD_MODE_ABSOLUTE, recordSize, mAid,
+                    new RILFuture.Callback<IccIoResult>() {
+                @Override
+                public void onComplete(IccIoResult response, Throwable error) {
+                    onRecordComplete(record, response, error);
+                }
+            });
+        }
+    }
+
+    private void onRecordComplete(final int record, IccIoResult response,
+            final Throwable error) {
+        final byte[] data = error == null && response != null && response.success()
+                ? response.payload : null;
+        boolean done;
+
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            mInFlight--;
+            if (data != null) {
+                mRead++;
+                if (mFirstRecordNanos == 0) {
+                    mFirstRecordNanos = now;
+                }
+            } else {
+                mFailed++;
+                mStopped = true;
+            }
+            done = mInFlight == 0 && (mStopped || mNext > mLast);
+            if (done) {
+                mEndNanos = now;
+            }
+        }
+
+        if (mListener != null) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onRecord(RILRecordReader.this, record, data, error);
+                }
+            });
+        }
+
+        if (done) {
+            finish();
+        } else {
+            issue();
+        }
+    }
+
+    private void finish() {
+        synchronized (this) {
+            mComplete = true;
+        }
+        mRil.recordReadComplete(this);
+        if (mListener != null) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onReadComplete(RILRecordReader.this);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a Listener call on the Executor, or right here. Nothing the
+     * Listener throws gets any further, the caller may be RILReceiver.
+     */
+    private void dispatch(final Runnable r) {
+        Runnable guarded = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    r.run();
+                } catch (RuntimeException ex) {
+                    Rlog.e(RIL.RILJ_LOG_TAG, "RILRecordReader listener threw", ex);
+                }
+            }
+        };
+        if (mExecutor != null) {
+            mExecutor.execute(guarded);
+        } else {
+            guarded.run();
+        }
+    }
+}
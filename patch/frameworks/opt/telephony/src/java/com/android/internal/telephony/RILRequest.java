@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2006 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.Context;
+import android.os.AsyncResult;
+import android.os.Message;
+import android.os.Parcel;
+import android.telephony.Rlog;
+
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A request to rild, from RIL.send() until its response or failure.
+ *
+ * Public only for RILRequestTableBench in tests/riltools and the
+ * RILRequestTable tests, which are loaded apart from telephony-common;
+ * its members stay package-private.
+ *
+ * {@hide}
+ */
+public class RILRequest {
+    static final String LOG_TAG = "RilRequest";
+
+    //***** Class Variables
+    static Random sRandom = new Random();
+    static AtomicInteger sNextSerial = new AtomicInteger(0);
+
+    // The pool is split into stripes so that callers obtaining on different
+    // threads and RILReceiver releasing don't all serialize on one monitor.
+    // obtain() prefers the stripe of the calling thread, release() spreads
+    // by serial.
+    private static final int POOL_STRIPES = 4;
+    private static final int POOL_STRIPE_MASK = POOL_STRIPES - 1;
+    // Bounds on the number of pooled requests across all stripes
+    private static final int MIN_POOL_SIZE = 4;
+    private static final int MAX_POOL_SIZE = 64;
+    private static final PoolStripe[] sPool = new PoolStripe[POOL_STRIPES];
+    static {
+        for (int i = 0; i < POOL_STRIPES; i++) {
+            sPool[i] = new PoolStripe();
+        }
+    }
+    // Requests obtained and not yet released, and the highest value seen.
+    // The pool is sized to hold the peak so steady state never allocates.
+    private static final AtomicInteger sInFlight = new AtomicInteger(0);
+    private static final AtomicInteger sInFlightPeak = new AtomicInteger(0);
+    private static volatile int sStripeCapacity = MIN_POOL_SIZE / POOL_STRIPES;
+    private static final AtomicLong sPoolHits = new AtomicLong(0);
+    private static final AtomicLong sPoolSteals = new AtomicLong(0);
+    private static final AtomicLong sPoolMisses = new AtomicLong(0);
+    private static final AtomicLong sPoolDrops = new AtomicLong(0);
+    private Context mContext;
+
+    //***** Instance Variables
+    int mSerial;
+    int mRequest;
+    Message mResult;
+    Parcel mParcel;
+    RILRequest mNext;
+    // elapsedRealtimeNanos when handed to RIL.send(), when RILSender
+    // picked it up and when the write carrying it to rild returned, 0 if
+    // that hasn't happened yet
+    long mSendNanos;
+    long mDequeueNanos;
+    // Set by RILSender after the response may already have been read
+    volatile long mWrittenNanos;
+    // Order in which RILSendScheduler took it
+    long mSendSeq;
+    // Set when other Messages wait for this query's result too
+    RILQueryCache.Flight mFlight;
+    // Set for requests sent through the asynchronous API
+    RILFuture<?> mFuture;
+    // Links in RILDeadlineWheel, mDeadlineTick is 0 when not scheduled
+    RILRequest mDeadlineNext;
+    RILRequest mDeadlinePrev;
+    long mDeadlineTick;
+    // RILWakeStats per-holder share when this request took the wakelock
+    long mWakeShareNanos;
+    // RIL.mWakeLockGeneration when this request took the wakelock
+    int mWakeGeneration;
+    // The marshalled request, kept while it may be replayed to a restarted
+    // rild
+    byte[] mReplayData;
+
+    /**
+     * Retrieves a new RILRequest instance from the pool.
+     *
+     * @param request RIL_REQUEST_*
+     * @param result sent when operation completes
+     * @return a RILRequest instance from the pool.
+     */
+    static RILRequest obtain(int request, Message result) {
+        int home = (int) Thread.currentThread().getId() & POOL_STRIPE_MASK;
+        RILRequest rr = sPool[home].pop();
+
+        if (rr != null) {
+            sPoolHits.incrementAndGet();
+        } else {
+            for (int i = 1; i < POOL_STRIPES && rr == null; i++) {
+                rr = sPool[(home + i) & POOL_STRIPE_MASK].pop();
+            }
+            if (rr != null) {
+                sPoolSteals.incrementAndGet();
+            } else {
+                sPoolMisses.incrementAndGet();
+                rr = new RILRequest();
+            }
+        }
+
+        int inFlight = sInFlight.incrementAndGet();
+        int peak;
+        while (inFlight > (peak = sInFlightPeak.get())) {
+            if (sInFlightPeak.compareAndSet(peak, inFlight)) {
+                int capacity = Math.max(MIN_POOL_SIZE, Math.min(MAX_POOL_SIZE, inFlight));
+                sStripeCapacity = (capacity + POOL_STRIPE_MASK) / POOL_STRIPES;
+                break;
+            }
+        }
+
+        rr.mSerial = sNextSerial.getAndIncrement();
+
+        rr.mRequest = request;
+        rr.mResult = result;
+        rr.mParcel = Parcel.obtain();
+        rr.mSendNanos = 0;
+        rr.mDequeueNanos = 0;
+        rr.mWrittenNanos = 0;
+        rr.mFlight = null;
+        rr.mFuture = null;
+        rr.mReplayData = null;
+
+        if (result != null && result.getTarget() == null) {
+            throw new NullPointerException("Message target must not be null");
+        }
+
+        // first elements in any RIL Parcel
+        rr.mParcel.writeInt(SonyRIL.translateRequest(request));
+        rr.mParcel.writeInt(rr.mSerial);
+
+        return rr;
+    }
+
+    /**
+     * A request outside the pool with a serial of the caller's choosing
+     * and no parcel, only for putting in a RILRequestTable. Never send or
+     * release it.
+     */
+    public static RILRequest createUnpooled(int request, int serial) {
+        RILRequest rr = new RILRequest();
+        rr.mRequest = request;
+        rr.mSerial = serial;
+        return rr;
+    }
+
+    /**
+     * Returns a RILRequest instance to the pool.
+     *
+     * Note: This should only be called once per use.
+     */
+    void release() {
+        sInFlight.decrementAndGet();
+        mResult = null;
+        if (!sPool[mSerial & POOL_STRIPE_MASK].push(this, sStripeCapacity)) {
+            sPoolDrops.incrementAndGet();
+        }
+    }
+
+    private RILRequest() {
+    }
+
+    static void
+    dumpPool(PrintWriter pw) {
+        int pooled = 0;
+        for (int i = 0; i < POOL_STRIPES; i++) {
+            pooled += sPool[i].size();
+        }
+        pw.println(" RILRequest pool hits=" + sPoolHits.get()
+                + " steals=" + sPoolSteals.get()
+                + " misses(allocations)=" + sPoolMisses.get()
+                + " drops=" + sPoolDrops.get());
+        pw.println(" RILRequest pool pooled=" + pooled
+                + " capacity=" + (sStripeCapacity * POOL_STRIPES)
+                + " inFlight=" + sInFlight.get()
+                + " inFlightPeak=" + sInFlightPeak.get());
+    }
+
+    /**
+     * One stripe of the RILRequest pool, a stack linked through mNext.
+     */
+    private static final class PoolStripe {
+        private RILRequest mHead;
+        private int mSize;
+
+        synchronized RILRequest pop() {
+            RILRequest rr = mHead;
+            if (rr != null) {
+                mHead = rr.mNext;
+                rr.mNext = null;
+                mSize--;
+            }
+            return rr;
+        }
+
+        synchronized boolean push(RILRequest rr, int capacity) {
+            if (mSize >= capacity) {
+                return false;
+            }
+            rr.mNext = mHead;
+            mHead = rr;
+            mSize++;
+            return true;
+        }
+
+        synchronized int size() {
+            return mSize;
+        }
+    }
+
+    static void
+    resetSerial() {
+        // use a random so that on recovery we probably don't mix old requests
+        // with new.
+        sNextSerial.set(sRandom.nextInt());
+    }
+
+    String
+    serialString() {
+        // "[%04d]" without a StringBuilder or Long.toString
+        int adjustedSerial = (int) ((((long)mSerial) - Integer.MIN_VALUE) % 10000);
+        char[] chars = new char[6];
+
+        chars[0] = '[';
+        for (int i = 4; i > 0; i--) {
+            chars[i] = (char) ('0' + adjustedSerial % 10);
+            adjustedSerial /= 10;
+        }
+        chars[5] = ']';
+        return new String(chars);
+    }
+
+    void
+    onError(int error, Object ret) {
+        CommandException ex;
+
+        ex = CommandException.fromRilErrno(error);
+
+        if (RIL.RILJ_LOG_TEXT) Rlog.d(LOG_TAG, serialString() + "< "
+            + RIL.requestToString(mRequest)
+            + " error: " + ex + " ret=" + RIL.retToString(mRequest, ret));
+
+        fail(ex, ret);
+    }
+
+    /**
+     * Fails the request with a RILDeadlineException, as rild didn't answer
+     * it within <code>deadlineMillis</code>.
+     */
+    void
+    onDeadlineExpired(long deadlineMillis) {
+        fail(new RILDeadlineException(mRequest, deadlineMillis), null);
+    }
+
+    private void
+    fail(CommandException ex, Object ret) {
+        if (mResult != null) {
+            AsyncResult.forMessage(mResult, ret, ex);
+            mResult.sendToTarget();
+        }
+        completeWaiters(ret, ex);
+
+        if (mParcel != null) {
+            mParcel.recycle();
+            mParcel = null;
+        }
+    }
+
+    /**
+     * Passes the result mResult received on to whatever else waits for
+     * this request: queries that joined it, and its RILFuture.
+     */
+    void
+    completeWaiters(Object ret, Throwable ex) {
+        if (mFlight != null) {
+            mFlight.complete(ret, ex);
+            mFlight = null;
+        }
+        if (mFuture != null) {
+            mFuture.complete(ret, ex);
+            mFuture = null;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.SystemProperties;
+import android.telephony.Rlog;
+import android.text.TextUtils;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Which requests rild supports, as a bitmap of request codes.
+ *
+ * The bitmap starts from SonyRIL.isRequestSupported() and learns the
+ * read-only queries (RIL.isIdempotent()) rild answers with
+ * REQUEST_NOT_SUPPORTED LEARN_THRESHOLD times in a row, so those fail
+ * locally instead of costing a round trip to rild and a wakelock every
+ * time they are retried. Requests with side effects are never learned.
+ * Since rild may turn a query down only in some radio or SIM state, every
+ * REPROBE_EVERY'th attempt at a learned request still goes to rild, and
+ * any other answer forgets it.
+ *
+ * Learned requests are kept in PROPERTY_UNSUPPORTED together with a hash
+ * of the baseband version; they are dropped once another baseband version
+ * reports in. Clearing the property and restarting the phone process
+ * forgets them too.
+ *
+ * isSupported() and failedLocally() may be called on any thread,
+ * everything that learns only on the RILReceiver thread.
+ *
+ * {@hide}
+ */
+class RILRequestSupport {
+    static final String LOG_TAG = RIL.RILJ_LOG_TAG;
+
+    // Requests learned not to be supported, as
+    // <baseband version hash>:<bitmap in hex, lowest codes first>
+    static final String PROPERTY_UNSUPPORTED = "persist.radio.rilj.unsupported";
+
+    static final int LEARN_THRESHOLD = 2;
+
+    // One in this many attempts at a learned request goes to rild
+    static final int REPROBE_EVERY = 32;
+
+    // Codes covered by the bitmap, higher ones go to SonyRIL directly.
+    // Kept so that the property value stays under PROPERTY_VALUE_MAX.
+    static final int MAX_REQUEST = 256;
+
+    // Set for unsupported requests. Replaced rather than modified, so
+    // isSupported() needs no lock.
+    private volatile long[] mUnsupported;
+    // What SonyRIL doesn't support
+    private final long[] mStatic = new long[MAX_REQUEST / 64];
+    // Learned part of mUnsupported, guarded by this
+    private final long[] mLearned = new long[MAX_REQUEST / 64];
+    // Set while learned requests are published, so the locally failed
+    // ones can be told apart without the lock
+    private volatile boolean mAnyLearned;
+    // REQUEST_NOT_SUPPORTED responses in a row, by request
+    private final byte[] mNotSupportedCounts = new byte[MAX_REQUEST];
+    // Attempts at each learned request since it last went to rild. Racy
+    // increments only make a probe come a little early or late.
+    private final byte[] mAttempts = new byte[MAX_REQUEST];
+
+    private String mBasebandHash;
+
+    private final AtomicLong mFailedStatic = new AtomicLong();
+    private final AtomicLong mFailedLearned = new AtomicLong();
+    private final AtomicLong mReprobes = new AtomicLong();
+    private final AtomicLong mForgotten = new AtomicLong();
+
+    /**
+     * @param baseband the baseband version if already known, or empty
+     */
+    RILRequestSupport(String baseband) {
+        for (int request = 0; request < MAX_REQUEST; request++) {
+            if (!SonyRIL.isRequestSupported(request)) {
+                set(mStatic, request);
+            }
+        }
+        mUnsupported = mStatic.clone();
+
+        if (!TextUtils.isEmpty(baseband)) {
+            setBaseband(baseband);
+        }
+    }
+
+    boolean isSupported(int request) {
+        if (request < 0 || request >= MAX_REQUEST) {
+            return SonyRIL.isRequestSupported(request);
+        }
+        if (!isSet(mUnsupported, request)) {
+            return true;
+        }
+        if (isSet(mStatic, request)) {
+            return false;
+        }
+        // Learned: let one attempt in REPROBE_EVERY through
+        if (++mAttempts[request] >= REPROBE_EVERY) {
+            mAttempts[request] = 0;
+            mReprobes.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called for a request that isSupported() turned down.
+     */
+    void failedLocally(int request) {
+        if (request >= 0 && request < MAX_REQUEST && !isSet(mStatic, request)) {
+            mFailedLearned.incrementAndGet();
+        } else {
+            mFailedStatic.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called when rild answered request with anything but
+     * REQUEST_NOT_SUPPORTED.
+     */
+    void supported(int request) {
+        if (request < 0 || request >= MAX_REQUEST) {
+            return;
+        }
+        mNotSupportedCounts[request] = 0;
+        if (mAnyLearned && isSet(mUnsupported, request)) {
+            forget(request);
+        }
+    }
+
+    /**
+     * A learned request got an answer after all, eg once the radio or SIM
+     * state it was turned down in passed.
+     */
+    private synchronized void forget(int request) {
+        if (!isSet(mLearned, request)) {
+            return;
+        }
+        Rlog.i(LOG_TAG, "Forgot " + RIL.requestToString(request) + " isn't supported");
+        clear(mLearned, request);
+        mForgotten.incrementAndGet();
+        publish();
+        persist();
+    }
+
+    /**
+     * Called when rild answered request with REQUEST_NOT_SUPPORTED.
+     */
+    synchronized void notSupported(int request) {
+        if (request < 0 || request >= MAX_REQUEST || isSet(mLearned, request)
+                || !RIL.isIdempotent(request)) {
+            return;
+        }
+        if (++mNotSupportedCounts[request] < LEARN_THRESHOLD) {
+            return;
+        }
+
+        Rlog.i(LOG_TAG, "Learned " + RIL.requestToString(request) + " isn't supported");
+        set(mLearned, request);
+        mAttempts[request] = 0;
+        publish();
+        persist();
+    }
+
+    /**
+     * Called once the baseband version is known. Learned requests of the
+     * same version are loaded, those of another version dropped.
+     */
+    synchronized void setBaseband(String baseband) {
+        String hash = Integer.toHexString(baseband.hashCode());
+        if (hash.equals(mBasebandHash)) {
+            return;
+        }
+        mBasebandHash = hash;
+
+        // Whatever was learned so far belongs to another baseband, or to
+        // none known
+        Arrays.fill(mLearned, 0);
+        Arrays.fill(mNotSupportedCounts, (byte) 0);
+
+        String saved = SystemProperties.get(PROPERTY_UNSUPPORTED);
+        int colon = saved.indexOf(':');
+        if (colon > 0 && saved.substring(0, colon).equals(hash)) {
+            String bits = saved.substring(colon + 1);
+            for (int i = 0; i < bits.length() && i * 4 < MAX_REQUEST; i++) {
+                int nibble = Character.digit(bits.charAt(i), 16);
+                for (int j = 0; j < 4 && nibble > 0; j++) {
+                    if ((nibble & (1 << j)) != 0) {
+                        set(mLearned, i * 4 + j);
+                    }
+                }
+            }
+        }
+        publish();
+        persist();
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        StringBuilder learned = new StringBuilder();
+        for (int request = 0; request < MAX_REQUEST; request++) {
+            if (isSet(mLearned, request)) {
+                learned.append(learned.length() == 0 ? "" : ",")
+                        .append(RIL.requestToString(request));
+            }
+        }
+        pw.println(" unsupported requests failed locally static=" + mFailedStatic.get()
+                + " learned(round trips avoided)=" + mFailedLearned.get()
+                + " reprobes=" + mReprobes.get()
+                + " forgotten=" + mForgotten.get()
+                + " baseband=" + mBasebandHash
+                + " learned=[" + learned + "]");
+    }
+
+    private void publish() {
+        long[] unsupported = mStatic.clone();
+        boolean any = false;
+        for (int i = 0; i < unsupported.length; i++) {
+            unsupported[i] |= mLearned[i];
+            any |= mLearned[i] != 0;
+        }
+        mUnsupported = unsupported;
+        mAnyLearned = any;
+    }
+
+    private void persist() {
+        if (mBasebandHash == null) {
+            // Saved once the baseband version is known
+            return;
+        }
+
+        StringBuilder value = new StringBuilder(mBasebandHash).append(':');
+        int end = value.length();
+        for (int i = 0; i < MAX_REQUEST / 4; i++) {
+            int nibble = (int) (mLearned[i / 16] >>> ((i % 16) * 4)) & 0xf;
+            value.append(Character.forDigit(nibble, 16));
+            if (nibble != 0) {
+                end = value.length();
+            }
+        }
+        value.setLength(end);
+        if (value.toString().equals(SystemProperties.get(PROPERTY_UNSUPPORTED))) {
+            return;
+        }
+
+        try {
+            SystemProperties.set(PROPERTY_UNSUPPORTED, value.toString());
+        } catch (RuntimeException ex) {
+            Rlog.e(LOG_TAG, "Couldn't save unsupported requests", ex);
+        }
+    }
+
+    private static boolean isSet(long[] bits, int request) {
+        return (bits[request >>> 6] & (1L << request)) != 0;
+    }
+
+    private static void set(long[] bits, int request) {
+        bits[request >>> 6] |= 1L << request;
+    }
+
+    private static void clear(long[] bits, int request) {
+        bits[request >>> 6] &= ~(1L << request);
+    }
+}
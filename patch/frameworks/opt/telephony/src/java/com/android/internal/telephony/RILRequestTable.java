@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-flight RIL requests keyed by serial.
+ *
+ * Serials are handed out sequentially, so a request lands in slot
+ * (serial & mask) and neighbours almost never collide. Slots are claimed
+ * and released with compare-and-set, which lets RILSender, RILReceiver
+ * and the timeout path insert and remove without sharing a monitor.
+ * Collisions probe linearly; the longest probe ever needed bounds every
+ * lookup. Should the table ever fill up, further requests go to a locked
+ * overflow map until slots free up.
+ *
+ * Iteration (size, snapshot, removeAll) is weakly consistent.
+ *
+ * Public for RILRequestTableBench in tests/riltools and the tests, which
+ * are loaded apart from telephony-common.
+ *
+ * {@hide}
+ */
+public class RILRequestTable {
+    // Far above the number of requests rild ever has outstanding
+    private static final int CAPACITY = 256;
+
+    private final AtomicReferenceArray<RILRequest> mSlots =
+            new AtomicReferenceArray<RILRequest>(CAPACITY);
+    private final int mMask = CAPACITY - 1;
+    private final AtomicInteger mSize = new AtomicInteger(0);
+    // Longest probe sequence any put() has needed
+    private final AtomicInteger mMaxProbe = new AtomicInteger(0);
+
+    private final SparseArray<RILRequest> mOverflow = new SparseArray<RILRequest>();
+    private volatile int mOverflowCount;
+
+    public void put(RILRequest rr) {
+        int serial = rr.mSerial;
+
+        for (int probe = 0; probe <= mMask; probe++) {
+            int i = (serial + probe) & mMask;
+            if (mSlots.get(i) == null && mSlots.compareAndSet(i, null, rr)) {
+                int maxProbe;
+                while (probe > (maxProbe = mMaxProbe.get())
+                        && !mMaxProbe.compareAndSet(maxProbe, probe)) {
+                }
+                mSize.incrementAndGet();
+                return;
+            }
+        }
+
+        synchronized (mOverflow) {
+            mOverflow.put(serial, rr);
+            mOverflowCount = mOverflow.size();
+        }
+        mSize.incrementAndGet();
+    }
+
+    /**
+     * @return the request with this serial, or null if there is none.
+     */
+    public RILRequest remove(int serial) {
+        return remove(serial, null);
+    }
+
+    /**
+     * Removes the request with this serial only if it was sent for
+     * <code>future</code>, or for any future if that is null.
+     *
+     * @return the request removed, or null if there is none.
+     */
+    public RILRequest remove(int serial, RILFuture<?> future) {
+        int maxProbe = mMaxProbe.get();
+
+        for (int probe = 0; probe <= maxProbe; probe++) {
+            int i = (serial + probe) & mMask;
+            RILRequest rr = mSlots.get(i);
+            if (rr == null || rr.mSerial != serial
+                    || (future != null && rr.mFuture != future)) {
+                continue;
+            }
+            if (!mSlots.compareAndSet(i, rr, null)) {
+                // Another thread removed or replaced it first
+                continue;
+            }
+            mSize.decrementAndGet();
+            if (rr.mSerial != serial || (future != null && rr.mFuture != future)) {
+                // rr completed, was recycled by RILRequest.obtain() and
+                // reinserted here between our read and the CAS. It is a
+                // live request under another serial now: insert it again
+                // like any other, the slot may not be free any more.
+                put(rr);
+                continue;
+            }
+            return rr;
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                RILRequest rr = mOverflow.get(serial);
+                if (rr != null && (future == null || rr.mFuture == future)) {
+                    mOverflow.remove(serial);
+                    mOverflowCount = mOverflow.size();
+                    mSize.decrementAndGet();
+                    return rr;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    public int size() {
+        return mSize.get();
+    }
+
+    /**
+     * Adds every request currently in the table to <code>out</code>.
+     */
+    public void snapshot(ArrayList<RILRequest> out) {
+        for (int i = 0; i <= mMask; i++) {
+            RILRequest rr = mSlots.get(i);
+            if (rr != null) {
+                out.add(rr);
+            }
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                for (int i = 0, count = mOverflow.size(); i < count; i++) {
+                    out.add(mOverflow.valueAt(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every request from the table and adds it to <code>out</code>.
+     * A request removed concurrently by remove() is returned by exactly one
+     * of the two calls.
+     */
+    public void removeAll(ArrayList<RILRequest> out) {
+        for (int i = 0; i <= mMask; i++) {
+            if (mSlots.get(i) != null) {
+                RILRequest rr = mSlots.getAndSet(i, null);
+                if (rr != null) {
+                    mSize.decrementAndGet();
+                    out.add(rr);
+                }
+            }
+        }
+
+        if (mOverflowCount > 0) {
+            synchronized (mOverflow) {
+                for (int i = 0, count = mOverflow.size(); i < count; i++) {
+                    mSize.decrementAndGet();
+                    out.add(mOverflow.valueAt(i));
+                }
+                mOverflow.clear();
+                mOverflowCount = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests waiting for RILSender, split into priority lanes.
+ *
+ * Any thread may add(); only RILSender calls poll(). poll() serves lanes
+ * in strict priority order, except that the head of a lower lane that has
+ * waited longer than STARVATION_NANOS goes first, so a steady stream of
+ * call control can't hold background requests back indefinitely. Within
+ * a lane requests keep their order.
+ *
+ * Requests in the barrier lane, OEM hooks and radio power, keep their
+ * order with everything: they aren't sent before any request added ahead
+ * of them, and nothing added after them is sent first. OEM hooks often
+ * set the modem up for the requests that follow.
+ *
+ * {@hide}
+ */
+class RILSendScheduler {
+    static final int LANE_CALL = 0;
+    static final int LANE_SMS = 1;
+    static final int LANE_DATA = 2;
+    static final int LANE_BACKGROUND = 3;
+    static final int LANE_BARRIER = 4;
+    static final int LANES = 5;
+
+    private static final String[] LANE_NAMES =
+            { "call", "sms", "data", "background", "barrier" };
+
+    private static final long STARVATION_NANOS = 200 * 1000 * 1000L;
+
+    private final ConcurrentLinkedQueue<RILRequest>[] mLanes;
+    private final AtomicInteger[] mDepths = new AtomicInteger[LANES];
+    private final AtomicLong mNextSeq = new AtomicLong();
+
+    // Statistics below are only written on the RILSender thread
+    private final int[] mMaxDepths = new int[LANES];
+    private final long[] mServed = new long[LANES];
+    private final long[] mServedAged = new long[LANES];
+    private final long[] mWaitNanos = new long[LANES];
+    private final long[] mMaxWaitNanos = new long[LANES];
+
+    @SuppressWarnings("unchecked")
+    RILSendScheduler() {
+        mLanes = new ConcurrentLinkedQueue[LANES];
+        for (int i = 0; i < LANES; i++) {
+            mLanes[i] = new ConcurrentLinkedQueue<RILRequest>();
+            mDepths[i] = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * Queues rr on its lane. rr.mSendNanos must already be set.
+     */
+    void add(RILRequest rr) {
+        int lane = laneFor(rr.mRequest);
+        rr.mSendSeq = mNextSeq.getAndIncrement();
+        mLanes[lane].add(rr);
+        mDepths[lane].incrementAndGet();
+    }
+
+    /**
+     * @return the next request to send, or null if none is waiting.
+     */
+    RILRequest poll() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        int lane = -1;
+        boolean aged = false;
+
+        // Only requests added before the first waiting barrier may go
+        RILRequest barrier = mLanes[LANE_BARRIER].peek();
+        long limit = barrier != null ? barrier.mSendSeq : Long.MAX_VALUE;
+
+        // Oldest starving lane first, lanes behind LANE_CALL only
+        long oldest = Long.MAX_VALUE;
+        for (int i = LANE_BACKGROUND; i > LANE_CALL; i--) {
+            RILRequest head = mLanes[i].peek();
+            if (head != null && head.mSendSeq < limit
+                    && now - head.mSendNanos > STARVATION_NANOS
+                    && head.mSendNanos < oldest) {
+                oldest = head.mSendNanos;
+                lane = i;
+                aged = true;
+            }
+        }
+
+        if (lane < 0) {
+            for (int i = LANE_CALL; i <= LANE_BACKGROUND; i++) {
+                RILRequest head = mLanes[i].peek();
+                if (head != null && head.mSendSeq < limit) {
+                    lane = i;
+                    break;
+                }
+            }
+        }
+        if (lane < 0) {
+            if (barrier == null) {
+                return null;
+            }
+            lane = LANE_BARRIER;
+        }
+
+        // Only RILSender polls, so this is the head peeked above
+        RILRequest rr = mLanes[lane].poll();
+
+        int depth = mDepths[lane].getAndDecrement();
+        if (depth > mMaxDepths[lane]) {
+            mMaxDepths[lane] = depth;
+        }
+        long wait = now - rr.mSendNanos;
+        mServed[lane]++;
+        if (aged) {
+            mServedAged[lane]++;
+        }
+        mWaitNanos[lane] += wait;
+        if (wait > mMaxWaitNanos[lane]) {
+            mMaxWaitNanos[lane] = wait;
+        }
+        return rr;
+    }
+
+    boolean isEmpty() {
+        for (int i = 0; i < LANES; i++) {
+            if (!mLanes[i].isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i < LANES; i++) {
+            size += mDepths[i].get();
+        }
+        return size;
+    }
+
+    void dump(PrintWriter pw) {
+        for (int i = 0; i < LANES; i++) {
+            pw.println(" send lane " + LANE_NAMES[i]
+                    + " depth=" + mDepths[i].get()
+                    + " maxDepth=" + mMaxDepths[i]
+                    + " served=" + mServed[i]
+                    + " aged=" + mServedAged[i]
+                    + " meanWaitUs=" + (mServed[i] > 0 ? mWaitNanos[i] / mServed[i] / 1000 : 0)
+                    + " maxWaitUs=" + mMaxWaitNanos[i] / 1000);
+        }
+    }
+
+    static int laneFor(int request) {
+        switch (request) {
+            case RIL_REQUEST_DIAL:
+            case RIL_REQUEST_HANGUP:
+            case RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND:
+            case RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND:
+            case RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE:
+            case RIL_REQUEST_CONFERENCE:
+            case RIL_REQUEST_UDUB:
+            case RIL_REQUEST_ANSWER:
+            case RIL_REQUEST_SEPARATE_CONNECTION:
+            case RIL_REQUEST_EXPLICIT_CALL_TRANSFER:
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE:
+            case RIL_REQUEST_DTMF:
+            case RIL_REQUEST_DTMF_START:
+            case RIL_REQUEST_DTMF_STOP:
+            case RIL_REQUEST_SET_MUTE:
+            case RIL_REQUEST_GET_MUTE:
+            case RIL_REQUEST_CDMA_FLASH:
+            case RIL_REQUEST_CDMA_BURST_DTMF:
+            case RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE:
+                return LANE_CALL;
+
+            case RIL_REQUEST_SEND_SMS:
+            case RIL_REQUEST_SEND_SMS_EXPECT_MORE:
+            case RIL_REQUEST_CDMA_SEND_SMS:
+            case RIL_REQUEST_IMS_SEND_SMS:
+            case RIL_REQUEST_SMS_ACKNOWLEDGE:
+            case RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE:
+            case RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU:
+            case RIL_REQUEST_WRITE_SMS_TO_SIM:
+            case RIL_REQUEST_DELETE_SMS_ON_SIM:
+            case RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM:
+            case RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM:
+            case RIL_REQUEST_REPORT_SMS_MEMORY_STATUS:
+                return LANE_SMS;
+
+            case RIL_REQUEST_SETUP_DATA_CALL:
+            case RIL_REQUEST_DEACTIVATE_DATA_CALL:
+            case RIL_REQUEST_DATA_CALL_LIST:
+            case RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE:
+            case RIL_REQUEST_SET_INITIAL_ATTACH_APN:
+            case RIL_REQUEST_SET_DATA_PROFILE:
+            case RIL_REQUEST_ALLOW_DATA:
+                return LANE_DATA;
+
+            case RIL_REQUEST_GET_CELL_INFO_LIST:
+            case RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE:
+            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS:
+            case RIL_REQUEST_SIGNAL_STRENGTH:
+            case RIL_REQUEST_QUERY_AVAILABLE_NETWORKS:
+            case RIL_REQUEST_GSM_GET_BROADCAST_CONFIG:
+            case RIL_REQUEST_GSM_SET_BROADCAST_CONFIG:
+            case RIL_REQUEST_GSM_BROADCAST_ACTIVATION:
+            case RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG:
+            case RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG:
+            case RIL_REQUEST_CDMA_BROADCAST_ACTIVATION:
+            case RIL_REQUEST_GET_HARDWARE_CONFIG:
+            case RIL_REQUEST_GET_ACTIVITY_INFO:
+            case RIL_REQUEST_PULL_LCEDATA:
+            case RIL_REQUEST_BASEBAND_VERSION:
+                return LANE_BACKGROUND;
+
+            case RIL_REQUEST_OEM_HOOK_RAW:
+            case RIL_REQUEST_OEM_HOOK_STRINGS:
+            case RIL_REQUEST_RADIO_POWER:
+            case RIL_REQUEST_SHUTDOWN:
+                return LANE_BARRIER;
+        }
+
+        // SIM, registration and the rest share the data lane so that they
+        // still go ahead of background polling.
+        return LANE_DATA;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+import com.android.internal.telephony.uicc.IccUtils;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * A batch of GSM SMS PDUs sent through RIL as one pipeline.
+ *
+ * Up to a window of parts are in flight at a time. Every part but the
+ * last one issued goes out as RIL_REQUEST_SEND_SMS_EXPECT_MORE, so the
+ * modem keeps the radio link up between them. A part failing with
+ * SMS_FAIL_RETRY is retried RETRY_DELAY_MILLIS later, with TP-RD set and
+ * TP-MR the failed attempt's message reference, up to MAX_RETRIES times
+ * while the rest of the batch carries on; any other failure is final.
+ *
+ * Parts failing without reaching rild complete on the thread sending
+ * them; they are handed back to the loop in issue() rather than issuing
+ * the next part from inside the failed send.
+ *
+ * The Listener runs on the Executor given to RIL.sendSmsBatch(). Without
+ * one it runs on the RILReceiver thread, or on the calling thread for
+ * parts that fail without reaching rild. Exceptions it throws are logged.
+ *
+ * {@hide}
+ */
+public class RILSmsBatch {
+    public interface Listener {
+        /**
+         * Called once per part, when it was sent or finally failed.
+         *
+         * @param error null if the part was sent
+         */
+        void onPartComplete(RILSmsBatch batch, int part, SmsResponse response, Throwable error);
+
+        /**
+         * Called once every part was sent or finally failed.
+         */
+        void onBatchComplete(RILSmsBatch batch);
+    }
+
+    static final int MAX_RETRIES = 3;
+    // As SMSDispatcher.SEND_RETRY_DELAY
+    static final long RETRY_DELAY_MILLIS = 2000;
+
+    private final RIL mRil;
+    private final String[] mSmscPdus;
+    private final String[] mPdus;
+    private final int mWindow;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    // Next part not issued yet
+    private int mNext;
+    private int mInFlight;
+    // Parts due for a retry, and parts waiting out RETRY_DELAY_MILLIS
+    private final ArrayDeque<Integer> mRetries = new ArrayDeque<Integer>();
+    private int mRetriesWaiting;
+    private final int[] mRetryCounts;
+    // TP-MR of each part's last failed attempt
+    private final int[] mMessageRefs;
+    // Set while a thread is in issue(); another call then leaves the work
+    // to it, as it looks at the state again before returning
+    private boolean mIssuing;
+
+    private int mSent;
+    private int mFailed;
+    private int mRetried;
+    private long mStartNanos;
+    private long mEndNanos;
+
+    RILSmsBatch(RIL ril, String[] smscPdus, String[] pdus, int window,
+            Executor executor, Listener listener) {
+        if (smscPdus.length != pdus.length) {
+            throw new IllegalArgumentException("smscPdus and pdus differ in length");
+        }
+        mRil = ril;
+        mSmscPdus = smscPdus;
+        mPdus = pdus;
+        mWindow = Math.max(window, 1);
+        mExecutor = executor;
+        mListener = listener;
+        mRetryCounts = new int[pdus.length];
+        mMessageRefs = new int[pdus.length];
+    }
+
+    public int getPartCount() {
+        return mPdus.length;
+    }
+
+    public synchronized int getSentCount() {
+        return mSent;
+    }
+
+    public synchronized int getFailedCount() {
+        return mFailed;
+    }
+
+    public synchronized int getRetryCount() {
+        return mRetried;
+    }
+
+    public synchronized boolean isComplete() {
+        return mSent + mFailed == mPdus.length;
+    }
+
+    /**
+     * @return milliseconds from start to the last part completing, or
+     * until now while parts are outstanding.
+     */
+    public synchronized long getElapsedMillis() {
+        long end = isComplete() ? mEndNanos : SystemClock.elapsedRealtimeNanos();
+        return (end - mStartNanos) / 1000000;
+    }
+
+    /**
+     * @return parts sent per second.
+     */
+    public synchronized float getThroughput() {
+        long elapsed = getElapsedMillis();
+        return elapsed > 0 ? mSent * 1000f / elapsed : 0f;
+    }
+
+    void start() {
+        synchronized (this) {
+            mStartNanos = SystemClock.elapsedRealtimeNanos();
+            if (mPdus.length == 0) {
+                mEndNanos = mStartNanos;
+            }
+        }
+        if (mPdus.length == 0) {
+            finish();
+            return;
+        }
+        issue();
+    }
+
+    /**
+     * Sends parts until the window is full. Loops rather than recursing
+     * when a send fails straight away and completes its part right here.
+     */
+    private void issue() {
+        synchronized (this) {
+            if (mIssuing) {
+                return;
+            }
+            mIssuing = true;
+        }
+
+        for (;;) {
+            int part;
+            String pdu;
+            boolean expectMore;
+
+            synchronized (this) {
+                Integer retry = mInFlight < mWindow ? mRetries.poll() : null;
+                if (retry != null) {
+                    part = retry;
+                    pdu = markRetry(mPdus[part], mMessageRefs[part]);
+                } else if (mInFlight < mWindow && mNext < mPdus.length) {
+                    part = mNext++;
+                    pdu = mPdus[part];
+                } else {
+                    mIssuing = false;
+                    return;
+                }
+                expectMore = mNext < mPdus.length || !mRetries.isEmpty()
+                        || mRetriesWaiting > 0;
+                mInFlight++;
+            }
+
+            final int index = part;
+            mRil.sendSmsPart(mSmscPdus[part], pdu, expectMore,
+                    new RILFuture.Callback<SmsResponse>() {
+                @Override
+                public void onComplete(SmsResponse response, Throwable error) {
+                    onPartComplete(index, response, error);
+                }
+            });
+        }
+    }
+
+    private void onPartComplete(final int part, final SmsResponse response,
+            final Throwable error) {
+        boolean retry = false;
+        boolean done;
+
+        synchronized (this) {
+            mInFlight--;
+            if (error == null) {
+                mSent++;
+            } else if (error instanceof CommandException
+                    && ((CommandException) error).getCommandError()
+                            == CommandException.Error.SMS_FAIL_RETRY
+                    && mRetryCounts[part] < MAX_RETRIES) {
+                mRetryCounts[part]++;
+                mRetried++;
+                mRetriesWaiting++;
+                if (response != null) {
+                    mMessageRefs[part] = response.mMessageRef;
+                }
+                retry = true;
+            } else {
+                mFailed++;
+            }
+            done = isComplete();
+            if (done) {
+                mEndNanos = SystemClock.elapsedRealtimeNanos();
+            }
+        }
+
+        if (!retry && mListener != null) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onPartComplete(RILSmsBatch.this, part, response, error);
+                }
+            });
+        }
+
+        if (retry) {
+            mRil.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (RILSmsBatch.this) {
+                        mRetriesWaiting--;
+                        mRetries.add(part);
+                    }
+                    issue();
+                }
+            }, RETRY_DELAY_MILLIS);
+        }
+
+        issue();
+
+        if (done) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        mRil.smsBatchComplete(this);
+        if (mListener != null) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onBatchComplete(RILSmsBatch.this);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a Listener call on the Executor, or right here. Nothing the
+     * Listener throws gets any further, the caller may be RILReceiver.
+     */
+    private void dispatch(final Runnable r) {
+        Runnable guarded = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    r.run();
+                } catch (RuntimeException ex) {
+                    Rlog.e(RIL.RILJ_LOG_TAG, "RILSmsBatch listener threw", ex);
+                }
+            }
+        };
+        if (mExecutor != null) {
+            mExecutor.execute(guarded);
+        } else {
+            guarded.run();
+        }
+    }
+
+    /**
+     * Sets TP-RD on an SMS-SUBMIT and TP-MR to the failed attempt's, as
+     * 3GPP TS 23.040 9.2.3.6 and 9.2.3.25 ask for retries, the way
+     * GsmSMSDispatcher does.
+     */
+    private static String markRetry(String pdu, int messageRef) {
+        byte[] bytes = IccUtils.hexStringToBytes(pdu);
+        if (bytes == null || bytes.length < 2 || (bytes[0] & 0x03) != 0x01) {
+            return pdu;
+        }
+        bytes[0] |= 0x04;
+        bytes[1] = (byte) messageRef;
+        return IccUtils.bytesToHexString(bytes);
+    }
+}
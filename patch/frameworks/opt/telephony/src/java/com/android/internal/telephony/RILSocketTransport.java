@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.net.LocalSocket;
+import android.telephony.Rlog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link RILFrameTransport} over the rild LocalSocket.
+ *
+ * Both directions use buffers allocated once per connection. Outgoing
+ * frames are assembled header-first in the write buffer so each frame
+ * costs one write(2), and frames queued back to back share a single
+ * write(2) when flushed together. Incoming bytes are read in bulk into
+ * the read buffer and frames are parsed straight out of it, so a burst
+ * of responses costs one read(2) instead of two per frame and the
+ * payload is handed to Parcel.unmarshall without another copy.
+ *
+ * {@hide}
+ */
+class RILSocketTransport implements RILFrameTransport {
+    static final String LOG_TAG = RIL.RILJ_LOG_TAG;
+
+    private static final int HEADER_BYTES = 4;
+
+    // Large enough to hold a few maximum sized frames so that bursts of
+    // unsolicited responses can be drained with a single read, and bursts
+    // of requests can be flushed with a single write.
+    private static final int READ_BUFFER_BYTES = 4 * (RIL.RIL_MAX_COMMAND_BYTES + HEADER_BYTES);
+    private static final int WRITE_BUFFER_BYTES = 4 * (RIL.RIL_MAX_COMMAND_BYTES + HEADER_BYTES);
+
+    private final LocalSocket mSocket;
+    private final InputStream mIn;
+    private final OutputStream mOut;
+    private final int mMaxFrameBytes;
+
+    private final byte[] mWriteBuffer;
+    // End of queued bytes in mWriteBuffer
+    private int mWriteTail;
+
+    private final byte[] mReadBuffer;
+    // Start of unparsed bytes in mReadBuffer
+    private int mReadHead;
+    // End of valid bytes in mReadBuffer
+    private int mReadTail;
+    private int mFrameOffset;
+
+    RILSocketTransport(LocalSocket socket, int maxFrameBytes) throws IOException {
+        mSocket = socket;
+        mIn = socket.getInputStream();
+        mOut = socket.getOutputStream();
+        mMaxFrameBytes = maxFrameBytes;
+        mWriteBuffer = new byte[Math.max(WRITE_BUFFER_BYTES, HEADER_BYTES + maxFrameBytes)];
+        mReadBuffer = new byte[Math.max(READ_BUFFER_BYTES, HEADER_BYTES + maxFrameBytes)];
+    }
+
+    @Override
+    public void writeFrame(byte[] data, int length) throws IOException {
+        queueFrame(data, length);
+        flush();
+    }
+
+    @Override
+    public int queueFrame(byte[] data, int length) throws IOException {
+        if (length > mMaxFrameBytes) {
+            mWriteTail = 0;
+            throw new IOException("Frame larger than max bytes allowed! " + length);
+        }
+
+        int flushed = 0;
+        if (mWriteBuffer.length - mWriteTail < HEADER_BYTES + length) {
+            flushed = flush();
+        }
+
+        int offset = mWriteTail;
+
+        // parcel length in big endian
+        mWriteBuffer[offset] = (byte)((length >> 24) & 0xff);
+        mWriteBuffer[offset + 1] = (byte)((length >> 16) & 0xff);
+        mWriteBuffer[offset + 2] = (byte)((length >> 8) & 0xff);
+        mWriteBuffer[offset + 3] = (byte)(length & 0xff);
+        System.arraycopy(data, 0, mWriteBuffer, offset + HEADER_BYTES, length);
+
+        mWriteTail = offset + HEADER_BYTES + length;
+        return flushed;
+    }
+
+    @Override
+    public int flush() throws IOException {
+        int count = mWriteTail;
+
+        if (count == 0) {
+            return 0;
+        }
+
+        // Drop the pending bytes even if the write fails, the caller fails
+        // every request they belonged to.
+        mWriteTail = 0;
+        mOut.write(mWriteBuffer, 0, count);
+        return count;
+    }
+
+    @Override
+    public int readFrame() throws IOException {
+        while (mReadTail - mReadHead < HEADER_BYTES) {
+            if (!fill(HEADER_BYTES)) {
+                Rlog.e(LOG_TAG, "Hit EOS reading message length");
+                return -1;
+            }
+        }
+
+        int messageLength = ((mReadBuffer[mReadHead] & 0xff) << 24)
+                | ((mReadBuffer[mReadHead + 1] & 0xff) << 16)
+                | ((mReadBuffer[mReadHead + 2] & 0xff) << 8)
+                | (mReadBuffer[mReadHead + 3] & 0xff);
+
+        if (messageLength < 0 || messageLength > mMaxFrameBytes) {
+            throw new IOException("Invalid message length " + messageLength);
+        }
+
+        while (mReadTail - mReadHead < HEADER_BYTES + messageLength) {
+            if (!fill(HEADER_BYTES + messageLength)) {
+                Rlog.e(LOG_TAG, "Hit EOS reading message.  messageLength=" + messageLength
+                        + " remaining=" + (HEADER_BYTES + messageLength - (mReadTail - mReadHead)));
+                return -1;
+            }
+        }
+
+        mFrameOffset = mReadHead + HEADER_BYTES;
+        mReadHead += HEADER_BYTES + messageLength;
+        return messageLength;
+    }
+
+    @Override
+    public byte[] frameBuffer() {
+        return mReadBuffer;
+    }
+
+    @Override
+    public int frameOffset() {
+        return mFrameOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    /**
+     * Reads whatever is available into the read buffer, first moving the
+     * unparsed tail to the front if a frame of <code>needed</code> bytes
+     * would not fit. The previously returned frame is invalidated.
+     *
+     * @return false on end of stream
+     */
+    private boolean fill(int needed) throws IOException {
+        if (mReadBuffer.length - mReadHead < needed) {
+            int pending = mReadTail - mReadHead;
+            System.arraycopy(mReadBuffer, mReadHead, mReadBuffer, 0, pending);
+            mReadHead = 0;
+            mReadTail = pending;
+        }
+
+        int countRead = mIn.read(mReadBuffer, mReadTail, mReadBuffer.length - mReadTail);
+        if (countRead < 0) {
+            return false;
+        }
+        mReadTail += countRead;
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Parcel;
+
+import java.io.PrintWriter;
+
+/**
+ * Reads strings out of RIL parcels through a small intern cache.
+ *
+ * Operator names, MCC/MNC, LAC/TAC, radio technologies and the like come
+ * back identical on nearly every poll. Short strings are read from the
+ * parcel a word at a time into a scratch buffer and looked up in a direct
+ * mapped table by their hash; a hit returns the cached String without
+ * allocating. Longer strings are read with Parcel.readString() as usual.
+ * The table is bounded: a miss simply replaces the slot's entry.
+ *
+ * Only used on the RILReceiver thread.
+ *
+ * {@hide}
+ */
+class RILStringCache {
+    static final int MAX_LENGTH = 32;
+
+    private static final int SLOTS = 256;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final String[] mSlots = new String[SLOTS];
+    private final char[] mChars = new char[MAX_LENGTH + 1];
+
+    // False to read every string with Parcel.readString(), to measure
+    // what the cache saves
+    private boolean mEnabled = true;
+
+    private long mHits;
+    private long mMisses;
+    private long mUncached;
+    private long mArraysReused;
+
+    /**
+     * Same as Parcel.readString().
+     */
+    String readString(Parcel p) {
+        if (!mEnabled) {
+            mUncached++;
+            return p.readString();
+        }
+
+        int start = p.dataPosition();
+        int length = p.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_LENGTH) {
+            mUncached++;
+            p.setDataPosition(start);
+            return p.readString();
+        }
+
+        // UTF-16 little-endian, two chars per word, then a terminating
+        // 0 char padded to a word
+        int hash = 0;
+        for (int i = 0; i < length; i += 2) {
+            int word = p.readInt();
+            char c = (char) word;
+            mChars[i] = c;
+            hash = 31 * hash + c;
+            if (i + 1 < length) {
+                c = (char) (word >>> 16);
+                mChars[i + 1] = c;
+                hash = 31 * hash + c;
+            }
+        }
+        if ((length & 1) == 0) {
+            p.readInt();
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & SLOT_MASK;
+        String s = mSlots[slot];
+        if (s != null && s.length() == length && s.hashCode() == hash && matches(s, length)) {
+            mHits++;
+            return s;
+        }
+
+        mMisses++;
+        s = new String(mChars, 0, length);
+        mSlots[slot] = s;
+        return s;
+    }
+
+    /**
+     * Same as Parcel.readStringArray(), except that previous is returned
+     * if the array read holds the same cached strings.
+     *
+     * @param previous array to reuse, or null for a new array
+     */
+    String[] readStringArray(Parcel p, String[] previous) {
+        int count = p.readInt();
+        if (count < 0) {
+            return null;
+        }
+
+        boolean same = previous != null && previous.length == count;
+        String[] strings = same ? previous : new String[count];
+        for (int i = 0; i < count; i++) {
+            String s = readString(p);
+            if (same && s != previous[i]) {
+                same = false;
+                strings = new String[count];
+                System.arraycopy(previous, 0, strings, 0, i);
+            }
+            strings[i] = s;
+        }
+
+        if (same) {
+            mArraysReused++;
+        }
+        return strings;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println(" string cache hits=" + mHits
+                + " misses=" + mMisses
+                + " uncached=" + mUncached
+                + " arraysReused=" + mArraysReused);
+    }
+
+    private boolean matches(String s, int length) {
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != mChars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
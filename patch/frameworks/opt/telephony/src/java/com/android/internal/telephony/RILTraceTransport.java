@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.SystemClock;
+import android.telephony.Rlog;
+import android.util.SparseBooleanArray;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * {@link RILFrameTransport} that copies every frame passing through another
+ * transport into a trace file, for replay by RILTraceReplayer in
+ * tests/riltools.
+ *
+ * The trace is a sequence of segments, one per connection to rild:
+ *
+ * <pre>
+ * segment := int MAGIC, int VERSION, long wall clock millis, record*
+ * record  := byte direction, long elapsedRealtimeNanos, int length, byte[length]
+ * </pre>
+ *
+ * All values are big-endian. Direction is {@link #TO_RILD} or
+ * {@link #FROM_RILD}; a record starting with any other byte is the start
+ * of the next segment. Frames are recorded without their length header.
+ *
+ * Requests carrying a PIN, PUK or password are recorded without their
+ * payload, only their request code and serial, so RILTraceReplayer still
+ * matches their responses.
+ *
+ * A failure writing the trace stops tracing but never the transport.
+ *
+ * The format constants and readers are public for the tools in
+ * tests/riltools, which have no package access to telephony-common.
+ *
+ * {@hide}
+ */
+public class RILTraceTransport implements RILFrameTransport {
+    static final String LOG_TAG = RIL.RILJ_LOG_TAG;
+
+    public static final int MAGIC = 0x52494c54; // "RILT"
+    public static final int VERSION = 1;
+    public static final byte TO_RILD = 0;
+    public static final byte FROM_RILD = 1;
+
+    private static final int TRACE_BUFFER_BYTES = 64 * 1024;
+
+    // Request code and serial, all that is kept of a secret request
+    private static final int REQUEST_HEADER_BYTES = 8;
+
+    // Requests whose payload holds a PIN, PUK or password, as RIL_REQUEST_*
+    private static final int[] SECRET_REQUESTS = {
+        RILConstants.RIL_REQUEST_ENTER_SIM_PIN,
+        RILConstants.RIL_REQUEST_ENTER_SIM_PUK,
+        RILConstants.RIL_REQUEST_ENTER_SIM_PIN2,
+        RILConstants.RIL_REQUEST_ENTER_SIM_PUK2,
+        RILConstants.RIL_REQUEST_CHANGE_SIM_PIN,
+        RILConstants.RIL_REQUEST_CHANGE_SIM_PIN2,
+        RILConstants.RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION,
+        RILConstants.RIL_REQUEST_QUERY_FACILITY_LOCK,
+        RILConstants.RIL_REQUEST_SET_FACILITY_LOCK,
+        RILConstants.RIL_REQUEST_CHANGE_BARRING_PASSWORD,
+    };
+
+    // The same, as the codes rild sees
+    private static final SparseBooleanArray sSecretWireRequests = new SparseBooleanArray();
+    static {
+        for (int request : SECRET_REQUESTS) {
+            sSecretWireRequests.put(SonyRIL.translateRequest(request), true);
+        }
+    }
+
+    private final RILFrameTransport mTransport;
+    private final String mPath;
+    private DataOutputStream mTrace;
+    private long mFramesTraced;
+    private long mBytesTraced;
+
+    private RILTraceTransport(RILFrameTransport transport, String path, DataOutputStream trace) {
+        mTransport = transport;
+        mPath = path;
+        mTrace = trace;
+    }
+
+    /**
+     * Wraps <code>transport</code> so its frames are appended to the trace
+     * at <code>path</code>.
+     *
+     * @return the wrapping transport, or <code>transport</code> itself if
+     * the trace can't be opened.
+     */
+    static RILFrameTransport wrap(RILFrameTransport transport, String path) {
+        try {
+            DataOutputStream trace = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(path, true), TRACE_BUFFER_BYTES));
+            trace.writeInt(MAGIC);
+            trace.writeInt(VERSION);
+            trace.writeLong(System.currentTimeMillis());
+            Rlog.i(LOG_TAG, "Tracing rild frames to " + path);
+            return new RILTraceTransport(transport, path, trace);
+        } catch (IOException ex) {
+            Rlog.e(LOG_TAG, "Couldn't open RIL trace " + path, ex);
+            return transport;
+        }
+    }
+
+    /**
+     * Reads the rest of a segment header whose first byte was already read.
+     *
+     * @throws IOException if it isn't one of a trace this version wrote
+     */
+    public static void readSegmentHeader(DataInputStream in, int firstByte) throws IOException {
+        int magic = (firstByte << 24) | (in.readUnsignedByte() << 16)
+                | (in.readUnsignedShort());
+        if (magic != MAGIC) {
+            throw new IOException("Not a RIL trace, magic=" + Integer.toHexString(magic));
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported RIL trace version " + version);
+        }
+        in.readLong();
+    }
+
+    /**
+     * @return the Parcel int at <code>offset</code> in a frame, eg its
+     * request code at 0 and serial at 4. Parcel ints are little-endian.
+     */
+    public static int readParcelInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8)
+                | ((data[offset + 2] & 0xff) << 16) | ((data[offset + 3] & 0xff) << 24);
+    }
+
+    @Override
+    public void writeFrame(byte[] data, int length) throws IOException {
+        recordRequest(data, length);
+        mTransport.writeFrame(data, length);
+    }
+
+    @Override
+    public int queueFrame(byte[] data, int length) throws IOException {
+        recordRequest(data, length);
+        return mTransport.queueFrame(data, length);
+    }
+
+    @Override
+    public int flush() throws IOException {
+        return mTransport.flush();
+    }
+
+    @Override
+    public int readFrame() throws IOException {
+        int length = mTransport.readFrame();
+
+        if (length >= 0) {
+            record(FROM_RILD, mTransport.frameBuffer(), mTransport.frameOffset(), length);
+        }
+        return length;
+    }
+
+    @Override
+    public byte[] frameBuffer() {
+        return mTransport.frameBuffer();
+    }
+
+    @Override
+    public int frameOffset() {
+        return mTransport.frameOffset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mTrace != null) {
+                try {
+                    mTrace.close();
+                } catch (IOException ex) {
+                    Rlog.e(LOG_TAG, "Couldn't close RIL trace " + mPath, ex);
+                }
+                mTrace = null;
+            }
+        }
+        mTransport.close();
+    }
+
+    synchronized String stats() {
+        return mPath + " frames=" + mFramesTraced + " bytes=" + mBytesTraced
+                + (mTrace == null ? " (stopped)" : "");
+    }
+
+    private void recordRequest(byte[] data, int length) {
+        if (length >= REQUEST_HEADER_BYTES
+                && sSecretWireRequests.get(readParcelInt(data, 0))) {
+            length = REQUEST_HEADER_BYTES;
+        }
+        record(TO_RILD, data, 0, length);
+    }
+
+    private synchronized void record(byte direction, byte[] data, int offset, int length) {
+        if (mTrace == null) {
+            return;
+        }
+
+        try {
+            mTrace.writeByte(direction);
+            mTrace.writeLong(SystemClock.elapsedRealtimeNanos());
+            mTrace.writeInt(length);
+            mTrace.write(data, offset, length);
+            mFramesTraced++;
+            mBytesTraced += length;
+        } catch (IOException ex) {
+            Rlog.e(LOG_TAG, "Stopped RIL trace " + mPath, ex);
+            try {
+                mTrace.close();
+            } catch (IOException ex2) {
+                // ignore failure to close after failure to write
+            }
+            mTrace = null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Splits the time RILJ's wakelock is held between the requests holding it,
+ * and accounts the time spent on unsolicited responses.
+ *
+ * While n requests hold the wakelock each is charged 1/n of the time, so
+ * the charges add up to the time the lock was held. Rather than touching
+ * every holder on each change, a single per-holder share accumulates
+ * dt / n; a request is charged the growth of that share between acquiring
+ * and releasing.
+ *
+ * Unsolicited responses arriving less than BURST_GAP_NANOS apart form a
+ * burst, charged from its first response until the last one is processed
+ * to the response that started it.
+ *
+ * {@hide}
+ */
+class RILWakeStats {
+    static final int TOP_N = 10;
+
+    private static final long BURST_GAP_NANOS = 200 * 1000 * 1000L;
+
+    private static final class Entry {
+        final int mId;
+        long mCount;
+        // Wakelock time charged, or burst time for unsolicited responses
+        long mChargedNanos;
+        // Time held or spent processing, overlapping ones counted in full
+        long mHeldNanos;
+        long mMaxNanos;
+        long mBursts;
+
+        Entry(int id) {
+            mId = id;
+        }
+    }
+
+    private static final Comparator<Entry> BY_CHARGED = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.mChargedNanos < b.mChargedNanos ? 1
+                    : (a.mChargedNanos > b.mChargedNanos ? -1 : 0);
+        }
+    };
+
+    // Indexed by request code and by response - RIL_UNSOL_RESPONSE_BASE,
+    // grown on demand
+    private Entry[] mRequests = new Entry[0];
+    private Entry[] mUnsols = new Entry[0];
+
+    private long mShareNanos;
+    private long mLastChangeNanos;
+    private long mHeldNanos;
+    private long mAcquires;
+
+    private Entry mBurstOwner;
+    private long mBurstEndNanos;
+    private long mBursts;
+    private long mBurstNanos;
+    private long mUnsolNanos;
+
+    /**
+     * Called whenever the number of holders is about to change.
+     *
+     * @param holders holders since the last change
+     * @return the per-holder share after accounting up to now
+     */
+    synchronized long advance(long nowNanos, int holders) {
+        if (holders > 0) {
+            long elapsed = nowNanos - mLastChangeNanos;
+            mShareNanos += elapsed / holders;
+            mHeldNanos += elapsed;
+        }
+        mLastChangeNanos = nowNanos;
+        return mShareNanos;
+    }
+
+    synchronized void acquired() {
+        mAcquires++;
+    }
+
+    /**
+     * @param shareNanos growth of the per-holder share while request held
+     * the wakelock
+     * @param heldNanos how long request held it
+     */
+    synchronized void released(int request, long shareNanos, long heldNanos) {
+        if (request < 0) {
+            return;
+        }
+        if (request >= mRequests.length) {
+            mRequests = Arrays.copyOf(mRequests, request + 1);
+        }
+        record(mRequests, request, shareNanos, heldNanos);
+    }
+
+    /**
+     * @param startNanos when processing of response started
+     * @param endNanos when it finished
+     */
+    synchronized void unsolicited(int response, long startNanos, long endNanos) {
+        int index = response - RILConstants.RIL_UNSOL_RESPONSE_BASE;
+        if (index < 0) {
+            return;
+        }
+        if (index >= mUnsols.length) {
+            mUnsols = Arrays.copyOf(mUnsols, index + 1);
+        }
+        Entry e = record(mUnsols, index, 0, endNanos - startNanos);
+        mUnsolNanos += endNanos - startNanos;
+
+        long charged;
+        if (mBurstOwner != null && startNanos - mBurstEndNanos < BURST_GAP_NANOS) {
+            // Still awake from the previous response, the gap counts too
+            charged = endNanos - mBurstEndNanos;
+        } else {
+            mBursts++;
+            mBurstOwner = e;
+            e.mBursts++;
+            charged = endNanos - startNanos;
+        }
+        mBurstOwner.mChargedNanos += charged;
+        mBurstNanos += charged;
+        mBurstEndNanos = endNanos;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(" wakelock heldMs=" + mHeldNanos / 1000000
+                + " acquires=" + mAcquires
+                + " unsolicited bursts=" + mBursts
+                + " burstMs=" + mBurstNanos / 1000000
+                + " processingMs=" + mUnsolNanos / 1000000);
+
+        pw.println(" wakelock top " + TOP_N + " requests (ms charged/held/max):");
+        for (Entry e : top(mRequests)) {
+            pw.println("  " + RIL.requestToString(e.mId)
+                    + " n=" + e.mCount
+                    + " " + e.mChargedNanos / 1000000
+                    + "/" + e.mHeldNanos / 1000000
+                    + "/" + e.mMaxNanos / 1000000);
+        }
+
+        pw.println(" top " + TOP_N + " unsolicited (ms burst/processing/max):");
+        for (Entry e : top(mUnsols)) {
+            pw.println("  " + RIL.responseToString(e.mId + RILConstants.RIL_UNSOL_RESPONSE_BASE)
+                    + " n=" + e.mCount
+                    + " bursts=" + e.mBursts
+                    + " " + e.mChargedNanos / 1000000
+                    + "/" + e.mHeldNanos / 1000000
+                    + "/" + e.mMaxNanos / 1000000);
+        }
+    }
+
+    private static Entry record(Entry[] entries, int index, long chargedNanos, long heldNanos) {
+        Entry e = entries[index];
+        if (e == null) {
+            e = new Entry(index);
+            entries[index] = e;
+        }
+        e.mCount++;
+        e.mChargedNanos += chargedNanos;
+        e.mHeldNanos += heldNanos;
+        if (heldNanos > e.mMaxNanos) {
+            e.mMaxNanos = heldNanos;
+        }
+        return e;
+    }
+
+    private static ArrayList<Entry> top(Entry[] entries) {
+        ArrayList<Entry> sorted = new ArrayList<Entry>();
+        for (Entry e : entries) {
+            if (e != null) {
+                sorted.add(e);
+            }
+        }
+        Collections.sort(sorted, BY_CHARGED);
+        return sorted.size() > TOP_N
+                ? new ArrayList<Entry>(sorted.subList(0, TOP_N)) : sorted;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.Debug;
+import android.os.Parcel;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Runs the responses in a trace written by {@link RILTraceTransport}
+ * through RIL's response decoders and reports, per decoder, the time and
+ * the bytes allocated per response decoded.
+ *
+ * The decoders belong to a RIL that only decodes, so the benchmark runs
+ * in a process of its own, without rild or the phone process. It is built
+ * into riltools.jar, not telephony-common, so it is loaded by a different
+ * class loader and uses only the public {@hide} members RIL and
+ * RILTraceTransport keep for it:
+ *
+ * <pre>
+ * CLASSPATH=/system/framework/riltools.jar app_process /system/bin \
+ *         com.android.internal.telephony.RILDecodeBench &lt;trace&gt; [iterations]
+ * </pre>
+ *
+ * The trace is run three times, each through a RIL of its own: reading
+ * every string with Parcel.readString(), through RIL's string intern
+ * cache, and through the cache with polled string arrays reused as with
+ * PROPERTY_REUSE_STRING_ARRAYS. Comparing bytes/op between the runs shows
+ * what the cache saves on the polled registration state and operator
+ * responses.
+ *
+ * Unsolicited responses carrying the same payload as a solicited one,
+ * eg RIL_UNSOL_SIGNAL_STRENGTH, are decoded with the solicited decoder.
+ * Responses that failed, or that their decoder throws on, are left out.
+ * Every parcel is unmarshalled once up front, so only decoding is
+ * measured. Time and allocations are measured in separate passes, as
+ * counting allocations slows them down.
+ *
+ * {@hide}
+ */
+public class RILDecodeBench {
+    private static final int DEFAULT_ITERATIONS = 1000;
+
+    // Passes over a decoder's responses before measuring it, so that RIL's
+    // string cache and previous cell info list are in their steady state
+    private static final int WARMUP_ITERATIONS = 100;
+
+    // Words preceding the payload: type, serial and error for solicited
+    // responses, type and response id for unsolicited ones
+    private static final int SOLICITED_HEADER_BYTES = 12;
+    private static final int UNSOLICITED_HEADER_BYTES = 8;
+
+    private static final class Benchmark {
+        final int mRequest;
+        final RIL.ResponseDecoder mDecoder;
+        final ArrayList<Parcel> mParcels = new ArrayList<Parcel>();
+        final ArrayList<Integer> mOffsets = new ArrayList<Integer>();
+        int mRejected;
+
+        Benchmark(int request, RIL.ResponseDecoder decoder) {
+            mRequest = request;
+            mDecoder = decoder;
+        }
+
+        void add(byte[] frame, int offset) {
+            Parcel p = Parcel.obtain();
+            p.unmarshall(frame, 0, frame.length);
+            p.setDataPosition(offset);
+            try {
+                mDecoder.decode(p);
+            } catch (RuntimeException ex) {
+                p.recycle();
+                mRejected++;
+                return;
+            }
+            mParcels.add(p);
+            mOffsets.add(offset);
+        }
+
+        void run(int iterations) {
+            int size = mParcels.size();
+            for (int i = 0; i < iterations; i++) {
+                for (int j = 0; j < size; j++) {
+                    Parcel p = mParcels.get(j);
+                    p.setDataPosition(mOffsets.get(j));
+                    mDecoder.decode(p);
+                }
+            }
+        }
+
+        void recycle() {
+            for (Parcel p : mParcels) {
+                p.recycle();
+            }
+            mParcels.clear();
+            mOffsets.clear();
+        }
+    }
+
+    private final ArrayList<Benchmark> mBenchmarks = new ArrayList<Benchmark>();
+    // Benchmarks by the request code rild sees, and by unsolicited response
+    private final SparseArray<Benchmark> mBySolicited = new SparseArray<Benchmark>();
+    private final SparseArray<Benchmark> mByUnsolicited = new SparseArray<Benchmark>();
+
+    private int mFrames;
+
+    RILDecodeBench(RIL ril) {
+        add(ril, RIL_REQUEST_SIGNAL_STRENGTH, RIL_UNSOL_SIGNAL_STRENGTH);
+        add(ril, RIL_REQUEST_GET_CURRENT_CALLS, -1);
+        add(ril, RIL_REQUEST_DATA_CALL_LIST, RIL_UNSOL_DATA_CALL_LIST_CHANGED);
+        add(ril, RIL_REQUEST_SETUP_DATA_CALL, -1);
+        add(ril, RIL_REQUEST_GET_CELL_INFO_LIST, RIL_UNSOL_CELL_INFO_LIST);
+        add(ril, RIL_REQUEST_QUERY_AVAILABLE_NETWORKS, -1);
+        add(ril, RIL_REQUEST_GET_SIM_STATUS, -1);
+        add(ril, RIL_REQUEST_VOICE_REGISTRATION_STATE, -1);
+        add(ril, RIL_REQUEST_DATA_REGISTRATION_STATE, -1);
+        add(ril, RIL_REQUEST_OPERATOR, -1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: RILDecodeBench <trace> [iterations]");
+            System.exit(1);
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        run("strings=plain", RIL.createDecodeOnly(false, false), args[0], iterations);
+        run("strings=interned", RIL.createDecodeOnly(true, false), args[0], iterations);
+        run("strings=interned+reused", RIL.createDecodeOnly(true, true), args[0], iterations);
+    }
+
+    private static void run(String config, RIL ril, String path, int iterations)
+            throws IOException {
+        RILDecodeBench bench = new RILDecodeBench(ril);
+        InputStream trace = new FileInputStream(path);
+        try {
+            bench.load(trace);
+        } finally {
+            trace.close();
+        }
+        System.out.println(config);
+        bench.run(iterations, System.out);
+    }
+
+    /**
+     * Picks the responses to benchmark out of a trace.
+     */
+    void load(InputStream trace) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(trace));
+        // Request code rild saw for every serial RILJ sent
+        SparseIntArray requests = new SparseIntArray();
+
+        for (;;) {
+            int direction;
+            try {
+                direction = in.readUnsignedByte();
+            } catch (EOFException ex) {
+                break;
+            }
+
+            if (direction != RILTraceTransport.TO_RILD
+                    && direction != RILTraceTransport.FROM_RILD) {
+                RILTraceTransport.readSegmentHeader(in, direction);
+                continue;
+            }
+
+            in.readLong();
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+
+            if (direction == RILTraceTransport.TO_RILD) {
+                requests.put(RILTraceTransport.readParcelInt(frame, 4),
+                        RILTraceTransport.readParcelInt(frame, 0));
+                continue;
+            }
+
+            mFrames++;
+            if (RILTraceTransport.readParcelInt(frame, 0) == RIL.RESPONSE_SOLICITED) {
+                int request = requests.get(RILTraceTransport.readParcelInt(frame, 4), -1);
+                Benchmark b = mBySolicited.get(request);
+                if (b != null && RILTraceTransport.readParcelInt(frame, 8) == 0) {
+                    b.add(frame, SOLICITED_HEADER_BYTES);
+                }
+            } else {
+                int response = RIL.fromWireResponse(RILTraceTransport.readParcelInt(frame, 4));
+                Benchmark b = mByUnsolicited.get(response);
+                if (b != null) {
+                    b.add(frame, UNSOLICITED_HEADER_BYTES);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures every decoder with responses in the trace, one line each.
+     */
+    @SuppressWarnings("deprecation")
+    void run(int iterations, PrintStream out) {
+        out.println("frames=" + mFrames + " iterations=" + iterations);
+
+        for (Benchmark b : mBenchmarks) {
+            String name = RIL.requestToString(b.mRequest);
+            int responses = b.mParcels.size();
+            if (responses == 0) {
+                out.println(name + " responses=0 rejected=" + b.mRejected);
+                continue;
+            }
+
+            b.run(WARMUP_ITERATIONS);
+
+            long start = System.nanoTime();
+            b.run(iterations);
+            long nanos = System.nanoTime() - start;
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocSize();
+            b.run(iterations);
+            long bytes = Debug.getThreadAllocSize();
+            Debug.stopAllocCounting();
+
+            long ops = (long) iterations * responses;
+            out.println(name
+                    + " responses=" + responses
+                    + " rejected=" + b.mRejected
+                    + " ns/op=" + nanos / ops
+                    + " bytes/op=" + bytes / ops);
+
+            b.recycle();
+        }
+    }
+
+    /**
+     * @param unsolicited RIL_UNSOL_* with the same payload, or -1
+     */
+    private void add(RIL ril, int request, int unsolicited) {
+        Benchmark b = new Benchmark(request, ril.getSolicitedDecoder(request));
+        mBenchmarks.add(b);
+        mBySolicited.put(RIL.toWireRequest(request), b);
+        if (unsolicited >= 0) {
+            mByUnsolicited.put(unsolicited, b);
+        }
+    }
+}
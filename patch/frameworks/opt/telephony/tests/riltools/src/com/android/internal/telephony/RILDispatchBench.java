@@ -0,0 +1,636 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.os.Parcel;
+import android.util.SparseIntArray;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Compares how RIL picks the decoder for a response now, from the decoder
+ * tables, with the switches over every id it used before, over the
+ * responses in a trace written by {@link RILTraceTransport}.
+ *
+ * It is built into riltools.jar, not telephony-common:
+ *
+ * <pre>
+ * CLASSPATH=/system/framework/riltools.jar app_process /system/bin \
+ *         com.android.internal.telephony.RILDispatchBench &lt;trace&gt; [iterations]
+ * </pre>
+ *
+ * The old path is a copy of the switches processSolicited and
+ * processUnsolicited had, with SonyRIL's translation of every unsolicited
+ * id in front. Its cases call the same decoders as the new path, so the
+ * two only differ in how the decoder is found. Responses that failed,
+ * that either path has no decoder for or that their decoder throws on are
+ * left out. Both paths are run several times in turn.
+ *
+ * {@hide}
+ */
+public class RILDispatchBench {
+    private static final int DEFAULT_ITERATIONS = 1000;
+    private static final int WARMUP_ITERATIONS = 100;
+    private static final int RUNS = 5;
+
+    // Above every RIL_REQUEST_* and RIL_UNSOL_* - RIL_UNSOL_RESPONSE_BASE
+    private static final int MAX_ID = 256;
+
+    // Words preceding the payload: type, serial and error for solicited
+    // responses, type and response id for unsolicited ones
+    private static final int SOLICITED_HEADER_BYTES = 12;
+    private static final int UNSOLICITED_HEADER_BYTES = 8;
+
+    private final RIL mRil;
+    // Decoders the old switches call, by RIL_REQUEST_* and by RIL_UNSOL_*
+    // less RIL_UNSOL_RESPONSE_BASE
+    private final RIL.ResponseDecoder[] mOldSolicited = new RIL.ResponseDecoder[MAX_ID];
+    private final RIL.ResponseDecoder[] mOldUnsolicited = new RIL.ResponseDecoder[MAX_ID];
+    // RIL_REQUEST_* by the code rild sees
+    private final SparseIntArray mRequests = new SparseIntArray();
+
+    // The responses: parcels positioned at their payload, and for each
+    // whether it is solicited and its request code or unsolicited id as
+    // rild sent it
+    private final ArrayList<Parcel> mParcels = new ArrayList<Parcel>();
+    private final ArrayList<Integer> mOffsets = new ArrayList<Integer>();
+    private boolean[] mSolicited = new boolean[0];
+    private int[] mIds = new int[0];
+    private int mFrames;
+    private int mRejected;
+
+    RILDispatchBench(RIL ril) {
+        mRil = ril;
+        for (int i = 0; i < MAX_ID; i++) {
+            mOldSolicited[i] = ril.getSolicitedDecoder(i);
+            mRequests.put(i, i);
+        }
+        // Where SonyRIL sends a request under another's code, the other is
+        // one rild doesn't support or has the same void response
+        for (int i = 0; i < MAX_ID; i++) {
+            int wire = RIL.toWireRequest(i);
+            if (wire != i) {
+                mRequests.put(wire, i);
+            }
+        }
+        for (int i = 0; i < MAX_ID; i++) {
+            int id = RIL_UNSOL_RESPONSE_BASE + i;
+            int response = RIL.fromWireResponse(id) - RIL_UNSOL_RESPONSE_BASE;
+            if (response >= 0 && response < MAX_ID) {
+                mOldUnsolicited[response] = ril.getUnsolicitedDecoder(id);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: RILDispatchBench <trace> [iterations]");
+            System.exit(1);
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        RILDispatchBench bench = new RILDispatchBench(RIL.createDecodeOnly(true, false));
+        InputStream trace = new FileInputStream(args[0]);
+        try {
+            bench.load(trace);
+        } finally {
+            trace.close();
+        }
+        bench.run(iterations, System.out);
+    }
+
+    /**
+     * Picks the responses both paths can decode out of a trace.
+     */
+    void load(InputStream trace) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(trace));
+        // Request code rild saw for every serial RILJ sent
+        SparseIntArray requests = new SparseIntArray();
+        ArrayList<Boolean> solicited = new ArrayList<Boolean>();
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+
+        for (;;) {
+            int direction;
+            try {
+                direction = in.readUnsignedByte();
+            } catch (EOFException ex) {
+                break;
+            }
+
+            if (direction != RILTraceTransport.TO_RILD
+                    && direction != RILTraceTransport.FROM_RILD) {
+                RILTraceTransport.readSegmentHeader(in, direction);
+                continue;
+            }
+
+            in.readLong();
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+
+            if (direction == RILTraceTransport.TO_RILD) {
+                requests.put(RILTraceTransport.readParcelInt(frame, 4),
+                        RILTraceTransport.readParcelInt(frame, 0));
+                continue;
+            }
+
+            mFrames++;
+            boolean isSolicited =
+                    RILTraceTransport.readParcelInt(frame, 0) == RIL.RESPONSE_SOLICITED;
+            int id;
+            int offset;
+            if (isSolicited) {
+                int request = mRequests.get(
+                        requests.get(RILTraceTransport.readParcelInt(frame, 4), -1), -1);
+                if (request < 0 || RILTraceTransport.readParcelInt(frame, 8) != 0) {
+                    continue;
+                }
+                id = request;
+                offset = SOLICITED_HEADER_BYTES;
+            } else {
+                id = RILTraceTransport.readParcelInt(frame, 4);
+                offset = UNSOLICITED_HEADER_BYTES;
+            }
+
+            Parcel p = Parcel.obtain();
+            p.unmarshall(frame, 0, frame.length);
+            try {
+                p.setDataPosition(offset);
+                dispatchNew(isSolicited, id, p);
+                p.setDataPosition(offset);
+                dispatchOld(isSolicited, id, p);
+            } catch (RuntimeException ex) {
+                p.recycle();
+                mRejected++;
+                continue;
+            }
+            mParcels.add(p);
+            mOffsets.add(offset);
+            solicited.add(isSolicited);
+            ids.add(id);
+        }
+
+        int size = mParcels.size();
+        mSolicited = new boolean[size];
+        mIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            mSolicited[i] = solicited.get(i);
+            mIds[i] = ids.get(i);
+        }
+    }
+
+    /**
+     * Measures both paths over every response, one line per run.
+     */
+    void run(int iterations, PrintStream out) {
+        int responses = mParcels.size();
+        out.println("frames=" + mFrames + " responses=" + responses
+                + " rejected=" + mRejected + " iterations=" + iterations);
+        if (responses == 0) {
+            return;
+        }
+
+        run(false, WARMUP_ITERATIONS);
+        run(true, WARMUP_ITERATIONS);
+
+        long ops = (long) iterations * responses;
+        for (int i = 0; i < RUNS; i++) {
+            out.println("switch ns/op=" + run(false, iterations) / ops);
+            out.println("table ns/op=" + run(true, iterations) / ops);
+        }
+
+        for (Parcel p : mParcels) {
+            p.recycle();
+        }
+        mParcels.clear();
+        mOffsets.clear();
+    }
+
+    /**
+     * @return ns taken to decode every response <code>iterations</code>
+     * times.
+     */
+    private long run(boolean table, int iterations) {
+        int size = mParcels.size();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < size; j++) {
+                Parcel p = mParcels.get(j);
+                p.setDataPosition(mOffsets.get(j));
+                if (table) {
+                    dispatchNew(mSolicited[j], mIds[j], p);
+                } else {
+                    dispatchOld(mSolicited[j], mIds[j], p);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private Object dispatchNew(boolean solicited, int id, Parcel p) {
+        RIL.ResponseDecoder decoder = solicited
+                ? mRil.getSolicitedDecoder(id) : mRil.getUnsolicitedDecoder(id);
+        if (decoder == null) {
+            throw new RuntimeException("Unrecognized response: " + id);
+        }
+        return decoder.decode(p);
+    }
+
+    private Object dispatchOld(boolean solicited, int id, Parcel p) {
+        return solicited ? oldSolicited(id, p) : oldUnsolicited(RIL.fromWireResponse(id), p);
+    }
+
+    // The cases of processSolicited before the decoder tables
+    private Object oldSolicited(int request, Parcel p) {
+        switch (request) {
+            case RIL_REQUEST_GET_SIM_STATUS:
+                return mOldSolicited[RIL_REQUEST_GET_SIM_STATUS].decode(p);
+            case RIL_REQUEST_ENTER_SIM_PIN:
+                return mOldSolicited[RIL_REQUEST_ENTER_SIM_PIN].decode(p);
+            case RIL_REQUEST_ENTER_SIM_PUK:
+                return mOldSolicited[RIL_REQUEST_ENTER_SIM_PUK].decode(p);
+            case RIL_REQUEST_ENTER_SIM_PIN2:
+                return mOldSolicited[RIL_REQUEST_ENTER_SIM_PIN2].decode(p);
+            case RIL_REQUEST_ENTER_SIM_PUK2:
+                return mOldSolicited[RIL_REQUEST_ENTER_SIM_PUK2].decode(p);
+            case RIL_REQUEST_CHANGE_SIM_PIN:
+                return mOldSolicited[RIL_REQUEST_CHANGE_SIM_PIN].decode(p);
+            case RIL_REQUEST_CHANGE_SIM_PIN2:
+                return mOldSolicited[RIL_REQUEST_CHANGE_SIM_PIN2].decode(p);
+            case RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION:
+                return mOldSolicited[RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION].decode(p);
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+                return mOldSolicited[RIL_REQUEST_GET_CURRENT_CALLS].decode(p);
+            case RIL_REQUEST_DIAL:
+                return mOldSolicited[RIL_REQUEST_DIAL].decode(p);
+            case RIL_REQUEST_GET_IMSI:
+                return mOldSolicited[RIL_REQUEST_GET_IMSI].decode(p);
+            case RIL_REQUEST_HANGUP:
+                return mOldSolicited[RIL_REQUEST_HANGUP].decode(p);
+            case RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND:
+                return mOldSolicited[RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND].decode(p);
+            case RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND:
+                return mOldSolicited[RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND].decode(p);
+            case RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE:
+                return mOldSolicited[RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE].decode(p);
+            case RIL_REQUEST_CONFERENCE:
+                return mOldSolicited[RIL_REQUEST_CONFERENCE].decode(p);
+            case RIL_REQUEST_UDUB:
+                return mOldSolicited[RIL_REQUEST_UDUB].decode(p);
+            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE:
+                return mOldSolicited[RIL_REQUEST_LAST_CALL_FAIL_CAUSE].decode(p);
+            case RIL_REQUEST_SIGNAL_STRENGTH:
+                return mOldSolicited[RIL_REQUEST_SIGNAL_STRENGTH].decode(p);
+            case RIL_REQUEST_VOICE_REGISTRATION_STATE:
+                return mOldSolicited[RIL_REQUEST_VOICE_REGISTRATION_STATE].decode(p);
+            case RIL_REQUEST_DATA_REGISTRATION_STATE:
+                return mOldSolicited[RIL_REQUEST_DATA_REGISTRATION_STATE].decode(p);
+            case RIL_REQUEST_OPERATOR:
+                return mOldSolicited[RIL_REQUEST_OPERATOR].decode(p);
+            case RIL_REQUEST_RADIO_POWER:
+                return mOldSolicited[RIL_REQUEST_RADIO_POWER].decode(p);
+            case RIL_REQUEST_DTMF:
+                return mOldSolicited[RIL_REQUEST_DTMF].decode(p);
+            case RIL_REQUEST_SEND_SMS:
+                return mOldSolicited[RIL_REQUEST_SEND_SMS].decode(p);
+            case RIL_REQUEST_SEND_SMS_EXPECT_MORE:
+                return mOldSolicited[RIL_REQUEST_SEND_SMS_EXPECT_MORE].decode(p);
+            case RIL_REQUEST_SETUP_DATA_CALL:
+                return mOldSolicited[RIL_REQUEST_SETUP_DATA_CALL].decode(p);
+            case RIL_REQUEST_SIM_IO:
+                return mOldSolicited[RIL_REQUEST_SIM_IO].decode(p);
+            case RIL_REQUEST_SEND_USSD:
+                return mOldSolicited[RIL_REQUEST_SEND_USSD].decode(p);
+            case RIL_REQUEST_CANCEL_USSD:
+                return mOldSolicited[RIL_REQUEST_CANCEL_USSD].decode(p);
+            case RIL_REQUEST_GET_CLIR:
+                return mOldSolicited[RIL_REQUEST_GET_CLIR].decode(p);
+            case RIL_REQUEST_SET_CLIR:
+                return mOldSolicited[RIL_REQUEST_SET_CLIR].decode(p);
+            case RIL_REQUEST_QUERY_CALL_FORWARD_STATUS:
+                return mOldSolicited[RIL_REQUEST_QUERY_CALL_FORWARD_STATUS].decode(p);
+            case RIL_REQUEST_SET_CALL_FORWARD:
+                return mOldSolicited[RIL_REQUEST_SET_CALL_FORWARD].decode(p);
+            case RIL_REQUEST_QUERY_CALL_WAITING:
+                return mOldSolicited[RIL_REQUEST_QUERY_CALL_WAITING].decode(p);
+            case RIL_REQUEST_SET_CALL_WAITING:
+                return mOldSolicited[RIL_REQUEST_SET_CALL_WAITING].decode(p);
+            case RIL_REQUEST_SMS_ACKNOWLEDGE:
+                return mOldSolicited[RIL_REQUEST_SMS_ACKNOWLEDGE].decode(p);
+            case RIL_REQUEST_GET_IMEI:
+                return mOldSolicited[RIL_REQUEST_GET_IMEI].decode(p);
+            case RIL_REQUEST_GET_IMEISV:
+                return mOldSolicited[RIL_REQUEST_GET_IMEISV].decode(p);
+            case RIL_REQUEST_ANSWER:
+                return mOldSolicited[RIL_REQUEST_ANSWER].decode(p);
+            case RIL_REQUEST_DEACTIVATE_DATA_CALL:
+                return mOldSolicited[RIL_REQUEST_DEACTIVATE_DATA_CALL].decode(p);
+            case RIL_REQUEST_QUERY_FACILITY_LOCK:
+                return mOldSolicited[RIL_REQUEST_QUERY_FACILITY_LOCK].decode(p);
+            case RIL_REQUEST_SET_FACILITY_LOCK:
+                return mOldSolicited[RIL_REQUEST_SET_FACILITY_LOCK].decode(p);
+            case RIL_REQUEST_CHANGE_BARRING_PASSWORD:
+                return mOldSolicited[RIL_REQUEST_CHANGE_BARRING_PASSWORD].decode(p);
+            case RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE:
+                return mOldSolicited[RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE].decode(p);
+            case RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC:
+                return mOldSolicited[RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC].decode(p);
+            case RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL:
+                return mOldSolicited[RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL].decode(p);
+            case RIL_REQUEST_QUERY_AVAILABLE_NETWORKS:
+                return mOldSolicited[RIL_REQUEST_QUERY_AVAILABLE_NETWORKS].decode(p);
+            case RIL_REQUEST_DTMF_START:
+                return mOldSolicited[RIL_REQUEST_DTMF_START].decode(p);
+            case RIL_REQUEST_DTMF_STOP:
+                return mOldSolicited[RIL_REQUEST_DTMF_STOP].decode(p);
+            case RIL_REQUEST_BASEBAND_VERSION:
+                return mOldSolicited[RIL_REQUEST_BASEBAND_VERSION].decode(p);
+            case RIL_REQUEST_SEPARATE_CONNECTION:
+                return mOldSolicited[RIL_REQUEST_SEPARATE_CONNECTION].decode(p);
+            case RIL_REQUEST_SET_MUTE:
+                return mOldSolicited[RIL_REQUEST_SET_MUTE].decode(p);
+            case RIL_REQUEST_GET_MUTE:
+                return mOldSolicited[RIL_REQUEST_GET_MUTE].decode(p);
+            case RIL_REQUEST_QUERY_CLIP:
+                return mOldSolicited[RIL_REQUEST_QUERY_CLIP].decode(p);
+            case RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE:
+                return mOldSolicited[RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE].decode(p);
+            case RIL_REQUEST_DATA_CALL_LIST:
+                return mOldSolicited[RIL_REQUEST_DATA_CALL_LIST].decode(p);
+            case RIL_REQUEST_RESET_RADIO:
+                return mOldSolicited[RIL_REQUEST_RESET_RADIO].decode(p);
+            case RIL_REQUEST_OEM_HOOK_RAW:
+                return mOldSolicited[RIL_REQUEST_OEM_HOOK_RAW].decode(p);
+            case RIL_REQUEST_OEM_HOOK_STRINGS:
+                return mOldSolicited[RIL_REQUEST_OEM_HOOK_STRINGS].decode(p);
+            case RIL_REQUEST_SCREEN_STATE:
+                return mOldSolicited[RIL_REQUEST_SCREEN_STATE].decode(p);
+            case RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION:
+                return mOldSolicited[RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION].decode(p);
+            case RIL_REQUEST_WRITE_SMS_TO_SIM:
+                return mOldSolicited[RIL_REQUEST_WRITE_SMS_TO_SIM].decode(p);
+            case RIL_REQUEST_DELETE_SMS_ON_SIM:
+                return mOldSolicited[RIL_REQUEST_DELETE_SMS_ON_SIM].decode(p);
+            case RIL_REQUEST_SET_BAND_MODE:
+                return mOldSolicited[RIL_REQUEST_SET_BAND_MODE].decode(p);
+            case RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE:
+                return mOldSolicited[RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE].decode(p);
+            case RIL_REQUEST_STK_GET_PROFILE:
+                return mOldSolicited[RIL_REQUEST_STK_GET_PROFILE].decode(p);
+            case RIL_REQUEST_STK_SET_PROFILE:
+                return mOldSolicited[RIL_REQUEST_STK_SET_PROFILE].decode(p);
+            case RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND:
+                return mOldSolicited[RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND].decode(p);
+            case RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE:
+                return mOldSolicited[RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE].decode(p);
+            case RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM:
+                return mOldSolicited[RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM].decode(p);
+            case RIL_REQUEST_EXPLICIT_CALL_TRANSFER:
+                return mOldSolicited[RIL_REQUEST_EXPLICIT_CALL_TRANSFER].decode(p);
+            case RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE:
+                return mOldSolicited[RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE].decode(p);
+            case RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE:
+                return mOldSolicited[RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE].decode(p);
+            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS:
+                return mOldSolicited[RIL_REQUEST_GET_NEIGHBORING_CELL_IDS].decode(p);
+            case RIL_REQUEST_SET_LOCATION_UPDATES:
+                return mOldSolicited[RIL_REQUEST_SET_LOCATION_UPDATES].decode(p);
+            case RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE:
+                return mOldSolicited[RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE].decode(p);
+            case RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE:
+                return mOldSolicited[RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE].decode(p);
+            case RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE:
+                return mOldSolicited[RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE].decode(p);
+            case RIL_REQUEST_SET_TTY_MODE:
+                return mOldSolicited[RIL_REQUEST_SET_TTY_MODE].decode(p);
+            case RIL_REQUEST_QUERY_TTY_MODE:
+                return mOldSolicited[RIL_REQUEST_QUERY_TTY_MODE].decode(p);
+            case RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE:
+                return mOldSolicited[RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE].decode(p);
+            case RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE:
+                return mOldSolicited[RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE].decode(p);
+            case RIL_REQUEST_CDMA_FLASH:
+                return mOldSolicited[RIL_REQUEST_CDMA_FLASH].decode(p);
+            case RIL_REQUEST_CDMA_BURST_DTMF:
+                return mOldSolicited[RIL_REQUEST_CDMA_BURST_DTMF].decode(p);
+            case RIL_REQUEST_CDMA_SEND_SMS:
+                return mOldSolicited[RIL_REQUEST_CDMA_SEND_SMS].decode(p);
+            case RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE:
+                return mOldSolicited[RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE].decode(p);
+            case RIL_REQUEST_GSM_GET_BROADCAST_CONFIG:
+                return mOldSolicited[RIL_REQUEST_GSM_GET_BROADCAST_CONFIG].decode(p);
+            case RIL_REQUEST_GSM_SET_BROADCAST_CONFIG:
+                return mOldSolicited[RIL_REQUEST_GSM_SET_BROADCAST_CONFIG].decode(p);
+            case RIL_REQUEST_GSM_BROADCAST_ACTIVATION:
+                return mOldSolicited[RIL_REQUEST_GSM_BROADCAST_ACTIVATION].decode(p);
+            case RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG:
+                return mOldSolicited[RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG].decode(p);
+            case RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG:
+                return mOldSolicited[RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG].decode(p);
+            case RIL_REQUEST_CDMA_BROADCAST_ACTIVATION:
+                return mOldSolicited[RIL_REQUEST_CDMA_BROADCAST_ACTIVATION].decode(p);
+            case RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY:
+                return mOldSolicited[RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY].decode(p);
+            case RIL_REQUEST_CDMA_SUBSCRIPTION:
+                return mOldSolicited[RIL_REQUEST_CDMA_SUBSCRIPTION].decode(p);
+            case RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM:
+                return mOldSolicited[RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM].decode(p);
+            case RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM:
+                return mOldSolicited[RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM].decode(p);
+            case RIL_REQUEST_DEVICE_IDENTITY:
+                return mOldSolicited[RIL_REQUEST_DEVICE_IDENTITY].decode(p);
+            case RIL_REQUEST_GET_SMSC_ADDRESS:
+                return mOldSolicited[RIL_REQUEST_GET_SMSC_ADDRESS].decode(p);
+            case RIL_REQUEST_SET_SMSC_ADDRESS:
+                return mOldSolicited[RIL_REQUEST_SET_SMSC_ADDRESS].decode(p);
+            case RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE:
+                return mOldSolicited[RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE].decode(p);
+            case RIL_REQUEST_REPORT_SMS_MEMORY_STATUS:
+                return mOldSolicited[RIL_REQUEST_REPORT_SMS_MEMORY_STATUS].decode(p);
+            case RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING:
+                return mOldSolicited[RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING].decode(p);
+            case RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE:
+                return mOldSolicited[RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE].decode(p);
+            case RIL_REQUEST_ISIM_AUTHENTICATION:
+                return mOldSolicited[RIL_REQUEST_ISIM_AUTHENTICATION].decode(p);
+            case RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU:
+                return mOldSolicited[RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU].decode(p);
+            case RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS:
+                return mOldSolicited[RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS].decode(p);
+            case RIL_REQUEST_VOICE_RADIO_TECH:
+                return mOldSolicited[RIL_REQUEST_VOICE_RADIO_TECH].decode(p);
+            case RIL_REQUEST_GET_CELL_INFO_LIST:
+                return mOldSolicited[RIL_REQUEST_GET_CELL_INFO_LIST].decode(p);
+            case RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE:
+                return mOldSolicited[RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE].decode(p);
+            case RIL_REQUEST_SET_INITIAL_ATTACH_APN:
+                return mOldSolicited[RIL_REQUEST_SET_INITIAL_ATTACH_APN].decode(p);
+            case RIL_REQUEST_SET_DATA_PROFILE:
+                return mOldSolicited[RIL_REQUEST_SET_DATA_PROFILE].decode(p);
+            case RIL_REQUEST_IMS_REGISTRATION_STATE:
+                return mOldSolicited[RIL_REQUEST_IMS_REGISTRATION_STATE].decode(p);
+            case RIL_REQUEST_IMS_SEND_SMS:
+                return mOldSolicited[RIL_REQUEST_IMS_SEND_SMS].decode(p);
+            case RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC:
+                return mOldSolicited[RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC].decode(p);
+            case RIL_REQUEST_SIM_OPEN_CHANNEL:
+                return mOldSolicited[RIL_REQUEST_SIM_OPEN_CHANNEL].decode(p);
+            case RIL_REQUEST_SIM_CLOSE_CHANNEL:
+                return mOldSolicited[RIL_REQUEST_SIM_CLOSE_CHANNEL].decode(p);
+            case RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL:
+                return mOldSolicited[RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL].decode(p);
+            case RIL_REQUEST_NV_READ_ITEM:
+                return mOldSolicited[RIL_REQUEST_NV_READ_ITEM].decode(p);
+            case RIL_REQUEST_NV_WRITE_ITEM:
+                return mOldSolicited[RIL_REQUEST_NV_WRITE_ITEM].decode(p);
+            case RIL_REQUEST_NV_WRITE_CDMA_PRL:
+                return mOldSolicited[RIL_REQUEST_NV_WRITE_CDMA_PRL].decode(p);
+            case RIL_REQUEST_NV_RESET_CONFIG:
+                return mOldSolicited[RIL_REQUEST_NV_RESET_CONFIG].decode(p);
+            case RIL_REQUEST_SET_UICC_SUBSCRIPTION:
+                return mOldSolicited[RIL_REQUEST_SET_UICC_SUBSCRIPTION].decode(p);
+            case RIL_REQUEST_ALLOW_DATA:
+                return mOldSolicited[RIL_REQUEST_ALLOW_DATA].decode(p);
+            case RIL_REQUEST_GET_HARDWARE_CONFIG:
+                return mOldSolicited[RIL_REQUEST_GET_HARDWARE_CONFIG].decode(p);
+            case RIL_REQUEST_SIM_AUTHENTICATION:
+                return mOldSolicited[RIL_REQUEST_SIM_AUTHENTICATION].decode(p);
+            case RIL_REQUEST_SHUTDOWN:
+                return mOldSolicited[RIL_REQUEST_SHUTDOWN].decode(p);
+            case RIL_REQUEST_GET_RADIO_CAPABILITY:
+                return mOldSolicited[RIL_REQUEST_GET_RADIO_CAPABILITY].decode(p);
+            case RIL_REQUEST_SET_RADIO_CAPABILITY:
+                return mOldSolicited[RIL_REQUEST_SET_RADIO_CAPABILITY].decode(p);
+            case RIL_REQUEST_START_LCE:
+                return mOldSolicited[RIL_REQUEST_START_LCE].decode(p);
+            case RIL_REQUEST_STOP_LCE:
+                return mOldSolicited[RIL_REQUEST_STOP_LCE].decode(p);
+            case RIL_REQUEST_PULL_LCEDATA:
+                return mOldSolicited[RIL_REQUEST_PULL_LCEDATA].decode(p);
+            case RIL_REQUEST_GET_ACTIVITY_INFO:
+                return mOldSolicited[RIL_REQUEST_GET_ACTIVITY_INFO].decode(p);
+            default:
+                throw new RuntimeException("Unrecognized solicited response: " + request);
+        }
+    }
+
+    private RIL.ResponseDecoder oldUnsolicitedDecoder(int response) {
+        return mOldUnsolicited[response - RIL_UNSOL_RESPONSE_BASE];
+    }
+
+    // The cases of processUnsolicited before the decoder tables
+    private Object oldUnsolicited(int response, Parcel p) {
+        switch (response) {
+            case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED).decode(p);
+            case RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED).decode(p);
+            case RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED).decode(p);
+            case RIL_UNSOL_RESPONSE_NEW_SMS:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_SMS).decode(p);
+            case RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT).decode(p);
+            case RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM).decode(p);
+            case RIL_UNSOL_ON_USSD:
+                return oldUnsolicitedDecoder(RIL_UNSOL_ON_USSD).decode(p);
+            case RIL_UNSOL_NITZ_TIME_RECEIVED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_NITZ_TIME_RECEIVED).decode(p);
+            case RIL_UNSOL_SIGNAL_STRENGTH:
+                return oldUnsolicitedDecoder(RIL_UNSOL_SIGNAL_STRENGTH).decode(p);
+            case RIL_UNSOL_DATA_CALL_LIST_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_DATA_CALL_LIST_CHANGED).decode(p);
+            case RIL_UNSOL_SUPP_SVC_NOTIFICATION:
+                return oldUnsolicitedDecoder(RIL_UNSOL_SUPP_SVC_NOTIFICATION).decode(p);
+            case RIL_UNSOL_STK_SESSION_END:
+                return oldUnsolicitedDecoder(RIL_UNSOL_STK_SESSION_END).decode(p);
+            case RIL_UNSOL_STK_PROACTIVE_COMMAND:
+                return oldUnsolicitedDecoder(RIL_UNSOL_STK_PROACTIVE_COMMAND).decode(p);
+            case RIL_UNSOL_STK_EVENT_NOTIFY:
+                return oldUnsolicitedDecoder(RIL_UNSOL_STK_EVENT_NOTIFY).decode(p);
+            case RIL_UNSOL_STK_CALL_SETUP:
+                return oldUnsolicitedDecoder(RIL_UNSOL_STK_CALL_SETUP).decode(p);
+            case RIL_UNSOL_SIM_SMS_STORAGE_FULL:
+                return oldUnsolicitedDecoder(RIL_UNSOL_SIM_SMS_STORAGE_FULL).decode(p);
+            case RIL_UNSOL_SIM_REFRESH:
+                return oldUnsolicitedDecoder(RIL_UNSOL_SIM_REFRESH).decode(p);
+            case RIL_UNSOL_CALL_RING:
+                return oldUnsolicitedDecoder(RIL_UNSOL_CALL_RING).decode(p);
+            case RIL_UNSOL_RESTRICTED_STATE_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESTRICTED_STATE_CHANGED).decode(p);
+            case RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED).decode(p);
+            case RIL_UNSOL_RESPONSE_CDMA_NEW_SMS:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_CDMA_NEW_SMS).decode(p);
+            case RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS).decode(p);
+            case RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL:
+                return oldUnsolicitedDecoder(RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL).decode(p);
+            case RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE:
+                return oldUnsolicitedDecoder(RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE).decode(p);
+            case RIL_UNSOL_CDMA_CALL_WAITING:
+                return oldUnsolicitedDecoder(RIL_UNSOL_CDMA_CALL_WAITING).decode(p);
+            case RIL_UNSOL_CDMA_OTA_PROVISION_STATUS:
+                return oldUnsolicitedDecoder(RIL_UNSOL_CDMA_OTA_PROVISION_STATUS).decode(p);
+            case RIL_UNSOL_CDMA_INFO_REC:
+                return oldUnsolicitedDecoder(RIL_UNSOL_CDMA_INFO_REC).decode(p);
+            case RIL_UNSOL_OEM_HOOK_RAW:
+                return oldUnsolicitedDecoder(RIL_UNSOL_OEM_HOOK_RAW).decode(p);
+            case RIL_UNSOL_RINGBACK_TONE:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RINGBACK_TONE).decode(p);
+            case RIL_UNSOL_RESEND_INCALL_MUTE:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESEND_INCALL_MUTE).decode(p);
+            case RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED).decode(p);
+            case RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE:
+                return oldUnsolicitedDecoder(RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE).decode(p);
+            case RIL_UNSOL_RIL_CONNECTED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RIL_CONNECTED).decode(p);
+            case RIL_UNSOL_VOICE_RADIO_TECH_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_VOICE_RADIO_TECH_CHANGED).decode(p);
+            case RIL_UNSOL_CELL_INFO_LIST:
+                return oldUnsolicitedDecoder(RIL_UNSOL_CELL_INFO_LIST).decode(p);
+            case RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED).decode(p);
+            case RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED).decode(p);
+            case RIL_UNSOL_SRVCC_STATE_NOTIFY:
+                return oldUnsolicitedDecoder(RIL_UNSOL_SRVCC_STATE_NOTIFY).decode(p);
+            case RIL_UNSOL_HARDWARE_CONFIG_CHANGED:
+                return oldUnsolicitedDecoder(RIL_UNSOL_HARDWARE_CONFIG_CHANGED).decode(p);
+            case RIL_UNSOL_RADIO_CAPABILITY:
+                return oldUnsolicitedDecoder(RIL_UNSOL_RADIO_CAPABILITY).decode(p);
+            case RIL_UNSOL_ON_SS:
+                return oldUnsolicitedDecoder(RIL_UNSOL_ON_SS).decode(p);
+            case RIL_UNSOL_STK_CC_ALPHA_NOTIFY:
+                return oldUnsolicitedDecoder(RIL_UNSOL_STK_CC_ALPHA_NOTIFY).decode(p);
+            case RIL_UNSOL_LCEDATA_RECV:
+                return oldUnsolicitedDecoder(RIL_UNSOL_LCEDATA_RECV).decode(p);
+            default:
+                throw new RuntimeException("Unrecognized unsol response: " + response);
+        }
+    }
+}
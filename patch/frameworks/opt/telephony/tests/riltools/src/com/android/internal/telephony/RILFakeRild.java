@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A synthetic rild for soak and throughput testing of RILJ without a
+ * modem.
+ *
+ * It listens on an abstract namespace socket; point RILJ at it by setting
+ * radio.rilj.socket to the same name and restarting the phone process, on
+ * a debuggable build only. Every request is answered
+ * after a delay drawn from a latency distribution, with an error injected
+ * at a given rate. Answers
+ * to the requests RILJ polls (calls, signal strength, registration state,
+ * operator, cell info) carry plausible payloads, everything else an empty
+ * one. Storms of unsolicited responses run while RILJ is connected.
+ *
+ * It is built into riltools.jar, not telephony-common, and so only uses
+ * the public {@hide} members of RIL and RILTraceTransport:
+ *
+ * <pre>
+ * CLASSPATH=/system/framework/riltools.jar app_process /system/bin \
+ *         com.android.internal.telephony.RILFakeRild &lt;socket name&gt; [option...]
+ *
+ * -l &lt;latency&gt;                default latency, fixed:&lt;ms&gt;, uniform:&lt;min&gt;:&lt;max&gt;
+ *                             or exp:&lt;mean&gt; (default fixed:0)
+ * -L &lt;request&gt;=&lt;latency&gt;      latency of one request code
+ * -e &lt;percent&gt;[:&lt;errno&gt;]      default error rate (default 0:2)
+ * -E &lt;request&gt;=&lt;percent&gt;[:&lt;errno&gt;]  error rate of one request code
+ * -s &lt;response&gt;:&lt;count&gt;:&lt;period ms&gt;  send count unsolicited responses
+ *                             every period, eg 1009:1:10 floods signal
+ *                             strength
+ * -c &lt;cells&gt;                  cells in GET_CELL_INFO_LIST answers
+ *                             (default 3)
+ * -t &lt;seconds&gt;                exit after this long
+ * </pre>
+ *
+ * Codes are the ones on the wire, ie after SonyRIL translated them.
+ * Unsolicited cell info lists can't be stormed: on the wire 1036 is
+ * SonyRIL's IMS network state change, so RILJ never decodes those frames
+ * as cell info, and they go out with an empty payload like any response
+ * without one of its own here.
+ *
+ * Counters are printed every STATS_PERIOD_MILLIS.
+ *
+ * {@hide}
+ */
+public class RILFakeRild {
+    private static final long STATS_PERIOD_MILLIS = 10 * 1000;
+
+    // Bytes RILJ writes right after connecting, before the first frame
+    private static final int HELLO_BYTES = "SUB1".length();
+
+    private static final int RIL_VERSION = 10;
+    private static final int RADIO_STATE_OFF = 0;
+    private static final int RADIO_STATE_ON = 10;
+
+    /**
+     * A latency distribution, in milliseconds.
+     */
+    static final class Latency {
+        private final String mKind;
+        private final double mA;
+        private final double mB;
+
+        private Latency(String kind, double a, double b) {
+            mKind = kind;
+            mA = a;
+            mB = b;
+        }
+
+        static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            if (parts[0].equals("fixed") && parts.length == 2) {
+                return new Latency(parts[0], Double.parseDouble(parts[1]), 0);
+            } else if (parts[0].equals("uniform") && parts.length == 3) {
+                return new Latency(parts[0], Double.parseDouble(parts[1]),
+                        Double.parseDouble(parts[2]));
+            } else if (parts[0].equals("exp") && parts.length == 2) {
+                return new Latency(parts[0], Double.parseDouble(parts[1]), 0);
+            }
+            throw new IllegalArgumentException("Bad latency " + spec);
+        }
+
+        long nextMillis(Random random) {
+            if (mKind.equals("uniform")) {
+                return (long) (mA + random.nextDouble() * (mB - mA));
+            } else if (mKind.equals("exp")) {
+                return (long) (-mA * Math.log(1 - random.nextDouble()));
+            }
+            return (long) mA;
+        }
+    }
+
+    /**
+     * How often a request fails, and with which RIL_Errno.
+     */
+    static final class Errors {
+        final double mPercent;
+        final int mErrno;
+
+        Errors(double percent, int errno) {
+            mPercent = percent;
+            mErrno = errno;
+        }
+
+        static Errors parse(String spec) {
+            String[] parts = spec.split(":");
+            return new Errors(Double.parseDouble(parts[0]),
+                    parts.length > 1 ? Integer.parseInt(parts[1]) : GENERIC_FAILURE);
+        }
+    }
+
+    /**
+     * count unsolicited responses sent back to back every period.
+     */
+    static final class Storm {
+        final int mResponse;
+        final int mCount;
+        final long mPeriodMillis;
+
+        Storm(int response, int count, long periodMillis) {
+            mResponse = response;
+            mCount = count;
+            mPeriodMillis = periodMillis;
+        }
+
+        static Storm parse(String spec) {
+            String[] parts = spec.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Bad storm " + spec);
+            }
+            return new Storm(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Long.parseLong(parts[2]));
+        }
+    }
+
+    private final String mSocketName;
+    private Latency mLatency = Latency.parse("fixed:0");
+    private final SparseArray<Latency> mRequestLatencies = new SparseArray<Latency>();
+    private Errors mErrors = new Errors(0, GENERIC_FAILURE);
+    private final SparseArray<Errors> mRequestErrors = new SparseArray<Errors>();
+    private final ArrayList<Storm> mStorms = new ArrayList<Storm>();
+    private int mCells = 3;
+
+    // Responses and storms run here, so writes never overlap
+    private final ScheduledExecutorService mScheduler =
+            Executors.newSingleThreadScheduledExecutor();
+    private final Random mRandom = new Random();
+
+    private volatile OutputStream mOut;
+    private volatile int mRadioState = RADIO_STATE_OFF;
+
+    private final AtomicLong mConnections = new AtomicLong();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mResponses = new AtomicLong();
+    private final AtomicLong mErrorsInjected = new AtomicLong();
+    private final AtomicLong mUnsolicited = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    public RILFakeRild(String socketName) {
+        mSocketName = socketName;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: RILFakeRild <socket name> [-l latency]"
+                    + " [-L request=latency] [-e percent[:errno]]"
+                    + " [-E request=percent[:errno]] [-s response:count:period]"
+                    + " [-c cells] [-t seconds]");
+            System.exit(1);
+        }
+
+        RILFakeRild rild = new RILFakeRild(args[0]);
+        long seconds = 0;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            int eq = value.indexOf('=');
+            if (args[i].equals("-l")) {
+                rild.mLatency = Latency.parse(value);
+            } else if (args[i].equals("-L") && eq > 0) {
+                rild.mRequestLatencies.put(Integer.parseInt(value.substring(0, eq)),
+                        Latency.parse(value.substring(eq + 1)));
+            } else if (args[i].equals("-e")) {
+                rild.mErrors = Errors.parse(value);
+            } else if (args[i].equals("-E") && eq > 0) {
+                rild.mRequestErrors.put(Integer.parseInt(value.substring(0, eq)),
+                        Errors.parse(value.substring(eq + 1)));
+            } else if (args[i].equals("-s")) {
+                rild.mStorms.add(Storm.parse(value));
+            } else if (args[i].equals("-c")) {
+                rild.mCells = Integer.parseInt(value);
+            } else if (args[i].equals("-t")) {
+                seconds = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (seconds > 0) {
+            rild.mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    System.exit(0);
+                }
+            }, seconds, TimeUnit.SECONDS);
+        }
+        rild.serve();
+    }
+
+    /**
+     * Serves RILJ until the process is killed, taking it back whenever it
+     * reconnects.
+     */
+    public void serve() throws IOException {
+        LocalServerSocket server = new LocalServerSocket(mSocketName);
+
+        mScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println(stats());
+            }
+        }, STATS_PERIOD_MILLIS, STATS_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+
+        for (;;) {
+            LocalSocket socket = server.accept();
+            mConnections.incrementAndGet();
+            ArrayList<ScheduledFuture<?>> storms = new ArrayList<ScheduledFuture<?>>();
+            try {
+                mOut = socket.getOutputStream();
+                mRadioState = RADIO_STATE_OFF;
+                sendUnsolicited(RIL_UNSOL_RIL_CONNECTED);
+                sendUnsolicited(RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED);
+
+                for (final Storm storm : mStorms) {
+                    storms.add(mScheduler.scheduleAtFixedRate(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < storm.mCount; i++) {
+                                sendUnsolicited(storm.mResponse);
+                            }
+                        }
+                    }, storm.mPeriodMillis, storm.mPeriodMillis, TimeUnit.MILLISECONDS));
+                }
+
+                readRequests(new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream())));
+            } catch (IOException ex) {
+                // RILJ went away, wait for it to come back
+            } finally {
+                for (ScheduledFuture<?> storm : storms) {
+                    storm.cancel(false);
+                }
+                mOut = null;
+                socket.close();
+            }
+        }
+    }
+
+    public String stats() {
+        return "connections=" + mConnections.get()
+                + " requests=" + mRequests.get()
+                + " responses=" + mResponses.get()
+                + " pending=" + (mRequests.get() - mResponses.get())
+                + " errorsInjected=" + mErrorsInjected.get()
+                + " unsolicited=" + mUnsolicited.get()
+                + " bytesSent=" + mBytesSent.get();
+    }
+
+    private void readRequests(DataInputStream in) throws IOException {
+        in.skipBytes(HELLO_BYTES);
+        for (;;) {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            mRequests.incrementAndGet();
+
+            final int request = RILTraceTransport.readParcelInt(frame, 0);
+            final int serial = RILTraceTransport.readParcelInt(frame, 4);
+            if (request == RIL_REQUEST_RADIO_POWER && frame.length >= 16) {
+                // int count, int on
+                final int state = RILTraceTransport.readParcelInt(frame, 12) != 0
+                        ? RADIO_STATE_ON : RADIO_STATE_OFF;
+                schedule(request, new Runnable() {
+                    @Override
+                    public void run() {
+                        mRadioState = state;
+                        sendUnsolicited(RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED);
+                    }
+                });
+            }
+
+            Errors errors = mRequestErrors.get(request, mErrors);
+            final int error = mRandom.nextDouble() * 100 < errors.mPercent ? errors.mErrno : 0;
+            schedule(request, new Runnable() {
+                @Override
+                public void run() {
+                    sendSolicited(request, serial, error);
+                }
+            });
+        }
+    }
+
+    private void schedule(int request, Runnable r) {
+        long delay = mRequestLatencies.get(request, mLatency).nextMillis(mRandom);
+        mScheduler.schedule(r, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendSolicited(int request, int serial, int error) {
+        Parcel p = Parcel.obtain();
+        p.writeInt(RIL.RESPONSE_SOLICITED);
+        p.writeInt(serial);
+        p.writeInt(error);
+        if (error == 0) {
+            writeResponse(p, request);
+        } else {
+            mErrorsInjected.incrementAndGet();
+        }
+        mResponses.incrementAndGet();
+        send(p);
+    }
+
+    private void sendUnsolicited(int response) {
+        Parcel p = Parcel.obtain();
+        p.writeInt(RIL.RESPONSE_UNSOLICITED);
+        p.writeInt(response);
+        writeResponse(p, response);
+        mUnsolicited.incrementAndGet();
+        send(p);
+    }
+
+    private void send(Parcel p) {
+        byte[] frame = p.marshall();
+        p.recycle();
+
+        OutputStream out = mOut;
+        if (out == null) {
+            return;
+        }
+        try {
+            synchronized (out) {
+                RILTraceReplayer.writeFrame(out, frame);
+            }
+            mBytesSent.addAndGet(frame.length + 4);
+        } catch (IOException ex) {
+            // RILJ went away, serve() notices through the read side
+        }
+    }
+
+    /**
+     * Writes the payload for a request or unsolicited response.
+     */
+    private void writeResponse(Parcel p, int code) {
+        switch (code) {
+            case RIL_REQUEST_GET_CURRENT_CALLS:
+                p.writeInt(0);
+                break;
+            case RIL_REQUEST_SIGNAL_STRENGTH:
+            case RIL_UNSOL_SIGNAL_STRENGTH:
+                writeSignalStrength(p);
+                break;
+            case RIL_REQUEST_VOICE_REGISTRATION_STATE:
+                p.writeStringArray(new String[] {
+                        "1", "1a2b", "0012abcd", "3", null, null, null, null,
+                        null, null, null, null, null, null, "0" });
+                break;
+            case RIL_REQUEST_DATA_REGISTRATION_STATE:
+                p.writeStringArray(new String[] { "1", "1a2b", "0012abcd", "3", null, "4" });
+                break;
+            case RIL_REQUEST_OPERATOR:
+                p.writeStringArray(new String[] { "Fake Operator", "Fake", "00101" });
+                break;
+            case RIL_REQUEST_GET_CELL_INFO_LIST:
+                writeCellInfoList(p);
+                break;
+            case RIL_UNSOL_RIL_CONNECTED:
+                p.writeInt(1);
+                p.writeInt(RIL_VERSION);
+                break;
+            case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED:
+                p.writeInt(mRadioState);
+                break;
+        }
+    }
+
+    private void writeSignalStrength(Parcel p) {
+        // As SignalStrength.makeSignalStrengthFromRilParcel() reads it
+        p.writeInt(mRandom.nextInt(32)); // gsm signal strength
+        p.writeInt(99);                  // gsm bit error rate
+        p.writeInt(-1);                  // cdma dbm
+        p.writeInt(-1);                  // cdma ecio
+        p.writeInt(-1);                  // evdo dbm
+        p.writeInt(-1);                  // evdo ecio
+        p.writeInt(-1);                  // evdo snr
+        p.writeInt(99);                  // lte signal strength
+        p.writeInt(Integer.MAX_VALUE);   // lte rsrp
+        p.writeInt(Integer.MAX_VALUE);   // lte rsrq
+        p.writeInt(Integer.MAX_VALUE);   // lte rssnr
+        p.writeInt(Integer.MAX_VALUE);   // lte cqi
+        p.writeInt(Integer.MAX_VALUE);   // td-scdma rscp
+    }
+
+    private void writeCellInfoList(Parcel p) {
+        // GSM cells, as CellInfo.CREATOR reads them
+        long now = SystemClock.elapsedRealtimeNanos();
+        p.writeInt(mCells);
+        for (int i = 0; i < mCells; i++) {
+            p.writeInt(1);                   // CellInfo.TYPE_GSM
+            p.writeInt(i == 0 ? 1 : 0);      // registered
+            p.writeInt(1);                   // time stamp type
+            p.writeLong(now);
+            p.writeInt(1);                   // mcc
+            p.writeInt(1);                   // mnc
+            p.writeInt(0x1a2b);              // lac
+            p.writeInt(0x1000 + i);          // cid
+            p.writeInt(mRandom.nextInt(32)); // signal strength
+            p.writeInt(99);                  // bit error rate
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.*;
+
+import android.util.SparseArray;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares RILRequestTable with the SparseArray under a monitor that RIL
+ * kept its in-flight requests in before, the way RIL uses them: one
+ * thread puts requests as RILSender does, another removes them by serial
+ * as RILReceiver does, with at most a window of requests outstanding.
+ *
+ * It is built into riltools.jar, not telephony-common:
+ *
+ * <pre>
+ * CLASSPATH=/system/framework/riltools.jar app_process /system/bin \
+ *         com.android.internal.telephony.RILRequestTableBench [ops] [window]
+ * </pre>
+ *
+ * Serials are sequential, as RIL hands them out. Both tables are run
+ * several times in turn and every run reports ns per request put and
+ * removed, so that JIT and frequency scaling show up as differing runs
+ * rather than skewing one table. The threads yield while they wait on
+ * each other, so on a single core the numbers are mostly scheduling.
+ *
+ * {@hide}
+ */
+public class RILRequestTableBench {
+    private static final int DEFAULT_OPS = 1000 * 1000;
+    // rild rarely has more than a handful of requests outstanding
+    private static final int DEFAULT_WINDOW = 8;
+    private static final int RUNS = 5;
+
+    // Requests are reused round this ring, each keeping its serial, once
+    // the receiver took them out of the table
+    private static final int RING = 4096;
+
+    private interface Table {
+        void put(int serial, RILRequest rr);
+        RILRequest remove(int serial);
+    }
+
+    private static final class LockFreeTable implements Table {
+        private final RILRequestTable mTable = new RILRequestTable();
+
+        @Override
+        public void put(int serial, RILRequest rr) {
+            mTable.put(rr);
+        }
+
+        @Override
+        public RILRequest remove(int serial) {
+            return mTable.remove(serial);
+        }
+    }
+
+    private static final class LockedTable implements Table {
+        private final SparseArray<RILRequest> mRequests = new SparseArray<RILRequest>();
+
+        @Override
+        public void put(int serial, RILRequest rr) {
+            synchronized (mRequests) {
+                mRequests.put(serial, rr);
+            }
+        }
+
+        @Override
+        public RILRequest remove(int serial) {
+            synchronized (mRequests) {
+                RILRequest rr = mRequests.get(serial);
+                if (rr != null) {
+                    mRequests.remove(serial);
+                }
+                return rr;
+            }
+        }
+    }
+
+    private final RILRequest[] mRing = new RILRequest[RING];
+    private final int mOps;
+    private final int mWindow;
+
+    RILRequestTableBench(int ops, int window) {
+        mOps = ops;
+        mWindow = Math.min(window, RING);
+        for (int i = 0; i < RING; i++) {
+            mRing[i] = RILRequest.createUnpooled(RIL_REQUEST_OPERATOR, i);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OPS;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WINDOW;
+
+        RILRequestTableBench bench = new RILRequestTableBench(ops, window);
+        PrintStream out = System.out;
+        out.println("ops=" + ops + " window=" + bench.mWindow);
+        for (int i = 0; i < RUNS; i++) {
+            out.println("RILRequestTable ns/op=" + bench.run(new LockFreeTable()));
+            out.println("SparseArray ns/op=" + bench.run(new LockedTable()));
+        }
+    }
+
+    /**
+     * @return ns per request put and removed.
+     */
+    long run(final Table table) throws InterruptedException {
+        // Requests put and removed so far
+        final AtomicInteger put = new AtomicInteger(0);
+        final AtomicInteger removed = new AtomicInteger(0);
+
+        Thread receiver = new Thread("RILRequestTableBenchReceiver") {
+            @Override
+            public void run() {
+                for (int i = 0; i < mOps; i++) {
+                    while (put.get() <= i) {
+                        // wait for the response to come in
+                        Thread.yield();
+                    }
+                    if (table.remove(i % RING) == null) {
+                        throw new IllegalStateException("Lost serial " + (i % RING));
+                    }
+                    removed.lazySet(i + 1);
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        receiver.start();
+        for (int i = 0; i < mOps; i++) {
+            while (i - removed.get() >= mWindow) {
+                // wait for rild to answer
+                Thread.yield();
+            }
+            table.put(i % RING, mRing[i % RING]);
+            put.lazySet(i + 1);
+        }
+        receiver.join();
+        return (System.nanoTime() - start) / mOps;
+    }
+}
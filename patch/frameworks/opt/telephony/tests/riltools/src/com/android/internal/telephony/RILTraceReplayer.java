@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Plays the rild side of a trace written by {@link RILTraceTransport} to a
+ * live RILJ.
+ *
+ * Point RILJ at the replayer by setting radio.rilj.socket to the socket
+ * name given here and restarting the phone process. Frames RILJ sent in
+ * the trace are not replayed; instead every solicited response in the
+ * trace waits for RILJ to send a request with the same code, and is sent
+ * back carrying that request's serial. Unsolicited responses are sent
+ * as recorded. Gaps between frames are kept, divided by the speed factor;
+ * a speed of 0 sends frames back to back.
+ *
+ * <pre>
+ * CLASSPATH=/system/framework/riltools.jar app_process /system/bin \
+ *         com.android.internal.telephony.RILTraceReplayer &lt;trace&gt; &lt;socket name&gt; [speed]
+ * </pre>
+ *
+ * {@hide}
+ */
+public class RILTraceReplayer {
+    // How long a solicited response waits for RILJ to send its request
+    private static final long MATCH_TIMEOUT_MILLIS = 10 * 1000;
+
+    // Bytes RILJ writes right after connecting, before the first frame
+    private static final int HELLO_BYTES = "SUB1".length();
+
+    private final DataInputStream mTrace;
+    private final LocalServerSocket mServer;
+    private final double mSpeed;
+
+    // Request code of every serial RILJ used in the trace
+    private final SparseArray<Integer> mTraceRequests = new SparseArray<Integer>();
+    // Serials of live requests not yet answered, by request code
+    private final SparseArray<ArrayDeque<Integer>> mLiveSerials =
+            new SparseArray<ArrayDeque<Integer>>();
+    private boolean mLiveClosed;
+
+    private int mSolicitedSent;
+    private int mUnsolicitedSent;
+    private int mUnmatched;
+
+    public RILTraceReplayer(InputStream trace, String socketName, double speed)
+            throws IOException {
+        mTrace = new DataInputStream(new BufferedInputStream(trace));
+        mServer = new LocalServerSocket(socketName);
+        mSpeed = speed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: RILTraceReplayer <trace> <socket name> [speed]");
+            System.exit(1);
+        }
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        RILTraceReplayer replayer = new RILTraceReplayer(
+                new FileInputStream(args[0]), args[1], speed);
+        replayer.replay();
+        System.out.println(replayer.stats());
+    }
+
+    /**
+     * Waits for RILJ to connect and then plays the trace to it.
+     */
+    public void replay() throws IOException, InterruptedException {
+        final LocalSocket socket = mServer.accept();
+        final InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+
+        Thread reader = new Thread("RILTraceReplayerReader") {
+            @Override
+            public void run() {
+                readRequests(in);
+            }
+        };
+        reader.start();
+
+        try {
+            long lastNanos = -1;
+            for (;;) {
+                int direction;
+                try {
+                    direction = mTrace.readUnsignedByte();
+                } catch (EOFException ex) {
+                    break;
+                }
+
+                if (direction != RILTraceTransport.TO_RILD
+                        && direction != RILTraceTransport.FROM_RILD) {
+                    // Start of the next segment, ie RILJ reconnected
+                    RILTraceTransport.readSegmentHeader(mTrace, direction);
+                    lastNanos = -1;
+                    continue;
+                }
+
+                long nanos = mTrace.readLong();
+                byte[] frame = new byte[mTrace.readInt()];
+                mTrace.readFully(frame);
+
+                if (direction == RILTraceTransport.TO_RILD) {
+                    mTraceRequests.put(readInt(frame, 4), readInt(frame, 0));
+                    continue;
+                }
+
+                if (lastNanos >= 0 && mSpeed > 0) {
+                    long waitNanos = (long) ((nanos - lastNanos) / mSpeed);
+                    if (waitNanos > 0) {
+                        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                    }
+                }
+                lastNanos = nanos;
+
+                if (readInt(frame, 0) == RIL.RESPONSE_SOLICITED) {
+                    Integer request = mTraceRequests.get(readInt(frame, 4));
+                    Integer serial = request == null ? null : takeLiveSerial(request);
+                    if (serial == null) {
+                        mUnmatched++;
+                        continue;
+                    }
+                    writeInt(frame, 4, serial);
+                    mSolicitedSent++;
+                } else {
+                    mUnsolicitedSent++;
+                }
+                writeFrame(out, frame);
+            }
+        } finally {
+            socket.close();
+            mServer.close();
+            mTrace.close();
+        }
+    }
+
+    public String stats() {
+        return "solicited=" + mSolicitedSent + " unsolicited=" + mUnsolicitedSent
+                + " unmatched=" + mUnmatched;
+    }
+
+    private void readRequests(InputStream in) {
+        try {
+            DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+            din.skipBytes(HELLO_BYTES);
+            for (;;) {
+                byte[] frame = new byte[din.readInt()];
+                din.readFully(frame);
+                synchronized (mLiveSerials) {
+                    int request = readInt(frame, 0);
+                    ArrayDeque<Integer> serials = mLiveSerials.get(request);
+                    if (serials == null) {
+                        serials = new ArrayDeque<Integer>();
+                        mLiveSerials.put(request, serials);
+                    }
+                    serials.add(readInt(frame, 4));
+                    mLiveSerials.notifyAll();
+                }
+            }
+        } catch (IOException ex) {
+            // RILJ went away
+        } finally {
+            synchronized (mLiveSerials) {
+                mLiveClosed = true;
+                mLiveSerials.notifyAll();
+            }
+        }
+    }
+
+    private Integer takeLiveSerial(int request) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MATCH_TIMEOUT_MILLIS;
+        synchronized (mLiveSerials) {
+            for (;;) {
+                ArrayDeque<Integer> serials = mLiveSerials.get(request);
+                if (serials != null && !serials.isEmpty()) {
+                    return serials.poll();
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (mLiveClosed || wait <= 0) {
+                    return null;
+                }
+                mLiveSerials.wait(wait);
+            }
+        }
+    }
+
+    static void writeFrame(OutputStream out, byte[] frame) throws IOException {
+        int length = frame.length;
+        byte[] header = new byte[] {
+                (byte) (length >> 24), (byte) (length >> 16), (byte) (length >> 8),
+                (byte) length };
+        out.write(header);
+        out.write(frame);
+    }
+
+    static int readInt(byte[] data, int offset) {
+        return RILTraceTransport.readParcelInt(data, offset);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+public class RILRequestTableTest extends TestCase {
+    // RILRequestTable's slot count: serials this far apart collide
+    private static final int CAPACITY = 256;
+
+    private RILRequestTable mTable;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTable = new RILRequestTable();
+    }
+
+    private RILRequest put(int serial) {
+        RILRequest rr = RILRequest.createUnpooled(RILConstants.RIL_REQUEST_OPERATOR, serial);
+        mTable.put(rr);
+        return rr;
+    }
+
+    @SmallTest
+    public void testPutRemove() {
+        RILRequest rr = put(7);
+        assertEquals(1, mTable.size());
+        assertNull(mTable.remove(8));
+        assertSame(rr, mTable.remove(7));
+        assertNull(mTable.remove(7));
+        assertEquals(0, mTable.size());
+    }
+
+    @SmallTest
+    public void testSerialWraparound() {
+        // resetSerial() starts from a random int, so serials run through
+        // MAX_VALUE into negative numbers
+        RILRequest[] requests = new RILRequest[8];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = put(Integer.MAX_VALUE - 3 + i);
+        }
+        assertEquals(requests.length, mTable.size());
+
+        for (int i = requests.length - 1; i >= 0; i--) {
+            assertSame(requests[i], mTable.remove(Integer.MAX_VALUE - 3 + i));
+        }
+        assertEquals(0, mTable.size());
+    }
+
+    @SmallTest
+    public void testWraparoundCollision() {
+        // MAX_VALUE and MIN_VALUE + CAPACITY - 1 share the last slot
+        RILRequest last = put(Integer.MAX_VALUE);
+        RILRequest wrapped = put(Integer.MIN_VALUE + CAPACITY - 1);
+        RILRequest first = put(Integer.MIN_VALUE);
+
+        assertSame(last, mTable.remove(Integer.MAX_VALUE));
+        assertSame(first, mTable.remove(Integer.MIN_VALUE));
+        assertSame(wrapped, mTable.remove(Integer.MIN_VALUE + CAPACITY - 1));
+        assertEquals(0, mTable.size());
+    }
+
+    @SmallTest
+    public void testRemoveUnderCollision() {
+        RILRequest a = put(5);
+        RILRequest b = put(5 + CAPACITY);
+        RILRequest c = put(5 + 2 * CAPACITY);
+
+        // Removing the middle of a probe sequence leaves the rest reachable
+        assertSame(b, mTable.remove(5 + CAPACITY));
+        assertNull(mTable.remove(5 + CAPACITY));
+        assertSame(c, mTable.remove(5 + 2 * CAPACITY));
+
+        // and its slot is taken again by the next collision
+        RILRequest d = put(5 + 3 * CAPACITY);
+        assertSame(a, mTable.remove(5));
+        assertSame(d, mTable.remove(5 + 3 * CAPACITY));
+        assertEquals(0, mTable.size());
+    }
+
+    @SmallTest
+    public void testRemoveOnlyMatchingSerial() {
+        // A colliding neighbour must not be returned for a missing serial
+        put(9);
+        put(9 + CAPACITY);
+        assertNull(mTable.remove(9 + 2 * CAPACITY));
+        assertEquals(2, mTable.size());
+    }
+
+    @SmallTest
+    public void testOverflow() {
+        int count = CAPACITY + 16;
+        RILRequest[] requests = new RILRequest[count];
+        for (int i = 0; i < count; i++) {
+            requests[i] = put(1000 + i);
+        }
+        assertEquals(count, mTable.size());
+
+        for (int i = 0; i < count; i++) {
+            assertSame(requests[i], mTable.remove(1000 + i));
+        }
+        assertEquals(0, mTable.size());
+    }
+
+    @SmallTest
+    public void testRemoveAll() {
+        put(1);
+        put(1 + CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            put(2000 + i);
+        }
+
+        ArrayList<RILRequest> removed = new ArrayList<RILRequest>();
+        mTable.removeAll(removed);
+        assertEquals(CAPACITY + 2, removed.size());
+        assertEquals(0, mTable.size());
+        assertNull(mTable.remove(1));
+    }
+}